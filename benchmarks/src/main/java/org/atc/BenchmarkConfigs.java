@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import org.atc.config.ConfigReader;
+import org.atc.config.PublisherConfig;
+import org.atc.config.SubscriberConfig;
+import org.atc.config.TestConfiguration;
+import org.atc.loopback.LoopbackInitialContextFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Publisher and subscriber configurations of the benchmarks, read from the bundled benchmark.yaml. All
+ * of them use the loopback provider so that no broker is involved.
+ */
+final class BenchmarkConfigs {
+
+    private static final String CONFIG_RESOURCE = "benchmark.yaml";
+
+    private static TestConfiguration configuration;
+
+    private BenchmarkConfigs() {
+    }
+
+    static PublisherConfig topicPublisher(String id) throws Exception {
+        return findPublisher(load().getTopicPublishers(), id);
+    }
+
+    static PublisherConfig queuePublisher(String id) throws Exception {
+        return findPublisher(load().getQueuePublishers(), id);
+    }
+
+    static SubscriberConfig topicSubscriber(String id) throws Exception {
+        return findSubscriber(load().getTopicSubscribers(), id);
+    }
+
+    static SubscriberConfig queueSubscriber(String id) throws Exception {
+        return findSubscriber(load().getQueueSubscribers(), id);
+    }
+
+    private static synchronized TestConfiguration load() throws Exception {
+        if (null == configuration) {
+            try (InputStream input = BenchmarkConfigs.class.getClassLoader().getResourceAsStream(CONFIG_RESOURCE)) {
+                if (null == input) {
+                    throw new IOException("Benchmark configuration " + CONFIG_RESOURCE + " not found in class path");
+                }
+                configuration = ConfigReader.parseConfig(input);
+            }
+            System.setProperty(LoopbackInitialContextFactory.DELIVERY_LATENCY_PROPERTY,
+                    Integer.toString(configuration.getLoopbackDeliveryLatencyMicros()));
+        }
+        return configuration;
+    }
+
+    private static PublisherConfig findPublisher(List<PublisherConfig> configs, String id) {
+        for (PublisherConfig config : configs) {
+            if (id.equals(config.getId())) {
+                return config;
+            }
+        }
+        throw new IllegalArgumentException("No publisher with id " + id + " in " + CONFIG_RESOURCE);
+    }
+
+    private static SubscriberConfig findSubscriber(List<SubscriberConfig> configs, String id) {
+        for (SubscriberConfig config : configs) {
+            if (id.equals(config.getId())) {
+                return config;
+            }
+        }
+        throw new IllegalArgumentException("No subscriber with id " + id + " in " + CONFIG_RESOURCE);
+    }
+}
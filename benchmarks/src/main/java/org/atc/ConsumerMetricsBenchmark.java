@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import org.atc.amqp.topic.AMQPTopicSubscriber;
+import org.atc.metrics.LatencyRecorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric updates done by {@link org.atc.ConsumerThread} for every received message: latency recording,
+ * with and without coordinated omission correction, and the rate meters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerMetricsBenchmark {
+
+    /**
+     * Subscriber of benchmark.yaml. The corrected one sets expectedMessagesPerSecond.
+     */
+    @Param({"consumer-metrics", "consumer-metrics-corrected"})
+    private String subscriberId;
+
+    private AMQPTopicSubscriber subscriber;
+    private ConsumerThread consumerThread;
+    private ATCMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        subscriber = new AMQPTopicSubscriber();
+        subscriber.subscribe(BenchmarkConfigs.topicSubscriber(subscriberId));
+        consumerThread = new ConsumerThread(subscriber, new LatencyRecorder("benchmark"), new Meter());
+        message = new ATCMessage("benchmark message");
+        message.setLocalClock(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        subscriber.close();
+        Main.GAUGES.removeMatching(MetricFilter.ALL);
+    }
+
+    @Benchmark
+    public void onMessage() {
+        message.setSendNanos(System.nanoTime());
+        consumerThread.onMessage(message);
+    }
+}
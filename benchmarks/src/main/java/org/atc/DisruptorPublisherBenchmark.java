@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import com.codahale.metrics.Meter;
+import org.atc.amqp.topic.AMQPTopicPublisher;
+import org.atc.metrics.WindowedCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claim, fill and publish cycle of the transactional publisher with the different wait strategies of the
+ * handler thread. The handler sends and commits through a loopback topic publisher, so the producer is
+ * held back by the client's own send path only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisruptorPublisherBenchmark {
+
+    @Param({"blocking", "sleeping", "yielding", "busy-spin", "phased-backoff"})
+    private String waitStrategy;
+
+    private DisruptorBasedPublisher disruptorPublisher;
+    private String content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AMQPTopicPublisher publisher = new AMQPTopicPublisher();
+        publisher.init(BenchmarkConfigs.topicPublisher("tx-" + waitStrategy));
+        content = publisher.getConfigs().getMessageContent();
+        disruptorPublisher = new DisruptorBasedPublisher(publisher.getConfigs().getTransactionBatchSize(),
+                publisher, new WindowedCounter(1), new Meter(), DisruptorEngine.acquire(publisher.getConfigs()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        disruptorPublisher.closePublisher();
+        disruptorPublisher.shutdown();
+    }
+
+    @Benchmark
+    public long publish() {
+        long sequence = disruptorPublisher.next();
+        ATCMessage message = disruptorPublisher.getMessage(sequence);
+        message.setContent(content);
+        message.setSequence(sequence);
+        message.setTimeStamp(0);
+        disruptorPublisher.publish(sequence);
+        return sequence;
+    }
+}
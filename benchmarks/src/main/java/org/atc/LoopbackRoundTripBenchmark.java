@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.queue.AMQPQueueReceiver;
+import org.atc.amqp.queue.AMQPQueueSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full client path of one message through a loopback queue: conversion, send, receive and conversion back.
+ * Gives the per message ceiling of the client without any broker in the way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackRoundTripBenchmark {
+
+    private AMQPQueueSender sender;
+    private AMQPQueueReceiver receiver;
+    private ATCMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sender = new AMQPQueueSender();
+        sender.init(BenchmarkConfigs.queuePublisher("queue-sender"));
+        receiver = new AMQPQueueReceiver();
+        receiver.subscribe(BenchmarkConfigs.queueSubscriber("queue-receiver"));
+        ConnectionPool.getInstance().start();
+        message = sender.createTextMessage(sender.getConfigs().getMessageContent());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sender.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public ATCMessage sendAndReceive() throws Exception {
+        message.setTimeStamp(0);
+        sender.send(message);
+        return receiver.receive();
+    }
+}
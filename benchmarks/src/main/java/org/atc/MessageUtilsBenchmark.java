@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.MessageUtils;
+import org.atc.amqp.PooledSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Conversions between {@link org.atc.ATCMessage} and JMS messages done for every message sent and
+ * received, with the header and the payload copy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageUtilsBenchmark {
+
+    @Param({"100", "1024", "65536"})
+    private int payloadSize;
+
+    private PooledSession pooledSession;
+    private Session session;
+    private ATCMessage message;
+    private BytesMessage received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pooledSession = ConnectionPool.getInstance().acquireSession(BenchmarkConfigs.queuePublisher("queue-sender"),
+                false, Session.AUTO_ACKNOWLEDGE, 1);
+        session = pooledSession.getSession();
+
+        byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        message = new ATCMessage();
+        message.setContent(payload);
+        message.setPublisherId(1);
+        message.setSequence(1);
+        message.setTimeStamp(System.currentTimeMillis());
+
+        received = (BytesMessage) MessageUtils.fromATCToJMS(session, message);
+        received.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ConnectionPool.getInstance().release(pooledSession);
+    }
+
+    @Benchmark
+    public Message toJMS() throws Exception {
+        return MessageUtils.fromATCToJMS(session, message);
+    }
+
+    @Benchmark
+    public ATCMessage fromJMS() throws Exception {
+        received.reset();
+        return MessageUtils.fromJMSToATC(received);
+    }
+}
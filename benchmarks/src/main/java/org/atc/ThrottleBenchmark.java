@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the publisher throttles per permit. The rate is set far above what a single thread reaches so
+ * the throttles never wait and only their bookkeeping is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThrottleBenchmark {
+
+    private static final int PERMITS_PER_SECOND = Integer.MAX_VALUE;
+
+    private RateLimiter rateLimiter;
+    private OpenLoopScheduler scheduler;
+
+    @Setup
+    public void setUp() {
+        rateLimiter = RateLimiter.create(PERMITS_PER_SECOND);
+        scheduler = new OpenLoopScheduler(PERMITS_PER_SECOND);
+    }
+
+    @Benchmark
+    public double rateLimiter() {
+        return rateLimiter.acquire();
+    }
+
+    @Benchmark
+    public long openLoopScheduler() throws InterruptedException {
+        return scheduler.acquire();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import com.codahale.metrics.Meter;
+import org.atc.amqp.topic.AMQPTopicPublisher;
+import org.atc.metrics.WindowedCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactional batching of {@link org.atc.TxPublishHandler}, driven directly without the ring buffer.
+ * Every invocation copies the event into the batch and sends it, every batchSize-th one also commits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxPublishHandlerBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int batchSize;
+
+    private AMQPTopicPublisher publisher;
+    private TxPublishHandler handler;
+    private PublishEvent event;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        publisher = new AMQPTopicPublisher();
+        publisher.init(BenchmarkConfigs.topicPublisher("tx-publisher"));
+        handler = new TxPublishHandler(batchSize, publisher, new WindowedCounter(1), new Meter());
+        event = new PublishEvent();
+        event.getAtcMessage().setContent(publisher.getConfigs().getMessageContent());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        publisher.commit();
+        publisher.close();
+    }
+
+    @Benchmark
+    public void onEvent() throws Exception {
+        event.setType(PublishEvent.EventType.MessageEvent);
+        event.getAtcMessage().setSequence(sequence);
+        event.getAtcMessage().setTimeStamp(0);
+        handler.onEvent(event, sequence++, true);
+    }
+}
@@ -16,6 +16,9 @@
 
 package org.atc;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Generic class to represent messages sent and received through ATC
  * Different protocol implementations need to convert to and from protocol specific
@@ -27,6 +30,16 @@ public class ATCMessage {
     private String text;
     private String correlationId;
     private long timestamp;
+    private int publisherId;
+    private long sequence;
+    private long sendNanos;
+    private boolean localClock;
+    private boolean redelivered;
+    private boolean persistent;
+    private byte[] payload;
+    private ByteBuffer payloadBuffer;
+    private int payloadOffset;
+    private int payloadLength;
 
     /**
      * A{@link org.atc.ATCMessage} created with content set
@@ -67,6 +80,11 @@ public class ATCMessage {
      * @return {@link java.lang.String} representation of content is returned
      */
     public final String getStringContent() {
+        if (null == text && null != payload) {
+            text = new String(payload, payloadOffset, payloadLength, StandardCharsets.UTF_8);
+        } else if (null == text && null != payloadBuffer) {
+            text = new String(getContent(), StandardCharsets.UTF_8);
+        }
         return text;
     }
 
@@ -77,8 +95,215 @@ public class ATCMessage {
      */
     public final void setContent(String content) {
         this.text = content;
+        this.payload = null;
+        this.payloadBuffer = null;
+        this.payloadLength = 0;
+    }
+
+    /**
+     * Payload (content) of the message is set as raw bytes. The {@link java.lang.String} representation
+     * is decoded as UTF-8 only when asked for.
+     *
+     * @param payload content bytes
+     */
+    public final void setContent(byte[] payload) {
+        setContent(payload, 0, null == payload ? 0 : payload.length);
+    }
+
+    /**
+     * Payload (content) of the message is set as a range of a byte array. The array is referenced, not
+     * copied, hence it should not be modified while the message is in use.
+     *
+     * @param payload array holding the content
+     * @param offset start of the content in the array
+     * @param length content length in bytes
+     */
+    public final void setContent(byte[] payload, int offset, int length) {
+        this.payload = payload;
+        this.payloadBuffer = null;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+        this.text = null;
     }
 
+    /**
+     * Payload (content) of the message is set as a range of a buffer, for instance a slice of a memory
+     * mapped file. The buffer is referenced, not copied, and its position and limit are left untouched.
+     *
+     * @param buffer buffer holding the content
+     * @param offset absolute start index of the content in the buffer
+     * @param length content length in bytes
+     */
+    public final void setContent(ByteBuffer buffer, int offset, int length) {
+        this.payloadBuffer = buffer;
+        this.payload = null;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+        this.text = null;
+    }
+
+    /**
+     * Payload (content) of the message as raw bytes. A {@link java.lang.String} content is encoded as
+     * UTF-8 once and kept, hence publishers reusing a message do not encode it again. Content set as a
+     * range of an array or a buffer is copied to a new array.
+     *
+     * @return content bytes, null if no content is set
+     */
+    public final byte[] getContent() {
+        if (null == payload && null == payloadBuffer && null != text) {
+            String content = text;
+            setContent(content.getBytes(StandardCharsets.UTF_8));
+            text = content; // same content, no need to decode it again
+        }
+        if (null != payloadBuffer) {
+            byte[] content = new byte[payloadLength];
+            ByteBuffer view = payloadBuffer.duplicate();
+            view.position(payloadOffset);
+            view.get(content);
+            return content;
+        } else if (null != payload && (payloadOffset != 0 || payloadLength != payload.length)) {
+            byte[] content = new byte[payloadLength];
+            System.arraycopy(payload, payloadOffset, content, 0, payloadLength);
+            return content;
+        }
+        return payload;
+    }
+
+    /**
+     * Array backing the content. Used together with {@link #getContentOffset()} and
+     * {@link #getContentLength()} to write the content without copying it.
+     *
+     * @return content array, null if the content is a {@link java.nio.ByteBuffer} or a
+     * {@link java.lang.String}
+     */
+    public final byte[] getContentArray() {
+        return payload;
+    }
+
+    /**
+     * Buffer backing the content
+     *
+     * @return content buffer, null if the content is not set as a {@link java.nio.ByteBuffer}
+     */
+    public final ByteBuffer getContentBuffer() {
+        return payloadBuffer;
+    }
+
+    /**
+     * @return start of the content in the content array or buffer
+     */
+    public final int getContentOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return content length in bytes, 0 if the content is a {@link java.lang.String} not encoded yet
+     */
+    public final int getContentLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Overwrites the state of this message with the state of the given message. Used to reuse message
+     * instances instead of allocating one per message. Content is shared, not copied.
+     *
+     * @param other message to copy from
+     */
+    public final void copyFrom(ATCMessage other) {
+        this.messageId = other.messageId;
+        this.text = other.text;
+        this.payload = other.payload;
+        this.payloadBuffer = other.payloadBuffer;
+        this.payloadOffset = other.payloadOffset;
+        this.payloadLength = other.payloadLength;
+        this.correlationId = other.correlationId;
+        this.timestamp = other.timestamp;
+        this.publisherId = other.publisherId;
+        this.sequence = other.sequence;
+        this.sendNanos = other.sendNanos;
+        this.localClock = other.localClock;
+        this.redelivered = other.redelivered;
+        this.persistent = other.persistent;
+    }
+
+    /**
+     * Numeric id of the publisher that sent the message
+     *
+     * @return publisher id carried in the message header
+     */
+    public final int getPublisherId() {
+        return publisherId;
+    }
+
+    public final void setPublisherId(int publisherId) {
+        this.publisherId = publisherId;
+    }
+
+    /**
+     * Sequence number of the message within its publisher. Sequences start from 1.
+     *
+     * @return sequence number carried in the message header
+     */
+    public final long getSequence() {
+        return sequence;
+    }
+
+    public final void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Send time of the message as given by {@link System#nanoTime()} of the publisher
+     *
+     * @return monotonic send time in nanoseconds
+     */
+    public final long getSendNanos() {
+        return sendNanos;
+    }
+
+    public final void setSendNanos(long sendNanos) {
+        this.sendNanos = sendNanos;
+    }
+
+    /**
+     * Whether the message was sent from a publisher sharing the monotonic clock of this JVM (same host).
+     * If so {@link #getSendNanos()} can be compared with {@link System#nanoTime()}.
+     *
+     * @return true if the send time is comparable with the local monotonic clock
+     */
+    public final boolean isLocalClock() {
+        return localClock;
+    }
+
+    public final void setLocalClock(boolean localClock) {
+        this.localClock = localClock;
+    }
+
+    /**
+     * Whether the broker delivered the message before, without it being acknowledged
+     *
+     * @return true if the message is a redelivery
+     */
+    public final boolean isRedelivered() {
+        return redelivered;
+    }
+
+    public final void setRedelivered(boolean redelivered) {
+        this.redelivered = redelivered;
+    }
+
+    /**
+     * Delivery mode of a received message
+     *
+     * @return true if the message was sent persistent
+     */
+    public final boolean isPersistent() {
+        return persistent;
+    }
+
+    public final void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
     /**
      * Message id to uniquely identify the message is set
      *
@@ -100,9 +325,12 @@ public class ATCMessage {
     public String toString() {
         return "ATCMessage{" +
                 "messageId='" + messageId + '\'' +
-                ", text='" + text + '\'' +
+                ", text='" + getStringContent() + '\'' +
                 ", correlationId='" + correlationId + '\'' +
                 ", timestamp=" + timestamp +
+                ", publisherId=" + publisherId +
+                ", sequence=" + sequence +
+                ", sendNanos=" + sendNanos +
                 '}';
     }
 
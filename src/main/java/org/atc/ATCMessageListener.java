@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+/**
+ * Receives messages pushed by a {@link org.atc.SimpleConsumer}. Called from the provider's dispatcher
+ * thread, one message at a time per consumer.
+ */
+public interface ATCMessageListener {
+
+    void onMessage(ATCMessage message);
+
+    /**
+     * Called once when the connection of the consumer is lost. No further message is delivered until the
+     * consumer is reconnected.
+     *
+     * @param cause the connection failure
+     */
+    void onConnectionLost(ATCException cause);
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives all the publishers of a test at a total rate that can be changed while they run, used by the
+ * {@link org.atc.ThroughputSearch}. As with the {@link org.atc.LoadProfileScheduler} messages are numbered
+ * across the publishers. A rate change starts a new schedule from the current message, so the lag of
+ * publishers that were behind is not carried over. At a rate of 0 the publishers wait until the rate is
+ * raised or the schedule is ended.
+ */
+final class AdjustableRateScheduler implements SendScheduler {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Longest park of a waiting publisher, bounds the time until it notices a rate change
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong scheduledCount;
+    private final long startNanos;
+    private final long startMillis;
+    private volatile Schedule schedule;
+
+    AdjustableRateScheduler() {
+        scheduledCount = new AtomicLong();
+        startNanos = System.nanoTime();
+        startMillis = System.currentTimeMillis();
+        schedule = new Schedule(startNanos, 0, 0, false);
+    }
+
+    @Override
+    public long acquire() throws InterruptedException {
+        long count = scheduledCount.getAndIncrement();
+        while (true) {
+            Schedule current = schedule;
+            if (current.ended) {
+                return END_OF_SCHEDULE;
+            }
+            long waitNanos = MAX_PARK_NANOS;
+            if (current.rate > 0) {
+                long intendedNanos = current.intendedNanos(count);
+                waitNanos = intendedNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return intendedNanos;
+                }
+            }
+            LockSupport.parkNanos(Math.min(waitNanos, MAX_PARK_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public long toEpochMillis(long intendedNanos) {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(intendedNanos - startNanos);
+    }
+
+    /**
+     * Sets the total rate from now on
+     *
+     * @param rate messages per second, 0 pauses the publishers
+     */
+    synchronized void setRate(double rate) {
+        if (!schedule.ended) {
+            schedule = new Schedule(System.nanoTime(), scheduledCount.get(), rate, false);
+        }
+    }
+
+    /**
+     * Ends the schedule, publishers stop at their next message
+     */
+    synchronized void end() {
+        schedule = new Schedule(System.nanoTime(), scheduledCount.get(), 0, true);
+    }
+
+    /**
+     * @return current total rate
+     */
+    double getTargetRate() {
+        return schedule.rate;
+    }
+
+    /**
+     * Schedule at a constant rate from a start time and message number
+     */
+    private static final class Schedule {
+
+        private final long baseNanos;
+        private final long baseCount;
+        private final double rate;
+        private final boolean ended;
+
+        private Schedule(long baseNanos, long baseCount, double rate, boolean ended) {
+            this.baseNanos = baseNanos;
+            this.baseCount = baseCount;
+            this.rate = rate;
+            this.ended = ended;
+        }
+
+        /**
+         * Messages numbered before the schedule started, taken by publishers waiting at the change, are
+         * due right away
+         */
+        private long intendedNanos(long count) {
+            return baseNanos + (long) (Math.max(0, count - baseCount) * NANOS_PER_SECOND / rate);
+        }
+    }
+}
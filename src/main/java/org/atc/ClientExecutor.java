@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link org.atc.PublisherThread}s and {@link org.atc.ConsumerThread}s according to the configured
+ * execution model
+ * <ul>
+ *     <li>platform - a platform thread per publisher and subscriber (default)</li>
+ *     <li>virtual - a virtual thread per publisher and subscriber. Requires a Java 21 runtime, falls back
+ *     to platform threads otherwise</li>
+ *     <li>pooled - a bounded pool of platform threads. Tasks beyond the pool size wait for a running task
+ *     to finish, hence best combined with listener based subscribers. Subscribers without a listener block
+ *     their thread, so they and the publishers have to fit in the pool together</li>
+ * </ul>
+ */
+final class ClientExecutor {
+
+    private static Log log = LogFactory.getLog(ClientExecutor.class);
+
+    enum Model {
+        PLATFORM,
+        VIRTUAL,
+        POOLED
+    }
+
+    private final Model model;
+    private final List<Thread> threads;
+    private final ExecutorService pool;
+    private final int poolSize;
+
+    private ClientExecutor(Model model, int poolSize) {
+        this.model = model;
+        this.poolSize = poolSize;
+        threads = new ArrayList<>();
+        if (model == Model.POOLED) {
+            pool = Executors.newFixedThreadPool(poolSize,
+                    new ThreadFactoryBuilder().setNameFormat("ATCClientPool-%d").build());
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Creates the executor for the configured execution model
+     *
+     * @param executionModel platform, virtual or pooled. Platform if empty
+     * @param poolSize number of threads of the pooled model
+     * @param pullSubscribers number of subscribers receiving without a message listener
+     * @param publishers number of publishers
+     * @return executor
+     */
+    static ClientExecutor create(String executionModel, int poolSize, int pullSubscribers, int publishers) {
+        Model model = Model.PLATFORM;
+        if (StringUtils.isNotBlank(executionModel)) {
+            model = Model.valueOf(executionModel.trim().toUpperCase(Locale.ENGLISH));
+        }
+
+        if (model == Model.VIRTUAL && !VirtualThreads.isSupported()) {
+            log.warn("Virtual threads are not supported by this Java runtime. Using platform threads.");
+            model = Model.PLATFORM;
+        } else if (model == Model.POOLED && poolSize <= 0) {
+            throw new IllegalArgumentException("executorPoolSize should be set for the pooled execution model");
+        } else if (model == Model.POOLED && pullSubscribers > 0 && pullSubscribers + publishers > poolSize) {
+            // subscribers are submitted first and block their pool thread until they received all messages,
+            // publishers left waiting for a thread would never send them
+            throw new IllegalArgumentException("The pooled execution model needs an executorPoolSize of at least " +
+                    (pullSubscribers + publishers) + " to run " + pullSubscribers + " subscribers without a " +
+                    "message listener together with " + publishers + " publishers, found " + poolSize +
+                    ". Use useMessageListener for the subscribers or a larger pool");
+        }
+
+        if (model == Model.VIRTUAL) {
+            VirtualThreads.startPinningMonitor();
+        }
+        log.info("Execution model: " + model);
+        return new ClientExecutor(model, poolSize);
+    }
+
+    /**
+     * Starts running a task
+     *
+     * @param task publisher or consumer to run
+     * @param name name of the thread running the task
+     */
+    synchronized void execute(Runnable task, String name) {
+        if (model == Model.POOLED) {
+            pool.execute(task);
+            return;
+        }
+
+        Thread thread;
+        if (model == Model.VIRTUAL) {
+            thread = VirtualThreads.newThread(task);
+        } else {
+            thread = new Thread(task);
+        }
+        thread.setName(name);
+        thread.start();
+        threads.add(thread);
+    }
+
+    /**
+     * Waits for all the tasks to complete
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitCompletion() throws InterruptedException {
+        if (model == Model.POOLED) {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            return;
+        }
+        for (Thread thread : snapshot()) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Interrupts all running tasks
+     */
+    void interruptAll() {
+        if (model == Model.POOLED) {
+            pool.shutdownNow();
+            return;
+        }
+        for (Thread thread : snapshot()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Number of platform threads used to run the tasks. For virtual threads this is the number of carrier
+     * threads of the virtual thread scheduler.
+     *
+     * @return number of platform threads
+     */
+    int getPlatformThreadCount() {
+        switch (model) {
+            case VIRTUAL:
+                return VirtualThreads.carrierThreadCount();
+            case POOLED:
+                return poolSize;
+            default:
+                return snapshot().size();
+        }
+    }
+
+    /**
+     * Number of times a virtual thread got pinned to its carrier thread, for instance by blocking inside a
+     * synchronized block of the JMS client
+     *
+     * @return pinned event count. Always 0 for platform threads
+     */
+    long getPinnedCount() {
+        return VirtualThreads.pinnedCount();
+    }
+
+    Model getModel() {
+        return model;
+    }
+
+    private synchronized List<Thread> snapshot() {
+        return new ArrayList<>(threads);
+    }
+}
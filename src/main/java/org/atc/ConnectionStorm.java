@@ -0,0 +1,431 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.MessageAcknowledger;
+import org.atc.config.PubSubConfig;
+import org.atc.config.StormConfig;
+import org.atc.config.SubscriberConfig;
+import org.atc.metrics.LatencyRecorder;
+import org.atc.metrics.LatencyReporter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.naming.NamingException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Measures how fast the broker accepts connections, sessions, producers and subscriptions. Concurrent
+ * workers connect the configured publishers and subscribers in turn, each on a connection of its own that
+ * bypasses the {@link org.atc.amqp.ConnectionPool}, and close them again, at most ratePerSecond clients per
+ * second. A cycle takes the steps of {@link org.atc.SimplePublisher#init} and
+ * {@link org.atc.SimpleConsumer#subscribe} one by one and times each of them:
+ * <ul>
+ *     <li>lookup: connection factory lookup in a new JNDI context, bypassing the cache of the pool</li>
+ *     <li>connect: connection creation and start</li>
+ *     <li>session: session creation with the acknowledge mode of the client</li>
+ *     <li>destination: queue or topic creation, looked up in a new JNDI context for subscribers</li>
+ *     <li>producer or consumer: producer, consumer or durable subscriber creation</li>
+ *     <li>unsubscribe: removal of the durable subscription, which is unique to the cycle</li>
+ *     <li>close: connection close</li>
+ *     <li>cycle: all the phases, without the time the client is held connected</li>
+ * </ul>
+ * The latency of each phase is logged to logs/metrics/storm-&lt;phase&gt;.hlog and summarised in
+ * logs/metrics/storm.csv. Failures are counted per phase.
+ */
+final class ConnectionStorm {
+
+    private static Log log = LogFactory.getLog(ConnectionStorm.class);
+
+    private static final int DEFAULT_CONCURRENCY = 10;
+    private static final double DEFAULT_DURATION_SECONDS = 60;
+
+    /**
+     * Kind of client connected by the storm
+     */
+    enum ClientType {
+        QUEUE_PUBLISHER, TOPIC_PUBLISHER, QUEUE_SUBSCRIBER, TOPIC_SUBSCRIBER, DURABLE_SUBSCRIBER
+    }
+
+    /**
+     * A configured publisher or subscriber the storm connects
+     */
+    static final class Client {
+
+        private final ClientType type;
+        private final PubSubConfig config;
+
+        Client(ClientType type, PubSubConfig config) {
+            this.type = type;
+            this.config = config;
+        }
+
+        private boolean isPublisher() {
+            return type == ClientType.QUEUE_PUBLISHER || type == ClientType.TOPIC_PUBLISHER;
+        }
+
+        private boolean isQueue() {
+            return type == ClientType.QUEUE_PUBLISHER || type == ClientType.QUEUE_SUBSCRIBER;
+        }
+    }
+
+    private enum Phase {
+        LOOKUP, CONNECT, SESSION, DESTINATION, PRODUCER, CONSUMER, UNSUBSCRIBE, CLOSE, CYCLE;
+
+        private String getName() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final List<Client> clients;
+    private final int concurrency;
+    private final long durationNanos;
+    private final long maxCycles;
+    private final long holdMillis;
+    private final RateLimiter rateLimiter;
+    private final File summaryFile;
+
+    /**
+     * Latency, failures and histogram log of every phase, null for the phases the clients do not go through
+     */
+    private final LatencyRecorder[] latency;
+    private final Counter[] errors;
+    private final LatencyReporter[] reporters;
+
+    private final Meter completed;
+    private final Counter failed;
+    private final AtomicLong startedCycles;
+    private final AtomicBoolean failureLogged;
+
+    /**
+     * @param config storm configuration
+     * @param clients publishers and subscribers connected in turn
+     * @param logDirectory directory of the histogram logs and the summary
+     * @throws FileNotFoundException if a histogram log file cannot be created
+     */
+    ConnectionStorm(StormConfig config, List<Client> clients, File logDirectory) throws FileNotFoundException {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("Connection storm needs at least one publisher or subscriber");
+        }
+        this.clients = clients;
+        concurrency = config.getConcurrency() > 0 ? config.getConcurrency() : DEFAULT_CONCURRENCY;
+        durationNanos = (long) (TimeUnit.SECONDS.toNanos(1) * (config.getDurationSeconds() > 0 ?
+                config.getDurationSeconds() : DEFAULT_DURATION_SECONDS));
+        maxCycles = config.getCycles();
+        holdMillis = config.getHoldMillis();
+        rateLimiter = config.getRatePerSecond() > 0 ? RateLimiter.create(config.getRatePerSecond()) : null;
+        summaryFile = new File(logDirectory, "storm.csv");
+
+        boolean publishers = false;
+        boolean subscribers = false;
+        boolean durable = false;
+        for (Client client : clients) {
+            publishers |= client.isPublisher();
+            subscribers |= !client.isPublisher();
+            durable |= client.type == ClientType.DURABLE_SUBSCRIBER;
+        }
+        Phase[] phases = Phase.values();
+        latency = new LatencyRecorder[phases.length];
+        errors = new Counter[phases.length];
+        reporters = new LatencyReporter[phases.length];
+        for (Phase phase : phases) {
+            if ((phase == Phase.PRODUCER && !publishers) || (phase == Phase.CONSUMER && !subscribers) ||
+                    (phase == Phase.UNSUBSCRIBE && !durable)) {
+                continue;
+            }
+            int i = phase.ordinal();
+            latency[i] = new LatencyRecorder(name("storm", phase.getName(), "latency"));
+            errors[i] = Main.METRICS.counter(name("storm", phase.getName(), "errors"));
+            reporters[i] = new LatencyReporter(latency[i],
+                    new File(logDirectory, "storm-" + phase.getName() + ".hlog"));
+        }
+        completed = Main.METRICS.meter(name("storm", "cycles"));
+        failed = Main.METRICS.counter(name("storm", "failed cycles"));
+        startedCycles = new AtomicLong();
+        failureLogged = new AtomicBoolean();
+    }
+
+    /**
+     * @return latency recorders of the phases the clients go through
+     */
+    List<LatencyRecorder> getRecorders() {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        for (LatencyRecorder recorder : latency) {
+            if (null != recorder) {
+                recorders.add(recorder);
+            }
+        }
+        return recorders;
+    }
+
+    /**
+     * Runs the storm until the cycles are done or the duration is over and reports the latency of every phase
+     *
+     * @param reportIntervalSeconds interval of the histogram logs
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws IOException if the summary cannot be written
+     */
+    void run(int reportIntervalSeconds) throws InterruptedException, IOException {
+        log.info("Starting connection storm of " + clients.size() + " clients with " + concurrency + " workers" +
+                (null == rateLimiter ? "" : " at " + rateLimiter.getRate() + " connections per second") +
+                (maxCycles > 0 ? " for " + maxCycles + " cycles" :
+                        " for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " seconds"));
+        for (LatencyReporter reporter : reporters) {
+            if (null != reporter) {
+                reporter.start(reportIntervalSeconds, TimeUnit.SECONDS);
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        final long deadlineNanos = startNanos + durationNanos;
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("StormWorker-%d").build());
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work(deadlineNanos);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Connection storm cycles completed: " + completed.getCount());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            for (LatencyReporter reporter : reporters) {
+                if (null != reporter) {
+                    reporter.stop();
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        log.info(String.format(Locale.US, "Connection storm complete. %d cycles, %d failed, %.1f " +
+                "connections per second", completed.getCount(), failed.getCount(), completed.getCount() / seconds));
+        writeSummary();
+    }
+
+    private void work(long deadlineNanos) {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (null != rateLimiter) {
+                rateLimiter.acquire();
+            }
+            long cycle = startedCycles.getAndIncrement();
+            if (maxCycles > 0 ? cycle >= maxCycles : System.nanoTime() - deadlineNanos >= 0) {
+                return;
+            }
+            runCycle(clients.get((int) (cycle % clients.size())), cycle);
+        }
+    }
+
+    /**
+     * Connects a client and closes it again, timing every phase
+     *
+     * @param client client to connect
+     * @param cycle number of the cycle, makes the durable subscription unique
+     */
+    private void runCycle(Client client, long cycle) {
+        PubSubConfig config = client.config;
+        Connection connection = null;
+        Session session = null;
+        MessageConsumer consumer = null;
+        // durable subscription of this cycle until it is unsubscribed
+        String subscriptionId = null;
+        Phase phase = Phase.LOOKUP;
+        long cycleStart = System.nanoTime();
+        long start = cycleStart;
+        long heldNanos = 0;
+        try {
+            ConnectionFactory factory = ConnectionPool.getInstance().lookupConnectionFactoryUncached(config);
+            start = record(phase, start);
+
+            phase = Phase.CONNECT;
+            connection = factory.createConnection();
+            connection.start();
+            start = record(phase, start);
+
+            phase = Phase.SESSION;
+            session = createSession(connection, client);
+            start = record(phase, start);
+
+            phase = Phase.DESTINATION;
+            Destination destination = createDestination(session, client);
+            start = record(phase, start);
+
+            if (client.isPublisher()) {
+                phase = Phase.PRODUCER;
+                session.createProducer(destination);
+            } else if (client.type == ClientType.DURABLE_SUBSCRIBER) {
+                phase = Phase.CONSUMER;
+                String baseId = ((SubscriberConfig) config).getSubscriptionID();
+                String durableId = (null != baseId ? baseId : config.getId()) + "-storm-" + cycle;
+                consumer = session.createDurableSubscriber((Topic) destination, durableId);
+                subscriptionId = durableId;
+            } else {
+                phase = Phase.CONSUMER;
+                consumer = session.createConsumer(destination);
+            }
+            start = record(phase, start);
+
+            if (holdMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(holdMillis);
+                heldNanos = System.nanoTime() - start;
+                start += heldNanos;
+            }
+
+            if (null != subscriptionId) {
+                phase = Phase.UNSUBSCRIBE;
+                consumer.close();
+                session.unsubscribe(subscriptionId);
+                subscriptionId = null;
+                start = record(phase, start);
+            }
+
+            phase = Phase.CLOSE;
+            connection.close();
+            connection = null;
+            start = record(phase, start);
+
+            latency[Phase.CYCLE.ordinal()].recordMicros(TimeUnit.NANOSECONDS.toMicros(start - cycleStart - heldNanos));
+            completed.mark();
+        } catch (NamingException | JMSException e) {
+            failed(phase, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (null != subscriptionId) {
+                // the broker would keep the subscription of a failed or interrupted cycle forever
+                try {
+                    consumer.close();
+                    session.unsubscribe(subscriptionId);
+                } catch (JMSException e) {
+                    log.warn("Error while removing the durable subscription " + subscriptionId + " of the storm", e);
+                }
+            }
+            if (null != connection) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    log.debug("Error while closing a connection of the storm", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the session the way the client does, transacted or with its acknowledge mode
+     */
+    private static Session createSession(Connection connection, Client client) throws JMSException {
+        PubSubConfig config = client.config;
+        if (config.isTransactional()) {
+            return connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        } else if (client.isPublisher()) {
+            return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+        return connection.createSession(false, MessageAcknowledger.getAcknowledgeMode((SubscriberConfig) config));
+    }
+
+    /**
+     * Creates the destination the way the client does, through the session for publishers and through JNDI
+     * for subscribers
+     */
+    private static Destination createDestination(Session session, Client client)
+            throws JMSException, NamingException {
+        String name = client.config.getQueueName();
+        if (client.isPublisher()) {
+            return client.isQueue() ? session.createQueue(name) : session.createTopic(name);
+        }
+        return ConnectionPool.getInstance().lookupDestinationUncached(client.config,
+                client.isQueue() ? "queue" : "topic", name);
+    }
+
+    /**
+     * Records the time since the start of a phase
+     *
+     * @return end of the phase, start of the next one
+     */
+    private long record(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        latency[phase.ordinal()].recordMicros(TimeUnit.NANOSECONDS.toMicros(now - startNanos));
+        return now;
+    }
+
+    private void failed(Phase phase, Exception e) {
+        errors[phase.ordinal()].inc();
+        failed.inc();
+        if (failureLogged.compareAndSet(false, true)) {
+            log.warn("Connection storm cycle failed in the " + phase.getName() + " phase. Further failures are " +
+                    "counted per phase and logged at debug level", e);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Connection storm cycle failed in the " + phase.getName() + " phase", e);
+        }
+    }
+
+    /**
+     * Writes the count, failures and latency percentiles in milliseconds of every phase
+     */
+    private void writeSummary() throws IOException {
+        try (PrintWriter summary = new PrintWriter(Files.newBufferedWriter(summaryFile.toPath(),
+                StandardCharsets.UTF_8))) {
+            summary.println("phase,count,errors,mean,p50,p90,p99,p99.9,max");
+            for (Phase phase : Phase.values()) {
+                LatencyRecorder recorder = latency[phase.ordinal()];
+                if (null == recorder) {
+                    continue;
+                }
+                Histogram histogram = recorder.copyTotal();
+                summary.println(String.format(Locale.US, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                        phase.getName(), histogram.getTotalCount(), errors[phase.ordinal()].getCount(),
+                        histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0,
+                        histogram.getValueAtPercentile(90) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                        histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0));
+            }
+        }
+    }
+}
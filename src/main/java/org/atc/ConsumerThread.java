@@ -16,64 +16,156 @@
 
 package org.atc;
 
-import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.RateLimiter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.atc.config.SubscriberConfig;
+import org.atc.metrics.LatencyRecorder;
+import org.atc.metrics.WindowedCounter;
+import org.atc.verify.MessageVerifier;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
 /**
- * This thread handles a single {@link org.atc.SimpleConsumer} and logs all the stats
+ * This thread handles a single {@link org.atc.SimpleConsumer} and logs all the stats. The consumer is
+ * either pulled with blocking receive calls by {@link #run()} or, when the subscriber is configured to use
+ * a message listener, pushed by the provider's dispatcher thread through {@link #onMessage(ATCMessage)}.
  */
-public class ConsumerThread implements Runnable {
+public class ConsumerThread implements Runnable, ATCMessageListener {
 
     private SimpleConsumer consumer;
     private static Log log = LogFactory.getLog(ConsumerThread.class);
-    private final Histogram latencyHist;
+
+    /**
+     * How often a thread waiting for a listener based consumer checks for a lost connection
+     */
+    private static final long LISTENER_POLL_MILLIS = 100;
     private final Meter consumerRate;
-    private final AtomicInteger receivedCount;
+    private final Counter consumeErrors;
+    private final Counter redeliveredCount;
+    private final Counter globalRedeliveredCount;
+    private final Reconnector reconnector;
+    private final WindowedCounter receivedCount;
 
-    private final Histogram globalLatencyHist;
+    private final LatencyRecorder globalLatency;
     private final Meter globalConsumerRate;
 
+    private final RateLimiter rateLimiter;
+    private final long expectedIntervalMicros;
+
+    /**
+     * Commit time of a transactional consumer, null if the consumer is not transactional
+     */
+    private final Timer commitTimer;
+    private final int transactionBatchSize;
+    private final long transactionLingerNanos;
+    private int uncommittedCount;
+    private long transactionStartNanos;
+
+    /**
+     * Released when a listener based consumer received all the expected messages
+     */
+    private final CountDownLatch listenerDone;
+    private long listenerReceivedCount;
+    private volatile long lastMessageNanos;
+
+    /**
+     * Connection loss of a listener based consumer not yet recovered from, null if none
+     */
+    private volatile ATCException connectionLoss;
+
+    /**
+     * Verifier of the received messages, null if messages are not verified
+     */
+    private final MessageVerifier verifier;
+
+    /**
+     * Rate and latency per delivery mode, null if not recorded
+     */
+    private final DeliveryModeMetrics deliveryModeMetrics;
+
     /**
      * Creates a new consumer thread for a given consumer
      * @param consumer Reference to the {@link org.atc.SimpleConsumer} implementation that need to run
-     * @param globalLatency Metrics {@link com.codahale.metrics.Histogram} that calculates global latency
+     * @param globalLatency {@link org.atc.metrics.LatencyRecorder} that records the latency of all consumers
      * @param globalConsumerRate Metrics {@link com.codahale.metrics.Meter} that calculates global consumer rate
      */
-    public ConsumerThread(SimpleConsumer consumer, Histogram globalLatency, Meter globalConsumerRate) {
+    public ConsumerThread(SimpleConsumer consumer, LatencyRecorder globalLatency, Meter globalConsumerRate) {
+        this(consumer, globalLatency, globalConsumerRate, null);
+    }
+
+    /**
+     * Creates a new consumer thread that verifies the received messages
+     * @param consumer Reference to the {@link org.atc.SimpleConsumer} implementation that need to run
+     * @param globalLatency {@link org.atc.metrics.LatencyRecorder} that records the latency of all consumers
+     * @param globalConsumerRate Metrics {@link com.codahale.metrics.Meter} that calculates global consumer rate
+     * @param verifier {@link org.atc.verify.MessageVerifier} recording the publisher sequences, or null
+     */
+    public ConsumerThread(SimpleConsumer consumer, LatencyRecorder globalLatency, Meter globalConsumerRate,
+                          MessageVerifier verifier) {
+        this(consumer, globalLatency, globalConsumerRate, verifier, null);
+    }
+
+    /**
+     * Creates a new consumer thread that verifies the received messages and records them per delivery mode
+     * @param consumer Reference to the {@link org.atc.SimpleConsumer} implementation that need to run
+     * @param globalLatency {@link org.atc.metrics.LatencyRecorder} that records the latency of all consumers
+     * @param globalConsumerRate Metrics {@link com.codahale.metrics.Meter} that calculates global consumer rate
+     * @param verifier {@link org.atc.verify.MessageVerifier} recording the publisher sequences, or null
+     * @param deliveryModeMetrics {@link org.atc.DeliveryModeMetrics} of all consumers, or null
+     */
+    ConsumerThread(SimpleConsumer consumer, LatencyRecorder globalLatency, Meter globalConsumerRate,
+                   MessageVerifier verifier, DeliveryModeMetrics deliveryModeMetrics) {
         this.consumer = consumer;
-        receivedCount = new AtomicInteger(0);
-        latencyHist = Main.METRICS.histogram(
-                name("consumer", consumer.getConfigs().getQueueName(),
-                        "consumer id " + this.consumer.getConfigs().getId(), "latency")
-        );
+        this.deliveryModeMetrics = deliveryModeMetrics;
+        this.verifier = verifier;
+        receivedCount = new WindowedCounter(1);
         consumerRate = Main.METRICS.meter(
                 name("consumer", consumer.getConfigs().getQueueName(),
                         "consumer id " + this.consumer.getConfigs().getId(), "rate"));
+        consumeErrors = Main.METRICS.counter(name("global", "consumer", "errors"));
+        redeliveredCount = Main.METRICS.counter(
+                name("consumer", consumer.getConfigs().getQueueName(),
+                        "consumer id " + this.consumer.getConfigs().getId(), "redelivered"));
+        globalRedeliveredCount = Main.METRICS.counter(name("global", "consumer", "redelivered"));
+        reconnector = new Reconnector(consumer.getConfigs(), "consumer");
 
         // Per given period how many messages were sent is taken through this gauge
         Main.GAUGES.register(
                 name(ConsumerThread.class, this.consumer.getConfigs().getId(), "receiving-stats"),
-                new Gauge<Integer>() {
-
-            public Integer getValue() {
-                int val = receivedCount.get();
-                receivedCount.addAndGet(-val);
-                return val;
-            }
-        });
+                receivedCount);
 
         this.globalConsumerRate = globalConsumerRate;
-        this.globalLatencyHist = globalLatency;
+        this.globalLatency = globalLatency;
+
+        SubscriberConfig config = consumer.getConfigs();
+        if (config.getMessagesPerSecond() != 0) {
+            rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
+        } else {
+            rateLimiter = null;
+        }
+        if (config.getExpectedMessagesPerSecond() > 0) {
+            expectedIntervalMicros = TimeUnit.SECONDS.toMicros(1) / config.getExpectedMessagesPerSecond();
+        } else {
+            expectedIntervalMicros = 0;
+        }
+        if (config.isTransactional()) {
+            commitTimer = Main.METRICS.timer(name("consumer", config.getQueueName(),
+                    "consumer id " + config.getId(), "commit"));
+            transactionBatchSize = Math.max(1, config.getTransactionBatchSize());
+            transactionLingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getTransactionLingerMillis());
+        } else {
+            commitTimer = null;
+            transactionBatchSize = 0;
+            transactionLingerNanos = 0;
+        }
+        listenerDone = new CountDownLatch(1);
     }
 
     public final void run() {
@@ -84,60 +176,303 @@ public class ConsumerThread implements Runnable {
         log.info("Starting consumer to receive " + messageCount + " messages from " + config.getQueueName() +
                 " Consumer ID: " + consumerID);
         ATCMessage message = null;
-        RateLimiter rateLimiter = null;
-        if (config.getMessagesPerSecond() != 0) {
-            rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
-        }
         try {
-            long latency;
             for (int i = 1; i <= messageCount; i++) {
 
                 if (null != rateLimiter) {
                     rateLimiter.acquire(); // wait for a permit to publish or block
                 }
-                message = consumer.receive();
-
-                if (config.getReceiveWaitTimeMillis() > 0) {
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(config.getReceiveWaitTimeMillis());
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-                latency = System.currentTimeMillis() - message.getTimeStamp();
-                latencyHist.update(latency);
-                globalLatencyHist.update(latency);
-                receivedCount.incrementAndGet();
-
-                consumerRate.mark();
-                globalConsumerRate.mark();
-                if(log.isDebugEnabled()) {
-                    log.debug("Message received: " + message);
-                }
-
-                if(config.getDelayBetweenMsgs() > 0) {
-                    Thread.sleep(config.getDelayBetweenMsgs());
+                message = receiveOrReconnect();
+                if (null == message) {
+                    log.warn("No message received for " + config.getReceiveTimeoutMillis() + " milliseconds. " +
+                            "Received " + (i - 1) + " of " + messageCount + " messages. Consumer ID: " + consumerID);
+                    break;
                 }
+                process(message);
+                addToTransaction();
             }
 
-            log.info("Stopping consumer. [ Consumer ID: " + consumerID + "  ]");
-            if(consumer.getConfigs().isUnsubscribeOnFinish()) {
-                consumer.unsubscribe();
-                consumer.close();
-                log.info("Un-subscribing consumer for " + config.getQueueName() +
-                        " [ Consumer ID:9 " + consumerID + " ]");
-            } else {
-                consumer.close();
-                log.info("Consumer disconnected [ Consumer ID: " + consumerID + " ]");
-            }
+            closeConsumer();
         } catch (ATCException e) {
+            consumeErrors.inc();
             log.error("Exception occurred while consuming. " +
                     "\n\tconsumer ID: " + consumerID +
                     "\n\tMessage: " + message, e);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        // messages processed before the consumer was stopped, a no-op once the consumer is closed
+        commit();
 
         log.info("Stopped consumer. [ Consumer ID: " + consumerID + "  ]");
     }
+
+    /**
+     * Registers this consumer thread as the message listener of the consumer. Messages are then processed
+     * in the provider's dispatcher thread and no thread needs to be started for this consumer.
+     *
+     * @throws ATCException if the listener cannot be registered
+     */
+    public final void listen() throws ATCException {
+        SubscriberConfig config = consumer.getConfigs();
+        log.info("Starting listener to receive " + config.getMessageCount() + " messages from " +
+                config.getQueueName() + " Consumer ID: " + config.getId());
+        consumer.setMessageListener(this);
+    }
+
+    /**
+     * Called by the provider's dispatcher thread for each message when {@link #listen()} is used.
+     * Messages received after the expected message count are ignored.
+     *
+     * @param message received message
+     */
+    @Override
+    public final void onMessage(ATCMessage message) {
+        if (listenerDone.getCount() == 0) {
+            return;
+        }
+        try {
+            if (null != rateLimiter) {
+                rateLimiter.acquire(); // throttles the dispatcher thread
+            }
+            process(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        addToTransaction();
+        reconnector.messageDone();
+
+        lastMessageNanos = System.nanoTime();
+        listenerReceivedCount++;
+        if (listenerReceivedCount >= consumer.getConfigs().getMessageCount()) {
+            listenerDone.countDown();
+        }
+    }
+
+    /**
+     * Called by the provider when the connection of a consumer started with {@link #listen()} is lost. The
+     * consumer is reconnected by the thread waiting in {@link #awaitListenerCompletion()}.
+     *
+     * @param cause the connection failure
+     */
+    @Override
+    public final void onConnectionLost(ATCException cause) {
+        connectionLoss = cause;
+    }
+
+    /**
+     * Waits until a consumer started with {@link #listen()} receives all the expected messages and then
+     * closes the consumer. Reconnects the consumer if its connection is lost meanwhile. Delivery is stopped
+     * before the final partial batch is committed from this thread.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public final void awaitListenerCompletion() throws InterruptedException {
+        String consumerID = consumer.getConfigs().getId();
+        long timeoutMillis = consumer.getConfigs().getReceiveTimeoutMillis();
+        long pollMillis = timeoutMillis > 0 ? Math.min(timeoutMillis, LISTENER_POLL_MILLIS) : LISTENER_POLL_MILLIS;
+        lastMessageNanos = System.nanoTime();
+        while (!listenerDone.await(pollMillis, TimeUnit.MILLISECONDS)) {
+            if (null != connectionLoss) {
+                recoverListener();
+            } else if (timeoutMillis > 0 &&
+                    System.nanoTime() - lastMessageNanos >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                log.warn("No message received for " + timeoutMillis + " milliseconds. Received " +
+                        listenerReceivedCount + " of " + consumer.getConfigs().getMessageCount() +
+                        " messages. Consumer ID: " + consumerID);
+                listenerDone.countDown();
+            }
+        }
+        try {
+            // the session belongs to the dispatcher thread until it delivers no more messages
+            consumer.stopListening();
+            closeConsumer();
+        } catch (ATCException e) {
+            log.error("Exception occurred while closing listener. Consumer ID: " + consumerID, e);
+        }
+        log.info("Stopped consumer. [ Consumer ID: " + consumerID + "  ]");
+    }
+
+    /**
+     * Re-subscribes a listener based consumer whose connection was lost. The uncommitted messages are lost with
+     * the session and redelivered by the broker. Stops the consumer if the reconnector gives up.
+     *
+     * @throws InterruptedException if interrupted while reconnecting
+     */
+    private void recoverListener() throws InterruptedException {
+        ATCException cause = connectionLoss;
+        connectionLoss = null;
+        consumeErrors.inc();
+        if (reconnector.recover(consumer, uncommittedCount, cause)) {
+            synchronized (this) {
+                uncommittedCount = 0;
+            }
+            // waiting for the first message after the reconnect is not a receive timeout
+            lastMessageNanos = System.nanoTime();
+        } else {
+            log.error("Exception occurred while consuming. Consumer ID: " + consumer.getConfigs().getId(), cause);
+            listenerDone.countDown();
+        }
+    }
+
+    /**
+     * Updates all the stats for a received message
+     *
+     * @param message received message
+     * @throws InterruptedException if interrupted while applying configured delays
+     */
+    private void process(ATCMessage message) throws InterruptedException {
+        SubscriberConfig config = consumer.getConfigs();
+        if (config.getReceiveWaitTimeMillis() > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(config.getReceiveWaitTimeMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long latency;
+        if (message.isLocalClock()) {
+            latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - message.getSendNanos());
+        } else {
+            latency = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - message.getTimeStamp());
+        }
+        if (expectedIntervalMicros > 0) {
+            globalLatency.recordMicros(latency, expectedIntervalMicros);
+        } else {
+            globalLatency.recordMicros(latency);
+        }
+        if (null != deliveryModeMetrics) {
+            deliveryModeMetrics.record(message, latency, expectedIntervalMicros);
+        }
+        receivedCount.increment();
+        if (message.isRedelivered()) {
+            redeliveredCount.inc();
+            globalRedeliveredCount.inc();
+        }
+        if (null != verifier) {
+            verifier.record(message.getPublisherId(), message.getSequence());
+        }
+
+        consumerRate.mark();
+        globalConsumerRate.mark();
+        if(log.isDebugEnabled()) {
+            log.debug("Message received: " + message);
+        }
+
+        if(config.getDelayBetweenMsgs() > 0) {
+            Thread.sleep(config.getDelayBetweenMsgs());
+        }
+    }
+
+    /**
+     * Receives the next message, re-creating the session after a failure until the reconnector gives up. The
+     * uncommitted messages of a transactional consumer are lost with the session and redelivered by the broker.
+     *
+     * @return received message or null if the receive timeout expired
+     * @throws ATCException the failure the consumer could not recover from
+     * @throws InterruptedException if interrupted while reconnecting
+     */
+    private ATCMessage receiveOrReconnect() throws ATCException, InterruptedException {
+        while (true) {
+            try {
+                ATCMessage message = receiveNext();
+                if (null != message) {
+                    reconnector.messageDone();
+                }
+                return message;
+            } catch (ATCException e) {
+                if (!reconnector.recover(consumer, uncommittedCount, e)) {
+                    throw e;
+                }
+                consumeErrors.inc();
+                synchronized (this) {
+                    uncommittedCount = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the next message. A transaction whose linger expires while waiting is committed first.
+     *
+     * @return received message or null if the receive timeout expired
+     * @throws ATCException if receiving fails
+     */
+    private ATCMessage receiveNext() throws ATCException {
+        if (transactionLingerNanos == 0 || uncommittedCount == 0) {
+            return consumer.receive();
+        }
+        long lingerNanos = transactionStartNanos + transactionLingerNanos - System.nanoTime();
+        if (lingerNanos > 0) {
+            ATCMessage message = consumer.receive(Math.max(1, TimeUnit.NANOSECONDS.toMillis(lingerNanos)));
+            if (null != message) {
+                return message;
+            }
+        }
+        commit();
+        return consumer.receive();
+    }
+
+    /**
+     * Adds a processed message to the transaction of a transactional consumer and commits the transaction
+     * once it holds transactionBatchSize messages or lingered for transactionLingerMillis. A listener based
+     * consumer may only use its session in the dispatcher thread, hence its linger is checked as messages
+     * arrive and an idle partial batch waits for the next message or the close.
+     */
+    private synchronized void addToTransaction() {
+        if (null == commitTimer) {
+            return;
+        }
+        if (uncommittedCount == 0) {
+            transactionStartNanos = System.nanoTime();
+        }
+        uncommittedCount++;
+        if (uncommittedCount >= transactionBatchSize ||
+                (transactionLingerNanos > 0 && System.nanoTime() - transactionStartNanos >= transactionLingerNanos)) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits the messages received since the last commit, if any. A failed commit is rolled back so that
+     * the broker redelivers the messages.
+     */
+    private synchronized void commit() {
+        if (uncommittedCount == 0) {
+            return;
+        }
+        uncommittedCount = 0;
+        Timer.Context commitTime = commitTimer.time();
+        try {
+            consumer.commit();
+            commitTime.stop();
+        } catch (ATCException e) {
+            consumeErrors.inc();
+            log.error("Error while committing received messages, rolling back. Consumer ID: " +
+                    consumer.getConfigs().getId(), e);
+            try {
+                consumer.rollback();
+            } catch (ATCException rollbackException) {
+                log.error("Error while rolling back received messages. Consumer ID: " +
+                        consumer.getConfigs().getId(), rollbackException);
+            }
+        }
+    }
+
+    private void closeConsumer() throws ATCException {
+        SubscriberConfig config = consumer.getConfigs();
+        String consumerID = config.getId();
+        log.info("Stopping consumer. [ Consumer ID: " + consumerID + "  ]");
+        // final partial batch of a transactional consumer
+        commit();
+        if(config.isUnsubscribeOnFinish()) {
+            consumer.unsubscribe();
+            consumer.close();
+            log.info("Un-subscribing consumer for " + config.getQueueName() +
+                    " [ Consumer ID:9 " + consumerID + " ]");
+        } else {
+            consumer.close();
+            log.info("Consumer disconnected [ Consumer ID: " + consumerID + " ]");
+        }
+    }
 }
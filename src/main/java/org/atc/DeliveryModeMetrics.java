@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import com.codahale.metrics.Meter;
+import org.atc.amqp.ProducerSettings;
+import org.atc.metrics.LatencyRecorder;
+import org.atc.metrics.LatencyReporter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Receive rate and latency per JMS delivery mode, so that persistent and non-persistent messages of a run
+ * can be compared. Kept for the delivery modes the publishers of the test send. The latency of each mode
+ * is logged to logs/metrics/latency-&lt;mode&gt;.hlog like the global latency.
+ */
+final class DeliveryModeMetrics {
+
+    private final Meter persistentRate;
+    private final Meter nonPersistentRate;
+    private final LatencyRecorder persistentLatency;
+    private final LatencyRecorder nonPersistentLatency;
+    private final LatencyReporter persistentReporter;
+    private final LatencyReporter nonPersistentReporter;
+
+    /**
+     * @param persistent true if persistent messages are sent
+     * @param nonPersistent true if non-persistent messages are sent
+     * @param logDirectory directory of the latency histogram logs
+     * @throws FileNotFoundException if a histogram log file cannot be created
+     */
+    DeliveryModeMetrics(boolean persistent, boolean nonPersistent, File logDirectory)
+            throws FileNotFoundException {
+        if (persistent) {
+            persistentRate = Main.METRICS.meter(name("global", "consumer", ProducerSettings.PERSISTENT, "rate"));
+            persistentLatency = new LatencyRecorder(name("global", "consumer", ProducerSettings.PERSISTENT,
+                    "latency"));
+            persistentReporter = new LatencyReporter(persistentLatency,
+                    new File(logDirectory, "latency-" + ProducerSettings.PERSISTENT + ".hlog"));
+        } else {
+            persistentRate = null;
+            persistentLatency = null;
+            persistentReporter = null;
+        }
+        if (nonPersistent) {
+            nonPersistentRate = Main.METRICS.meter(name("global", "consumer", ProducerSettings.NON_PERSISTENT,
+                    "rate"));
+            nonPersistentLatency = new LatencyRecorder(name("global", "consumer", ProducerSettings.NON_PERSISTENT,
+                    "latency"));
+            nonPersistentReporter = new LatencyReporter(nonPersistentLatency,
+                    new File(logDirectory, "latency-" + ProducerSettings.NON_PERSISTENT + ".hlog"));
+        } else {
+            nonPersistentRate = null;
+            nonPersistentLatency = null;
+            nonPersistentReporter = null;
+        }
+    }
+
+    /**
+     * Records a received message under its delivery mode. Messages of a mode no publisher sends are ignored.
+     *
+     * @param message received message
+     * @param latencyMicros latency of the message in microseconds
+     * @param expectedIntervalMicros expected interval between messages for coordinated omission
+     *                               correction, 0 for none
+     */
+    void record(ATCMessage message, long latencyMicros, long expectedIntervalMicros) {
+        Meter rate = message.isPersistent() ? persistentRate : nonPersistentRate;
+        LatencyRecorder latency = message.isPersistent() ? persistentLatency : nonPersistentLatency;
+        if (null == rate) {
+            return;
+        }
+        rate.mark();
+        if (expectedIntervalMicros > 0) {
+            latency.recordMicros(latencyMicros, expectedIntervalMicros);
+        } else {
+            latency.recordMicros(latencyMicros);
+        }
+    }
+
+    /**
+     * @return latency recorder of persistent messages, null if none are sent
+     */
+    LatencyRecorder getPersistentLatency() {
+        return persistentLatency;
+    }
+
+    /**
+     * @return latency recorder of non-persistent messages, null if none are sent
+     */
+    LatencyRecorder getNonPersistentLatency() {
+        return nonPersistentLatency;
+    }
+
+    /**
+     * Starts sampling the latency of each delivery mode
+     *
+     * @param period period between two samples
+     * @param unit time unit of the period
+     */
+    void start(long period, TimeUnit unit) {
+        if (null != persistentReporter) {
+            persistentReporter.start(period, unit);
+        }
+        if (null != nonPersistentReporter) {
+            nonPersistentReporter.start(period, unit);
+        }
+    }
+
+    /**
+     * Stops sampling and logs the latency distribution of each delivery mode
+     */
+    void stop() {
+        if (null != persistentReporter) {
+            persistentReporter.stop();
+        }
+        if (null != nonPersistentReporter) {
+            nonPersistentReporter.stop();
+        }
+    }
+}
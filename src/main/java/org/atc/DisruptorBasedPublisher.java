@@ -17,79 +17,107 @@
 package org.atc;
 
 import com.codahale.metrics.Meter;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.lmax.disruptor.BlockingWaitStrategy;
-import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.TimeoutException;
-import com.lmax.disruptor.dsl.Disruptor;
-import com.lmax.disruptor.dsl.ProducerType;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.atc.metrics.WindowedCounter;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * This class is used to transactional message publishing
+ * This class is used to transactional message publishing. Messages are published to a
+ * {@link org.atc.DisruptorEngine} ring, which may be shared with other publishers, and sent by the
+ * {@link org.atc.TxPublishHandler} of this publisher in the handler thread of the ring.
  */
 class DisruptorBasedPublisher {
 
     private static Log log = LogFactory.getLog(DisruptorBasedPublisher.class);
 
-    private Disruptor<PublishEvent> disruptor;
-    private ExecutorService executorPool;
-    private static final int EXECUTOR_POOL_SHUTDOWN_WAIT_TIME = 10;
-    private static final int DEFAULT_DISRUPTOR_BUFFER_SIZE = 4096;
+    private final DisruptorEngine engine;
+    private final TxPublishHandler handler;
 
-    DisruptorBasedPublisher(int batchSize, SimplePublisher publisher, AtomicInteger sentCount, Meter publishRate) {
-
-        ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
-                .setNameFormat("DisruptorPublisherThread-id-" +
-                        publisher.getConfigs().getId() + "-%d").build();
-        executorPool = Executors.newCachedThreadPool(namedThreadFactory);
-        int bufferSize = DEFAULT_DISRUPTOR_BUFFER_SIZE;
+    DisruptorBasedPublisher(int batchSize, SimplePublisher publisher, WindowedCounter sentCount, Meter publishRate,
+                            DisruptorEngine engine) {
+        this(batchSize, publisher, Collections.<SimplePublisher>emptyList(), sentCount, publishRate, engine);
+    }
 
-        disruptor = new Disruptor<PublishEvent>(
-                PublishEvent.getFactory(),
-                bufferSize,
-                executorPool,
-                ProducerType.SINGLE,
-                new BlockingWaitStrategy());
+    /**
+     * Creates a publisher on a ring
+     *
+     * @param batchSize transaction batch size
+     * @param publisher publisher the events are sent through
+     * @param pipelinePublishers publishers of the additional sessions of the commit pipeline
+     * @param sentCount sent message within a time period tracker
+     * @param publishRate metrics publish rate calculating meter
+     * @param engine ring acquired with {@link org.atc.DisruptorEngine#acquire(org.atc.config.PublisherConfig)},
+     *               released by {@link #shutdown()}
+     */
+    DisruptorBasedPublisher(int batchSize, SimplePublisher publisher, List<SimplePublisher> pipelinePublishers,
+                            WindowedCounter sentCount, Meter publishRate, DisruptorEngine engine) {
+        this.engine = engine;
+        handler = new TxPublishHandler(batchSize, publisher, pipelinePublishers, sentCount, publishRate);
+    }
 
-        disruptor.handleEventsWith(new TxPublishHandler(batchSize, publisher, sentCount, publishRate));
-        disruptor.start();
+    /**
+     * Claims the next ring entry. The message of the entry should be filled through
+     * {@link #getMessage(long)} and the entry has to be published with {@link #publish(long)}.
+     *
+     * @return sequence of the claimed entry
+     */
+    long next() {
+        return engine.next();
     }
 
     /**
-     * Publish a message to disruptor (Eventually this will be published to broker)
-     * @param atcMessage message to be published to disruptor
+     * Reusable message owned by a claimed ring entry. Previous content of the entry is left as is and
+     * should be overwritten by the producer.
+     *
+     * @param sequence sequence returned by {@link #next()}
+     * @return message to fill in place
      */
-    void publish(ATCMessage atcMessage) {
+    ATCMessage getMessage(long sequence) {
+        return engine.get(sequence).getAtcMessage();
+    }
 
-        RingBuffer<PublishEvent> ringBuffer = disruptor.getRingBuffer();
-        long sequence = ringBuffer.next();
-        PublishEvent evt = ringBuffer.get(sequence);
-        evt.setAtcMessage(atcMessage);
+    /**
+     * Publish a claimed entry to disruptor (Eventually this will be published to broker)
+     * @param sequence sequence returned by {@link #next()}
+     */
+    void publish(long sequence) {
+        PublishEvent evt = engine.get(sequence);
         evt.setType(PublishEvent.EventType.MessageEvent);
-        ringBuffer.publish(sequence);
+        evt.setHandler(handler);
+        engine.publish(sequence);
 
         if (log.isDebugEnabled()) {
             log.debug("[ sequence: " + sequence + " ] Transaction message published to disruptor. ");
         }
     }
 
+    /**
+     * @return true if the publisher stopped after a failure it could not recover from. Later messages are
+     * dropped, the producer should stop publishing.
+     */
+    boolean isFailed() {
+        return handler.isFailed();
+    }
+
+    /**
+     * @return sequence of the last message committed by the publisher, 0 if nothing was committed
+     */
+    long getCommittedSequence() {
+        return handler.getCommittedSequence();
+    }
+
     /**
      * Close publisher event is published to disruptor
      */
     void closePublisher() {
-        RingBuffer<PublishEvent> ringBuffer = disruptor.getRingBuffer();
-        long sequence = ringBuffer.next();
-        PublishEvent evt = ringBuffer.get(sequence);
+        long sequence = engine.next();
+        PublishEvent evt = engine.get(sequence);
         evt.setType(PublishEvent.EventType.CLOSE_PUB);
-        ringBuffer.publish(sequence);
+        evt.setHandler(handler);
+        engine.publish(sequence);
 
         if (log.isDebugEnabled()) {
             log.debug("[ sequence: " + sequence + " ] Publisher close event published to disruptor. ");
@@ -97,18 +125,10 @@ class DisruptorBasedPublisher {
     }
 
     /**
-     * Shuts down disruptor after processing all pending events. If new events were published disruptor will
-     * wait for them to finish as well.
+     * Releases the ring. A ring of its own is shut down after processing all pending events, a shared
+     * ring once the last publisher released it.
      */
     void shutdown() {
-        try {
-            disruptor.shutdown(EXECUTOR_POOL_SHUTDOWN_WAIT_TIME, TimeUnit.SECONDS);
-            executorPool.shutdown();
-            executorPool.awaitTermination(EXECUTOR_POOL_SHUTDOWN_WAIT_TIME, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } catch (TimeoutException e) {
-            log.error("Error occurred while closing Disruptor buffer.", e);
-        }
+        engine.release();
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.config.PublisherConfig;
+import org.atc.metrics.WindowedCounter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A Disruptor ring with a single handler thread that sends the published events through the
+ * {@link org.atc.TxPublishHandler} attached to each event. A transactional publisher either gets a single
+ * producer ring of its own or shares a named multi-producer ring with other publishers, so that many
+ * publishers are served by one handler thread.
+ * <p>
+ * Ring occupancy and the time producers spent blocked on a full ring are exported as gauges.
+ */
+final class DisruptorEngine {
+
+    private static Log log = LogFactory.getLog(DisruptorEngine.class);
+
+    static final int DEFAULT_RING_SIZE = 4096;
+    static final String DEFAULT_WAIT_STRATEGY = "blocking";
+
+    private static final int SHUTDOWN_WAIT_TIME_SECONDS = 10;
+    private static final long PHASED_BACKOFF_SPIN_MICROS = 10;
+    private static final long PHASED_BACKOFF_YIELD_MICROS = 100;
+
+    /**
+     * Shared rings by name
+     */
+    private static final Map<String, DisruptorEngine> SHARED = new HashMap<>();
+
+    private final String name;
+    private final boolean shared;
+    private final int ringSize;
+    private final String waitStrategy;
+    private final Disruptor<PublishEvent> disruptor;
+    private final RingBuffer<PublishEvent> ringBuffer;
+    private final ExecutorService executorPool;
+    private final WindowedCounter blockedNanos;
+    private int users;
+
+    private DisruptorEngine(String name, boolean shared, int ringSize, String waitStrategy) {
+        this.name = name;
+        this.shared = shared;
+        this.ringSize = ringSize;
+        this.waitStrategy = waitStrategy;
+        blockedNanos = new WindowedCounter(Runtime.getRuntime().availableProcessors());
+
+        ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("DisruptorPublisherThread-" + name + "-%d").build();
+        executorPool = Executors.newCachedThreadPool(namedThreadFactory);
+        disruptor = new Disruptor<PublishEvent>(
+                PublishEvent.getFactory(),
+                ringSize,
+                executorPool,
+                shared ? ProducerType.MULTI : ProducerType.SINGLE,
+                createWaitStrategy(waitStrategy));
+        disruptor.handleEventsWith(new DispatchingHandler());
+        ringBuffer = disruptor.start();
+
+        Main.GAUGES.register(name(DisruptorEngine.class, name, "occupancy"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
+            }
+        });
+        // time producers were blocked on a full ring during the last closed interval
+        Main.GAUGES.register(name(DisruptorEngine.class, name, "producer-blocked-millis"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(blockedNanos.getValue());
+            }
+        });
+    }
+
+    /**
+     * Acquires the ring of a transactional publisher. Publishers with a ring name share the ring, others
+     * get a ring of their own. The ring has to be released with {@link #release()}.
+     *
+     * @param config publisher configuration
+     * @return ring to publish to
+     * @throws IllegalArgumentException if the ring size or the wait strategy is invalid
+     */
+    static DisruptorEngine acquire(PublisherConfig config) {
+        int ringSize = config.getRingSize() > 0 ? config.getRingSize() : DEFAULT_RING_SIZE;
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two. Publisher id " + config.getId() +
+                    " ring size " + ringSize);
+        }
+        String waitStrategy = StringUtils.isNotBlank(config.getWaitStrategy()) ?
+                config.getWaitStrategy() : DEFAULT_WAIT_STRATEGY;
+
+        if (StringUtils.isBlank(config.getRingName())) {
+            DisruptorEngine engine = new DisruptorEngine("publisher-" + config.getId(), false, ringSize, waitStrategy);
+            return engine;
+        }
+
+        synchronized (SHARED) {
+            DisruptorEngine engine = SHARED.get(config.getRingName());
+            if (null == engine) {
+                engine = new DisruptorEngine(config.getRingName(), true, ringSize, waitStrategy);
+                SHARED.put(config.getRingName(), engine);
+                log.info("Shared ring " + config.getRingName() + " created. [ ring size: " + ringSize +
+                        ", wait strategy: " + waitStrategy + " ]");
+            } else if (engine.ringSize != ringSize || !engine.waitStrategy.equals(waitStrategy)) {
+                log.warn("Publisher " + config.getId() + " shares ring " + config.getRingName() +
+                        ", its ring size and wait strategy are ignored. [ ring size: " + engine.ringSize +
+                        ", wait strategy: " + engine.waitStrategy + " ]");
+            }
+            engine.users++;
+            return engine;
+        }
+    }
+
+    /**
+     * Creates a wait strategy of the handler thread by name
+     *
+     * @param name blocking, sleeping, yielding, busy-spin or phased-backoff
+     * @return wait strategy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static WaitStrategy createWaitStrategy(String name) {
+        switch (name) {
+            case "blocking":
+                return new BlockingWaitStrategy();
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busy-spin":
+                return new BusySpinWaitStrategy();
+            case "phased-backoff":
+                return PhasedBackoffWaitStrategy.withLock(PHASED_BACKOFF_SPIN_MICROS, PHASED_BACKOFF_YIELD_MICROS,
+                        TimeUnit.MICROSECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy " + name +
+                        ". Use blocking, sleeping, yielding, busy-spin or phased-backoff");
+        }
+    }
+
+    /**
+     * Claims the next ring entry, blocking while the ring is full. Time spent blocked is added to the
+     * producer blocked time gauge.
+     *
+     * @return sequence of the claimed entry
+     */
+    long next() {
+        if (ringBuffer.hasAvailableCapacity(1)) {
+            return ringBuffer.next();
+        }
+        long start = System.nanoTime();
+        long sequence = ringBuffer.next();
+        blockedNanos.add(System.nanoTime() - start);
+        return sequence;
+    }
+
+    PublishEvent get(long sequence) {
+        return ringBuffer.get(sequence);
+    }
+
+    void publish(long sequence) {
+        ringBuffer.publish(sequence);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Releases the ring. Once the last publisher released it, the ring is shut down after handling the
+     * pending events.
+     */
+    void release() {
+        if (shared) {
+            synchronized (SHARED) {
+                users--;
+                if (users > 0) {
+                    return;
+                }
+                SHARED.remove(name);
+            }
+        }
+        shutdown();
+    }
+
+    private void shutdown() {
+        try {
+            disruptor.shutdown(SHUTDOWN_WAIT_TIME_SECONDS, TimeUnit.SECONDS);
+            executorPool.shutdown();
+            executorPool.awaitTermination(SHUTDOWN_WAIT_TIME_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            log.error("Error occurred while closing Disruptor buffer " + name, e);
+        }
+        Main.GAUGES.remove(name(DisruptorEngine.class, name, "occupancy"));
+        Main.GAUGES.remove(name(DisruptorEngine.class, name, "producer-blocked-millis"));
+    }
+
+    /**
+     * Hands each event to the transactional handler of the publisher that published it
+     */
+    private static final class DispatchingHandler implements EventHandler<PublishEvent> {
+
+        @Override
+        public void onEvent(PublishEvent event, long sequence, boolean endOfBatch) throws Exception {
+            event.getHandler().onEvent(event, sequence, endOfBatch);
+        }
+    }
+}
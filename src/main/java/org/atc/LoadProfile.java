@@ -0,0 +1,330 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import org.apache.commons.lang3.StringUtils;
+import org.atc.config.LoadSegmentConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Target publish rate over time, built from the load profile segments of the configuration. Every shape is
+ * made of linear and sinusoidal pieces whose cumulative message count has a closed form, so the time of the
+ * n-th message is found without integrating the rate. After the last piece the profile holds its final rate.
+ */
+final class LoadProfile {
+
+    private static final int MAX_NEWTON_ITERATIONS = 50;
+    private static final double TIME_TOLERANCE_SECONDS = 1e-9;
+
+    private final Piece[] pieces;
+    private final double endSeconds;
+    private final double endCount;
+    private final double endRate;
+
+    /**
+     * @param segments load profile segments
+     * @param scale factor applied to all the rates, the share of the publishers of this process
+     * @throws IllegalArgumentException if a segment is invalid
+     */
+    LoadProfile(List<LoadSegmentConfig> segments, double scale) {
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("Load profile should have at least one segment");
+        }
+        List<Piece> pieceList = new ArrayList<>();
+        double start = 0;
+        double count = 0;
+        for (LoadSegmentConfig segment : segments) {
+            for (Piece piece : toPieces(segment, scale)) {
+                piece.startSeconds = start;
+                piece.startCount = count;
+                start += piece.duration;
+                count += piece.countAt(piece.duration);
+                pieceList.add(piece);
+            }
+        }
+        pieces = pieceList.toArray(new Piece[pieceList.size()]);
+        endSeconds = start;
+        endCount = count;
+        Piece last = pieces[pieces.length - 1];
+        endRate = last.rateAt(last.duration);
+    }
+
+    /**
+     * @param seconds time from the start of the profile
+     * @return target rate in messages per second
+     */
+    double rateAt(double seconds) {
+        if (seconds >= endSeconds) {
+            return endRate;
+        }
+        Piece piece = pieces[0];
+        for (int i = 1; i < pieces.length && pieces[i].startSeconds <= seconds; i++) {
+            piece = pieces[i];
+        }
+        return piece.rateAt(Math.max(0, seconds - piece.startSeconds));
+    }
+
+    /**
+     * Time at which the given number of messages are due
+     *
+     * @param count messages sent before the message in question
+     * @return time from the start of the profile in seconds, or NaN if the profile ends at a zero rate before
+     * that many messages are due
+     */
+    double timeOf(long count) {
+        if (count >= endCount) {
+            if (endRate <= 0) {
+                return Double.NaN;
+            }
+            return endSeconds + (count - endCount) / endRate;
+        }
+        // last piece starting at or before the count, skipping pieces of a zero rate
+        int low = 0;
+        int high = pieces.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pieces[middle].startCount <= count) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        Piece piece = pieces[low];
+        return piece.startSeconds + piece.timeOf(count - piece.startCount);
+    }
+
+    /**
+     * @return length of the profile in seconds, excluding the final rate held afterwards
+     */
+    double getDurationSeconds() {
+        return endSeconds;
+    }
+
+    private static List<Piece> toPieces(LoadSegmentConfig segment, double scale) {
+        String shape = StringUtils.isBlank(segment.getShape()) ?
+                "constant" : segment.getShape().trim().toLowerCase(Locale.ENGLISH);
+        List<Piece> pieces = new ArrayList<>();
+        switch (shape) {
+            case "constant":
+                checkRate(segment.getRate(), "rate");
+                pieces.add(new LinearPiece(segment.getRate() * scale, segment.getRate() * scale,
+                        checkDuration(segment.getDurationSeconds(), "durationSeconds")));
+                break;
+            case "ramp":
+                checkRate(segment.getFrom(), "from");
+                checkRate(segment.getTo(), "to");
+                pieces.add(new LinearPiece(segment.getFrom() * scale, segment.getTo() * scale,
+                        checkDuration(segment.getDurationSeconds(), "durationSeconds")));
+                break;
+            case "step":
+                checkRate(segment.getFrom(), "from");
+                checkRate(segment.getTo(), "to");
+                if (segment.getSteps() < 2) {
+                    throw new IllegalArgumentException("A step load segment should have at least 2 steps");
+                }
+                double stepSeconds = checkDuration(segment.getDurationSeconds(), "durationSeconds") /
+                        segment.getSteps();
+                for (int i = 0; i < segment.getSteps(); i++) {
+                    double rate = segment.getFrom() +
+                            (segment.getTo() - segment.getFrom()) * i / (segment.getSteps() - 1);
+                    pieces.add(new LinearPiece(rate * scale, rate * scale, stepSeconds));
+                }
+                break;
+            case "spike":
+                checkRate(segment.getRate(), "rate");
+                checkRate(segment.getPeak(), "peak");
+                double duration = checkDuration(segment.getDurationSeconds(), "durationSeconds");
+                double spikeSeconds = checkDuration(segment.getSpikeSeconds(), "spikeSeconds");
+                double spikeStart = segment.getSpikeStartSeconds();
+                if (spikeStart < 0 || spikeStart + spikeSeconds > duration) {
+                    throw new IllegalArgumentException("The spike of a spike load segment should be within " +
+                            "its durationSeconds");
+                }
+                double base = segment.getRate() * scale;
+                double peak = segment.getPeak() * scale;
+                if (spikeStart > 0) {
+                    pieces.add(new LinearPiece(base, base, spikeStart));
+                }
+                pieces.add(new LinearPiece(peak, peak, spikeSeconds));
+                if (duration > spikeStart + spikeSeconds) {
+                    pieces.add(new LinearPiece(base, base, duration - spikeStart - spikeSeconds));
+                }
+                break;
+            case "sine":
+                checkRate(segment.getRate(), "rate");
+                if (Math.abs(segment.getAmplitude()) > segment.getRate()) {
+                    throw new IllegalArgumentException("The amplitude of a sine load segment should not " +
+                            "exceed its rate");
+                }
+                pieces.add(new SinePiece(segment.getRate() * scale, segment.getAmplitude() * scale,
+                        checkDuration(segment.getPeriodSeconds(), "periodSeconds"),
+                        checkDuration(segment.getDurationSeconds(), "durationSeconds")));
+                break;
+            case "piecewise":
+                List<Double> times = segment.getTimes();
+                List<Double> rates = segment.getRates();
+                if (null == times || null == rates || times.size() < 2 || times.size() != rates.size()) {
+                    throw new IllegalArgumentException("A piecewise load segment should have at least two " +
+                            "times and a rate for each time");
+                }
+                if (times.get(0) != 0) {
+                    throw new IllegalArgumentException("Times of a piecewise load segment should start from 0");
+                }
+                for (int i = 1; i < times.size(); i++) {
+                    checkRate(rates.get(i - 1), "rates");
+                    checkRate(rates.get(i), "rates");
+                    pieces.add(new LinearPiece(rates.get(i - 1) * scale, rates.get(i) * scale,
+                            checkDuration(times.get(i) - times.get(i - 1), "times increment")));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown load segment shape " + segment.getShape());
+        }
+        return pieces;
+    }
+
+    private static void checkRate(double rate, String name) {
+        if (rate < 0 || Double.isNaN(rate) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException(name + " of a load segment should not be negative");
+        }
+    }
+
+    private static double checkDuration(double seconds, String name) {
+        if (!(seconds > 0) || Double.isInfinite(seconds)) {
+            throw new IllegalArgumentException(name + " of a load segment should be positive");
+        }
+        return seconds;
+    }
+
+    /**
+     * Part of the profile. Times are relative to the start of the piece.
+     */
+    private abstract static class Piece {
+
+        final double duration;
+        double startSeconds;
+        double startCount;
+
+        Piece(double duration) {
+            this.duration = duration;
+        }
+
+        abstract double rateAt(double t);
+
+        /**
+         * @return messages due from the start of the piece to t
+         */
+        abstract double countAt(double t);
+
+        /**
+         * @return time at which count messages are due, count being less than the count of the piece
+         */
+        abstract double timeOf(double count);
+    }
+
+    /**
+     * Rate changing linearly from a start rate to an end rate
+     */
+    private static final class LinearPiece extends Piece {
+
+        private final double startRate;
+        private final double slope;
+
+        LinearPiece(double startRate, double endRate, double duration) {
+            super(duration);
+            this.startRate = startRate;
+            slope = (endRate - startRate) / duration;
+        }
+
+        @Override
+        double rateAt(double t) {
+            return startRate + slope * t;
+        }
+
+        @Override
+        double countAt(double t) {
+            return startRate * t + slope * t * t / 2;
+        }
+
+        @Override
+        double timeOf(double count) {
+            if (count <= 0) {
+                return 0;
+            }
+            // root of slope / 2 * t^2 + startRate * t - count, in a form that is stable for any slope
+            double t = 2 * count / (startRate + Math.sqrt(Math.max(0, startRate * startRate + 2 * slope * count)));
+            return Math.min(duration, Math.max(0, t));
+        }
+    }
+
+    /**
+     * Rate of base + amplitude * sin(2 pi t / period)
+     */
+    private static final class SinePiece extends Piece {
+
+        private final double base;
+        private final double amplitude;
+        private final double omega;
+
+        SinePiece(double base, double amplitude, double period, double duration) {
+            super(duration);
+            this.base = base;
+            this.amplitude = amplitude;
+            omega = 2 * Math.PI / period;
+        }
+
+        @Override
+        double rateAt(double t) {
+            return base + amplitude * Math.sin(omega * t);
+        }
+
+        @Override
+        double countAt(double t) {
+            return base * t + amplitude / omega * (1 - Math.cos(omega * t));
+        }
+
+        @Override
+        double timeOf(double count) {
+            // Newton's method on the monotonic count, kept within a bracket of the root
+            double low = 0;
+            double high = duration;
+            double t = Math.min(high, count / base);
+            for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+                double error = countAt(t) - count;
+                if (error > 0) {
+                    high = t;
+                } else {
+                    low = t;
+                }
+                double rate = rateAt(t);
+                double next = rate > 0 ? t - error / rate : Double.NaN;
+                if (!(next > low && next < high)) {
+                    next = (low + high) / 2;
+                }
+                if (Math.abs(next - t) < TIME_TOLERANCE_SECONDS) {
+                    return next;
+                }
+                t = next;
+            }
+            return t;
+        }
+    }
+}
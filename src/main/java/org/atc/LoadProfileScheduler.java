@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives all the publishers of a test to a {@link org.atc.LoadProfile}. Messages are numbered across the
+ * publishers: every call of {@link #acquire()} takes the next number, whose intended send time is where the
+ * profile's cumulative count reaches it. Whichever publisher is free sends the next due message, so the
+ * total rate follows the profile however the load is spread over the publishers, and a publisher that is
+ * done leaves its share to the others. Like the {@link org.atc.OpenLoopScheduler}, publishers that fall
+ * behind send back to back until they catch up.
+ * <p>
+ * The schedule starts with the first acquired message.
+ */
+final class LoadProfileScheduler implements SendScheduler {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadProfile profile;
+    private final AtomicLong scheduledCount;
+    private volatile boolean started;
+    private long startNanos;
+    private long startMillis;
+
+    LoadProfileScheduler(LoadProfile profile) {
+        this.profile = profile;
+        scheduledCount = new AtomicLong();
+    }
+
+    @Override
+    public long acquire() throws InterruptedException {
+        if (!started) {
+            start();
+        }
+        double seconds = profile.timeOf(scheduledCount.getAndIncrement());
+        if (Double.isNaN(seconds)) {
+            return END_OF_SCHEDULE;
+        }
+        long intendedNanos = startNanos + (long) (seconds * NANOS_PER_SECOND);
+
+        long waitNanos = intendedNanos - System.nanoTime();
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitNanos = intendedNanos - System.nanoTime();
+        }
+        return intendedNanos;
+    }
+
+    @Override
+    public long toEpochMillis(long intendedNanos) {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(intendedNanos - startNanos);
+    }
+
+    /**
+     * @return current target rate of the profile, 0 before the schedule started
+     */
+    double getTargetRate() {
+        if (!started) {
+            return 0;
+        }
+        return profile.rateAt((System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+    }
+
+    private synchronized void start() {
+        if (!started) {
+            startNanos = System.nanoTime();
+            startMillis = System.currentTimeMillis();
+            started = true;
+        }
+    }
+}
@@ -18,20 +18,35 @@ package org.atc;
 
 import com.codahale.metrics.ConsoleReporter;
 import com.codahale.metrics.CsvReporter;
-import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Slf4jReporter;
 import org.atc.config.ConfigReader;
+import org.atc.config.PubSubConfig;
 import org.atc.config.PublisherConfig;
 import org.atc.config.SubscriberConfig;
 import org.atc.config.TestConfiguration;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.ProducerSettings;
+import org.atc.cluster.Agent;
+import org.atc.cluster.Controller;
 import org.atc.amqp.topic.AMQPDurableTopicSubscriber;
 import org.atc.amqp.queue.AMQPQueueReceiver;
 import org.atc.amqp.queue.AMQPQueueSender;
 import org.atc.amqp.topic.AMQPTopicPublisher;
 import org.atc.amqp.topic.AMQPTopicSubscriber;
+import org.atc.loopback.LoopbackInitialContextFactory;
+import org.atc.metrics.LatencyRecorder;
+import org.atc.metrics.BinaryResultsReporter;
+import org.atc.metrics.LatencyReporter;
+import org.atc.metrics.PrometheusExporter;
+import org.atc.metrics.ResultsCsvConverter;
+import org.atc.metrics.ResultsFileWriter;
+import org.atc.metrics.WindowedCounter;
+import org.atc.verify.MessageVerifier;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -39,14 +54,23 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.HdrHistogram.Histogram;
 import org.slf4j.LoggerFactory;
 
+import javax.jms.JMSException;
 import javax.naming.NamingException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -57,26 +81,36 @@ public final class Main {
 
     static final MetricRegistry METRICS = new MetricRegistry();
     static final MetricRegistry GAUGES = new MetricRegistry();
+    static final LatencyRecorder LATENCY = new LatencyRecorder(name("global", "consumer", "latency"));
+
+    private static final int DEFAULT_LATENCY_LOG_INTERVAL_SECONDS = 1;
+
+    /**
+     * Receive timeout of the subscribers without one of their own when searching or following a load profile,
+     * so that they stop once the search or the profile ends the publishers
+     */
+    private static final long SCHEDULE_END_RECEIVE_TIMEOUT_MILLIS = 30000;
 
     private static ConsoleReporter reporter;
     private static JmxReporter jmxReporter;
-    private static CsvReporter csvReporter;
-    private static CsvReporter csvGaugeReporter;
+    private static ScheduledReporter csvReporter;
+    private static ScheduledReporter csvGaugeReporter;
+    private static ResultsFileWriter resultsWriter;
     private static Slf4jReporter slf4jReporter;
+    private static LatencyReporter latencyReporter;
+    private static PrometheusExporter prometheusExporter;
+    private static DeliveryModeMetrics deliveryModeMetrics;
 
     private Main() {
     }
 
-    public static void main(String[] args) throws NamingException, ATCException, FileNotFoundException,
+    public static void main(String[] args) throws NamingException, ATCException, IOException,
             InterruptedException, ParseException, NoSuchFieldException, IllegalAccessException {
 
         Options options = createOptions();
         CommandLineParser parser = new BasicParser();
         CommandLine cmd = parser.parse(options, args, false);
 
-        Histogram latencyHist = Main.METRICS.histogram(
-                name("global", "consumer", "latency")
-        );
         Meter consumerRate = Main.METRICS.meter(
                 name("global", "consumer", "rate"));
 
@@ -88,111 +122,592 @@ public final class Main {
             configFilePath = System.getProperty("user.dir") + "/conf/client.yaml";
         }
 
-        TestConfiguration config = ConfigReader.parseConfig(configFilePath);
+        if (cmd.hasOption("x")) {
+            exportCsv(cmd.getOptionValue("x"), cmd.getOptionValue("m"));
+            return;
+        }
+
+        if (cmd.hasOption("C")) {
+            runController(configFilePath, cmd.getOptionValue("C"));
+            return;
+        }
+
+        // an agent runs the slice of the test assigned by the controller, expectations of the message
+        // verifiers cover the whole test
+        final Agent agent;
+        TestConfiguration config;
+        TestConfiguration fullConfig;
+        if (cmd.hasOption("a")) {
+            agent = Agent.accept(Integer.parseInt(cmd.getOptionValue("a")));
+            config = agent.getConfiguration();
+            fullConfig = agent.getFullConfiguration();
+        } else {
+            agent = null;
+            config = ConfigReader.parseConfig(configFilePath);
+            fullConfig = config;
+        }
         System.setProperty("qpid.flow_control_wait_failure", "1500000");
+        System.setProperty(LoopbackInitialContextFactory.DELIVERY_LATENCY_PROPERTY,
+                Integer.toString(config.getLoopbackDeliveryLatencyMicros()));
 
         startStatReporting(config);
+        startDeliveryModeMetrics(config, fullConfig);
+
+        if (null != config.getSearch()) {
+            prepareSearch(config, agent);
+        }
+
+        final ClientExecutor executor = ClientExecutor.create(config.getExecutionModel(), config.getExecutorPoolSize(),
+                countPullSubscribers(config), config.getTopicPublishers().size() + config.getQueuePublishers().size());
+        registerExecutorGauges(executor);
+
+        // final reports, also of a connection storm run instead of the test
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                log.info("Shutting down test client.");
+                latencyReporter.stop();
+                if (null != deliveryModeMetrics) {
+                    deliveryModeMetrics.stop();
+                }
+                slf4jReporter.report();
+                // the final report takes the current interval of the windowed counters as well
+                for (Gauge gauge : GAUGES.getGauges().values()) {
+                    if (gauge instanceof WindowedCounter) {
+                        ((WindowedCounter) gauge).close();
+                    }
+                }
+                csvGaugeReporter.report();
+                reporter.report();
+                if(null != jmxReporter) {
+                    jmxReporter.close();
+                }
+                if(null != prometheusExporter) {
+                    prometheusExporter.stop();
+                }
+                if(null != csvReporter) {
+                    csvReporter.report();
+                    csvReporter.close();
+                }
+                csvGaugeReporter.close();
+                if(null != resultsWriter) {
+                    try {
+                        resultsWriter.close();
+                    } catch (IOException e) {
+                        log.error("Error while closing the results file", e);
+                    }
+                }
+                executor.interruptAll();
+            }
+        });
 
-        int subscriberCount = config.getTopicSubscribers().size() +
-                config.getQueueSubscribers().size() + config.getDurableTopicSubscribers().size();
-        final List<Thread> threadList = new ArrayList<Thread>(subscriberCount);
+        if (null != config.getStorm()) {
+            runStorm(config, agent);
+            return;
+        }
+
+        boolean scheduled = null != config.getSearch() || hasLoadProfile(fullConfig);
+        if (scheduled) {
+            setScheduleEndReceiveTimeouts(config);
+        }
+
+        List<ConsumerThread> listenerList = new ArrayList<ConsumerThread>();
 
         AMQPTopicSubscriber topicSubscriber;
         for (SubscriberConfig subscriberConfig : config.getTopicSubscribers()) {
             topicSubscriber = new AMQPTopicSubscriber();
             topicSubscriber.subscribe(subscriberConfig);
-            Thread subThread = new Thread(new ConsumerThread(topicSubscriber, latencyHist, consumerRate));
-            subThread.start();
-            threadList.add(subThread);
+            // every topic subscriber receives all the messages
+            MessageVerifier verifier = createVerifier("topic " + subscriberConfig.getQueueName() + " subscriber " +
+                    subscriberConfig.getId(), subscriberConfig, fullConfig.getTopicPublishers(), scheduled);
+            startConsumer(topicSubscriber, consumerRate, verifier, executor, listenerList);
         }
 
         SimpleConsumer queueReceiver;
         for (SubscriberConfig subscriberConfig : config.getQueueSubscribers()) {
             queueReceiver = new AMQPQueueReceiver();
             queueReceiver.subscribe(subscriberConfig);
-            Thread subThread = new Thread(new ConsumerThread(queueReceiver, latencyHist, consumerRate));
-            subThread.start();
-            threadList.add(subThread);
+            // messages of a queue are spread among its receivers
+            MessageVerifier verifier = createVerifier("queue " + subscriberConfig.getQueueName(), subscriberConfig,
+                    fullConfig.getQueuePublishers(), scheduled);
+            startConsumer(queueReceiver, consumerRate, verifier, executor, listenerList);
         }
 
         AMQPDurableTopicSubscriber durableTopicSubscriber;
         for (SubscriberConfig subscriberConfig : config.getDurableTopicSubscribers()) {
             durableTopicSubscriber = new AMQPDurableTopicSubscriber();
             durableTopicSubscriber.subscribe(subscriberConfig);
-            Thread subThread = new Thread(new ConsumerThread(durableTopicSubscriber, latencyHist, consumerRate));
-            subThread.start();
-            threadList.add(subThread);
+            MessageVerifier verifier = createVerifier("durable subscription " + subscriberConfig.getSubscriptionID(),
+                    subscriberConfig, fullConfig.getTopicPublishers(), scheduled);
+            startConsumer(durableTopicSubscriber, consumerRate, verifier, executor, listenerList);
         }
 
-        TimeUnit.SECONDS.sleep(config.getPublisherInitialDelaySeconds());
+        // connections are created stopped so that shared sessions start dispatching only when all the
+        // consumers are in place
+        startConnections();
+
+        final AdjustableRateScheduler searchScheduler = createSearchScheduler(config);
+        final SendScheduler loadScheduler = null != searchScheduler ? searchScheduler :
+                createLoadScheduler(config, fullConfig);
 
-        // Publishers
+        // Publishers. All are created before any is started so that shared rings outlive their publishers
+        List<PublisherThread> publisherThreads = new ArrayList<>();
+        List<String> publisherNames = new ArrayList<>();
         AMQPTopicPublisher topicPublisher;
         for (PublisherConfig publisherConfig : config.getTopicPublishers()) {
             topicPublisher = new AMQPTopicPublisher();
             topicPublisher.init(publisherConfig);
-            Thread pubThread = new Thread(new PublisherThread(topicPublisher));
-            pubThread.start();
-            threadList.add(pubThread);
+            List<SimplePublisher> pipelinePublishers = new ArrayList<>();
+            for (int i = 0; i < getCommitPipelineDepth(publisherConfig); i++) {
+                AMQPTopicPublisher pipelinePublisher = new AMQPTopicPublisher();
+                pipelinePublisher.init(publisherConfig);
+                pipelinePublishers.add(pipelinePublisher);
+            }
+            publisherThreads.add(new PublisherThread(topicPublisher, pipelinePublishers, loadScheduler));
+            publisherNames.add("publisher-" + publisherConfig.getId());
         }
 
         AMQPQueueSender queuePublisher;
         for (PublisherConfig publisherConfig : config.getQueuePublishers()) {
             queuePublisher = new AMQPQueueSender();
             queuePublisher.init(publisherConfig);
-            Thread pubThread = new Thread(new PublisherThread(queuePublisher));
-            pubThread.start();
-            threadList.add(pubThread);
+            List<SimplePublisher> pipelinePublishers = new ArrayList<>();
+            for (int i = 0; i < getCommitPipelineDepth(publisherConfig); i++) {
+                AMQPQueueSender pipelinePublisher = new AMQPQueueSender();
+                pipelinePublisher.init(publisherConfig);
+                pipelinePublishers.add(pipelinePublisher);
+            }
+            publisherThreads.add(new PublisherThread(queuePublisher, pipelinePublishers, loadScheduler));
+            publisherNames.add("publisher-" + publisherConfig.getId());
         }
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
+        // the agent is ready once all its clients are connected. Intervals are sent only after the start, the
+        // controller expects the ready message first
+        if (null != agent) {
+            agent.awaitStart();
+            final Meter globalConsumerRate = consumerRate;
+            latencyReporter.setIntervalListener(new LatencyReporter.IntervalListener() {
+                @Override
+                public void onInterval(Histogram interval) {
+                    agent.sendInterval(interval, getPublishedCount(), globalConsumerRate.getCount());
+                }
+            });
+        }
+
+        TimeUnit.SECONDS.sleep(config.getPublisherInitialDelaySeconds());
+
+        registerDeliveryModeGauges(config);
+        for (int i = 0; i < publisherThreads.size(); i++) {
+            executor.execute(publisherThreads.get(i), publisherNames.get(i));
+        }
+
+        if (null != searchScheduler) {
+            new ThroughputSearch(config.getSearch(), searchScheduler, createSearchProbe(config, consumerRate),
+                    new File(System.getProperty("user.dir") + "/logs/metrics/search.csv")).run();
+        }
+
+        // barrier. wait till all done
+        executor.awaitCompletion();
+        for (ConsumerThread listener : listenerList) {
+            listener.awaitListenerCompletion();
+        }
+        // publishers stopped by the schedule or by a failure sent fewer messages than configured
+        for (PublisherThread publisherThread : publisherThreads) {
+            MessageVerifier.expectSent(publisherThread.getNumericId(), publisherThread.getSentCount());
+        }
+        MessageVerifier.reportAll();
+        if (null != agent) {
+            latencyReporter.report();
+            agent.finish(LATENCY.copyTotal(), getPublishedCount(), consumerRate.getCount());
+        }
+
+        log.info("Test Complete! Platform threads used: " + executor.getPlatformThreadCount() +
+                ", virtual thread pinned events: " + executor.getPinnedCount());
+    }
+
+    /**
+     * Runs the test on agents and merges their results
+     *
+     * @param configFilePath test configuration sent to the agents
+     * @param agents comma separated host:port list of the agents
+     */
+    private static void runController(String configFilePath, String agents) throws ATCException,
+            InterruptedException {
+        String configText;
+        try {
+            configText = new String(Files.readAllBytes(Paths.get(configFilePath)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ATCException("Error while reading configuration file " + configFilePath, e);
+        }
+        List<InetSocketAddress> agentAddresses = new ArrayList<>();
+        for (String agent : agents.split(",")) {
+            String[] hostPort = agent.trim().split(":");
+            if (hostPort.length != 2) {
+                throw new IllegalArgumentException("Agents should be given as host:port, found " + agent);
+            }
+            agentAddresses.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+        }
+        new Controller(configText, agentAddresses).run();
+    }
+
+    /**
+     * Number of messages published by all the publishers of this client
+     */
+    private static long getPublishedCount() {
+        long count = 0;
+        for (Map.Entry<String, Meter> meter : METRICS.getMeters().entrySet()) {
+            if (meter.getKey().startsWith("publisher.")) {
+                count += meter.getValue().getCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts consuming messages either in a dedicated thread or through a message listener depending on
+     * the subscriber configuration
+     */
+    private static void startConsumer(SimpleConsumer consumer, Meter consumerRate, MessageVerifier verifier,
+                                      ClientExecutor executor, List<ConsumerThread> listenerList)
+            throws ATCException {
+        ConsumerThread consumerThread = new ConsumerThread(consumer, LATENCY, consumerRate, verifier,
+                deliveryModeMetrics);
+        if (consumer.getConfigs().isUseMessageListener()) {
+            consumerThread.listen();
+            listenerList.add(consumerThread);
+        } else {
+            executor.execute(consumerThread, "consumer-" + consumer.getConfigs().getId());
+        }
+    }
+
+    /**
+     * Creates the scheduler of the load profile, followed by all the publishers without a messagesPerSecond
+     * of their own. An agent drives its share of those publishers' load.
+     *
+     * @param config configuration of the publishers run by this process
+     * @param fullConfig configuration of the whole test
+     * @return scheduler, null if there is no load profile
+     */
+    private static LoadProfileScheduler createLoadScheduler(TestConfiguration config, TestConfiguration fullConfig) {
+        if (!hasLoadProfile(config)) {
+            return null;
+        }
+        int profilePublishers = countProfilePublishers(config);
+        int allProfilePublishers = countProfilePublishers(fullConfig);
+        if (profilePublishers == 0) {
+            return null;
+        }
+        LoadProfile profile = new LoadProfile(config.getLoadProfile(),
+                (double) profilePublishers / allProfilePublishers);
+        final LoadProfileScheduler scheduler = new LoadProfileScheduler(profile);
+        METRICS.register(name("global", "publisher", "target rate"), new Gauge<Double>() {
             @Override
-            public void run() {
-                log.info("Shutting down test client.");
-                slf4jReporter.report();
-                csvGaugeReporter.report();
-                reporter.report();
-                if(null != jmxReporter) {
-                    jmxReporter.close();
+            public Double getValue() {
+                return scheduler.getTargetRate();
+            }
+        });
+        log.info("Load profile of " + profile.getDurationSeconds() + " seconds drives " + profilePublishers +
+                " publishers");
+        return scheduler;
+    }
+
+    /**
+     * Runs a connection storm over the configured publishers and subscribers instead of a message test
+     *
+     * @param config test configuration
+     * @param agent agent running this process, null if not run by a controller
+     * @throws InterruptedException if interrupted while the storm runs
+     * @throws IOException if the histogram logs or the summary cannot be written
+     */
+    private static void runStorm(TestConfiguration config, Agent agent) throws InterruptedException, IOException {
+        if (null != agent) {
+            throw new IllegalArgumentException("Connection storm cannot be run by an agent. Run it in a single " +
+                    "process");
+        }
+        if (null != config.getSearch()) {
+            throw new IllegalArgumentException("Connection storm cannot be combined with a throughput search");
+        }
+        List<ConnectionStorm.Client> clients = new ArrayList<>();
+        addStormClients(clients, ConnectionStorm.ClientType.QUEUE_PUBLISHER, config.getQueuePublishers());
+        addStormClients(clients, ConnectionStorm.ClientType.TOPIC_PUBLISHER, config.getTopicPublishers());
+        addStormClients(clients, ConnectionStorm.ClientType.QUEUE_SUBSCRIBER, config.getQueueSubscribers());
+        addStormClients(clients, ConnectionStorm.ClientType.TOPIC_SUBSCRIBER, config.getTopicSubscribers());
+        addStormClients(clients, ConnectionStorm.ClientType.DURABLE_SUBSCRIBER,
+                config.getDurableTopicSubscribers());
+
+        ConnectionStorm storm = new ConnectionStorm(config.getStorm(), clients,
+                new File(System.getProperty("user.dir") + "/logs/metrics"));
+        for (LatencyRecorder recorder : storm.getRecorders()) {
+            registerLatencyGauges(recorder);
+        }
+        storm.run(config.getLatencyLogInterval() > 0 ?
+                config.getLatencyLogInterval() : DEFAULT_LATENCY_LOG_INTERVAL_SECONDS);
+    }
+
+    private static void addStormClients(List<ConnectionStorm.Client> clients, ConnectionStorm.ClientType type,
+                                        List<? extends PubSubConfig> configs) {
+        for (PubSubConfig clientConfig : configs) {
+            clients.add(new ConnectionStorm.Client(type, clientConfig));
+        }
+    }
+
+    private static boolean hasLoadProfile(TestConfiguration config) {
+        return null != config.getLoadProfile() && !config.getLoadProfile().isEmpty();
+    }
+
+    /**
+     * Checks that a throughput search can run with the configuration
+     */
+    private static void prepareSearch(TestConfiguration config, Agent agent) {
+        if (null != agent) {
+            throw new IllegalArgumentException("Throughput search cannot be run by an agent. Run it in a " +
+                    "single process");
+        }
+        if (hasLoadProfile(config)) {
+            throw new IllegalArgumentException("Throughput search cannot be combined with a load profile");
+        }
+        if (countProfilePublishers(config) == 0) {
+            throw new IllegalArgumentException("Throughput search drives the publishers without a " +
+                    "messagesPerSecond, there are none");
+        }
+    }
+
+    /**
+     * Gives the subscribers without a receive timeout one, so that they stop once the search or the load
+     * profile ends the publishers. The publishers' initial delay is added since the timeout runs from the
+     * start of the subscribers.
+     */
+    private static void setScheduleEndReceiveTimeouts(TestConfiguration config) {
+        long timeoutMillis = SCHEDULE_END_RECEIVE_TIMEOUT_MILLIS +
+                TimeUnit.SECONDS.toMillis(config.getPublisherInitialDelaySeconds());
+        for (List<SubscriberConfig> subscribers : Arrays.asList(config.getTopicSubscribers(),
+                config.getQueueSubscribers(), config.getDurableTopicSubscribers())) {
+            for (SubscriberConfig subscriberConfig : subscribers) {
+                if (subscriberConfig.getReceiveTimeoutMillis() == 0) {
+                    subscriberConfig.setReceiveTimeoutMillis(timeoutMillis);
                 }
-                if(null != csvReporter) {
-                    csvReporter.report();
-                    csvReporter.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the scheduler changed by the throughput search
+     *
+     * @return scheduler, null if the test does not search
+     */
+    private static AdjustableRateScheduler createSearchScheduler(TestConfiguration config) {
+        if (null == config.getSearch()) {
+            return null;
+        }
+        final AdjustableRateScheduler scheduler = new AdjustableRateScheduler();
+        METRICS.register(name("global", "publisher", "target rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return scheduler.getTargetRate();
+            }
+        });
+        return scheduler;
+    }
+
+    /**
+     * Counters of the throughput search. A message is due to every subscriber of its topic and to one
+     * receiver of its queue.
+     */
+    private static ThroughputSearch.Probe createSearchProbe(TestConfiguration config, final Meter consumerRate) {
+        final List<Meter> publisherRates = new ArrayList<>();
+        final List<Integer> subscriberCounts = new ArrayList<>();
+        // publishers with a rate of their own add a constant load and are not counted as sent by the search
+        final List<Meter> searchedRates = new ArrayList<>();
+        for (PublisherConfig publisherConfig : config.getTopicPublishers()) {
+            publisherRates.add(getPublisherRate(publisherConfig));
+            subscriberCounts.add(countSubscribers(publisherConfig, config.getTopicSubscribers()) +
+                    countSubscribers(publisherConfig, config.getDurableTopicSubscribers()));
+        }
+        for (PublisherConfig publisherConfig : config.getQueuePublishers()) {
+            publisherRates.add(getPublisherRate(publisherConfig));
+            subscriberCounts.add(Math.min(1, countSubscribers(publisherConfig, config.getQueueSubscribers())));
+        }
+        for (List<PublisherConfig> publishers : Arrays.asList(config.getTopicPublishers(),
+                config.getQueuePublishers())) {
+            for (PublisherConfig publisherConfig : publishers) {
+                if (publisherConfig.getMessagesPerSecond() == 0) {
+                    searchedRates.add(getPublisherRate(publisherConfig));
+                }
+            }
+        }
+
+        return new ThroughputSearch.Probe() {
+            @Override
+            public long getSentCount() {
+                long count = 0;
+                for (Meter publisherRate : searchedRates) {
+                    count += publisherRate.getCount();
                 }
-                for (Thread t: threadList) {
-                    t.interrupt();
+                return count;
+            }
+
+            @Override
+            public long getDueCount() {
+                long count = 0;
+                for (int i = 0; i < publisherRates.size(); i++) {
+                    count += publisherRates.get(i).getCount() * subscriberCounts.get(i);
                 }
+                return count;
             }
-        });
 
+            @Override
+            public long getReceivedCount() {
+                return consumerRate.getCount();
+            }
 
-        // barrier. wait till all done
-        for (Thread thread : threadList) {
-            thread.join();
+            @Override
+            public Histogram copyLatency() {
+                return LATENCY.copyTotal();
+            }
+        };
+    }
+
+    private static Meter getPublisherRate(PublisherConfig publisherConfig) {
+        return METRICS.meter(name("publisher", publisherConfig.getQueueName(),
+                "publisher id " + publisherConfig.getId(), "meter"));
+    }
+
+    private static int countSubscribers(PublisherConfig publisherConfig, List<SubscriberConfig> subscribers) {
+        int count = 0;
+        for (SubscriberConfig subscriberConfig : subscribers) {
+            if (subscriberConfig.getQueueName().equals(publisherConfig.getQueueName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of subscribers receiving in a thread of their own rather than through a message listener
+     */
+    private static int countPullSubscribers(TestConfiguration config) {
+        int count = 0;
+        for (List<SubscriberConfig> subscribers : Arrays.asList(config.getTopicSubscribers(),
+                config.getQueueSubscribers(), config.getDurableTopicSubscribers())) {
+            for (SubscriberConfig subscriberConfig : subscribers) {
+                if (!subscriberConfig.isUseMessageListener()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countProfilePublishers(TestConfiguration config) {
+        int count = 0;
+        for (List<PublisherConfig> publishers : Arrays.asList(config.getTopicPublishers(),
+                config.getQueuePublishers())) {
+            for (PublisherConfig publisherConfig : publishers) {
+                if (publisherConfig.getMessagesPerSecond() == 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates the verifier of a subscriber and registers the publishers of its destination with their
+     * message counts. The count of a publisher driven by the search or the load profile is not known up
+     * front. It is left unknown and publishers of this process register what they sent once they are done.
+     *
+     * @param scheduled whether publishers without a messagesPerSecond follow a search or a load profile
+     * @return verifier or null if the subscriber does not verify messages
+     */
+    private static MessageVerifier createVerifier(String name, SubscriberConfig subscriberConfig,
+                                                  List<PublisherConfig> publisherConfigs, boolean scheduled) {
+        if (!subscriberConfig.isVerifyMessages()) {
+            return null;
+        }
+        MessageVerifier verifier = MessageVerifier.getInstance(name);
+        verifier.addConsumer();
+        for (PublisherConfig publisherConfig : publisherConfigs) {
+            if (publisherConfig.getQueueName().equals(subscriberConfig.getQueueName())) {
+                boolean countKnown = !scheduled || publisherConfig.getMessagesPerSecond() != 0;
+                verifier.expect(publisherConfig.getNumericId(), publisherConfig.getId(),
+                        countKnown ? publisherConfig.getMessageCount() : 0);
+            }
+        }
+        return verifier;
+    }
+
+    /**
+     * Commit pipeline depth of a publisher, 0 for non transactional publishers
+     */
+    private static int getCommitPipelineDepth(PublisherConfig config) {
+        return config.isTransactional() ? Math.max(0, config.getCommitPipelineDepth()) : 0;
+    }
+
+    private static void startConnections() throws ATCException {
+        try {
+            ConnectionPool.getInstance().start();
+        } catch (JMSException e) {
+            throw new ATCException("Error while starting pooled connections", e);
         }
+    }
 
-        log.info("Test Complete!");
+    /**
+     * Exposes the number of platform threads running the clients and the number of virtual thread
+     * pinned events
+     */
+    private static void registerExecutorGauges(final ClientExecutor executor) {
+        METRICS.register(name("executor", "platform-threads"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getPlatformThreadCount();
+            }
+        });
+        METRICS.register(name("executor", "pinned-events"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return executor.getPinnedCount();
+            }
+        });
     }
 
     private static Options createOptions() {
         Options options = new Options();
         options.addOption("c", "conf", true, "Path to configuration file. Default is /conf/client.yaml");
         options.addOption("f", "fresh-logs", false, "Removes all old files log/ and run with fresh log files");
+        options.addOption("a", "agent", true, "Runs as an agent listening for a controller on the given port");
+        options.addOption("C", "controller", true, "Runs the test of the configuration file on the given " +
+                "comma separated host:port list of agents and merges their results");
+        options.addOption("x", "export-csv", true, "Converts the given results file to a CSV file next to it");
+        options.addOption("m", "match", true, "Regular expression selecting the metrics exported by --export-csv");
         return options;
     }
 
-    private static void startStatReporting(TestConfiguration config) {
+    private static void startStatReporting(TestConfiguration config) throws IOException {
         // console reporter is created by default to provide a report when shutting down
         reporter = ConsoleReporter.forRegistry(METRICS)
                 .convertRatesTo(TimeUnit.SECONDS)
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
                 .build();
 
-        csvGaugeReporter = CsvReporter.forRegistry(GAUGES)
-                .formatFor(Locale.US)
-                .convertRatesTo(TimeUnit.MILLISECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .build(new File(System.getProperty("user.dir") + "/logs/metrics"));
+        String resultsFormat = null == config.getResultsFormat() ? "binary" : config.getResultsFormat();
+        switch (resultsFormat) {
+            case "binary":
+                resultsWriter = new ResultsFileWriter(
+                        new File(System.getProperty("user.dir") + "/logs/metrics/results.atcr"));
+                csvGaugeReporter = new BinaryResultsReporter(GAUGES, resultsWriter, TimeUnit.MILLISECONDS,
+                        TimeUnit.MILLISECONDS);
+                break;
+            case "csv":
+                csvGaugeReporter = CsvReporter.forRegistry(GAUGES)
+                        .formatFor(Locale.US)
+                        .convertRatesTo(TimeUnit.MILLISECONDS)
+                        .convertDurationsTo(TimeUnit.MILLISECONDS)
+                        .build(new File(System.getProperty("user.dir") + "/logs/metrics"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown results format " + resultsFormat +
+                        ". Expected binary or csv");
+        }
         csvGaugeReporter.start(config.getCsvGaugeUpdateInterval(), TimeUnit.MILLISECONDS);
 
         slf4jReporter = Slf4jReporter.forRegistry(METRICS)
@@ -201,6 +716,8 @@ public final class Main {
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
                 .build();
 
+        startLatencyReport(config.getLatencyLogInterval());
+
         if(config.isEnableConsoleReport()) {
             log.info("Console reporting enabled. Refresh rate: every " + config.getConsoleReportUpdateInterval() + " seconds");
             reporter.start(config.getConsoleReportUpdateInterval(), TimeUnit.SECONDS);
@@ -214,17 +731,168 @@ public final class Main {
         }
 
         if(config.isCsvReportEnable()) {
-            log.info("CSV reporting enabled. Refresh rate: every " + config.getCsvUpdateInterval() + " seconds");
+            log.info("Results reporting enabled (" + resultsFormat + "). Refresh rate: every " +
+                    config.getCsvUpdateInterval() + " seconds");
             startCSVReport(config.getCsvUpdateInterval());
         }
+
+        if(config.getPrometheusPort() > 0) {
+            try {
+                prometheusExporter = new PrometheusExporter(METRICS, LATENCY, config.getPrometheusPort());
+                prometheusExporter.start();
+            } catch (IOException e) {
+                log.error("Unable to serve Prometheus metrics on port " + config.getPrometheusPort(), e);
+            }
+        }
     }
 
     private static void startCSVReport(int csvReportRefreshRate) {
-        csvReporter = CsvReporter.forRegistry(METRICS)
-                .formatFor(Locale.US)
-                .convertRatesTo(TimeUnit.SECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .build(new File(System.getProperty("user.dir") + "/logs/metrics"));
+        if (null != resultsWriter) {
+            csvReporter = new BinaryResultsReporter(METRICS, resultsWriter, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        } else {
+            csvReporter = CsvReporter.forRegistry(METRICS)
+                    .formatFor(Locale.US)
+                    .convertRatesTo(TimeUnit.SECONDS)
+                    .convertDurationsTo(TimeUnit.MILLISECONDS)
+                    .build(new File(System.getProperty("user.dir") + "/logs/metrics"));
+        }
         csvReporter.start(csvReportRefreshRate, TimeUnit.SECONDS);
     }
+
+    /**
+     * Converts a binary results file to a CSV file with the same name and the csv extension
+     *
+     * @param resultsFile path of the results file
+     * @param metricFilter regular expression a metric name has to contain to be exported, null for all
+     * @throws IOException if the results file cannot be read or the CSV file cannot be written
+     */
+    private static void exportCsv(String resultsFile, String metricFilter) throws IOException {
+        File results = new File(resultsFile);
+        String csvName = results.getName().replaceFirst("\\.atcr$", "") + ".csv";
+        File csv = new File(results.getAbsoluteFile().getParentFile(), csvName);
+        int rows = ResultsCsvConverter.convert(results, csv, metricFilter);
+        log.info("Exported " + rows + " rows of " + results + " to " + csv);
+    }
+
+    /**
+     * Starts sampling the global latency recorder. Every interval histogram is logged to
+     * logs/metrics/latency.hlog and the percentiles of the last interval are exposed as gauges to the
+     * other reporters.
+     *
+     * @param latencyLogInterval interval between two samples in seconds
+     * @throws FileNotFoundException if the histogram log file cannot be created
+     */
+    private static void startLatencyReport(int latencyLogInterval) throws FileNotFoundException {
+        if (latencyLogInterval <= 0) {
+            latencyLogInterval = DEFAULT_LATENCY_LOG_INTERVAL_SECONDS;
+        }
+        latencyReporter = new LatencyReporter(LATENCY,
+                new File(System.getProperty("user.dir") + "/logs/metrics/latency.hlog"));
+        latencyReporter.start(latencyLogInterval, TimeUnit.SECONDS);
+
+        registerLatencyGauges(LATENCY);
+    }
+
+    /**
+     * Starts recording the receive rate and latency per delivery mode for the delivery modes of the
+     * publishers of the test
+     *
+     * @param config configuration of this process
+     * @param fullConfig configuration of the whole test, whose publishers may send to this process
+     * @throws FileNotFoundException if a histogram log file cannot be created
+     */
+    private static void startDeliveryModeMetrics(TestConfiguration config, TestConfiguration fullConfig)
+            throws FileNotFoundException {
+        boolean persistent = false;
+        boolean nonPersistent = false;
+        for (List<PublisherConfig> publishers : Arrays.asList(fullConfig.getTopicPublishers(),
+                fullConfig.getQueuePublishers())) {
+            for (PublisherConfig publisherConfig : publishers) {
+                if (ProducerSettings.isPersistent(publisherConfig)) {
+                    persistent = true;
+                } else {
+                    nonPersistent = true;
+                }
+            }
+        }
+        if (!persistent && !nonPersistent) {
+            return;
+        }
+        deliveryModeMetrics = new DeliveryModeMetrics(persistent, nonPersistent,
+                new File(System.getProperty("user.dir") + "/logs/metrics"));
+        int latencyLogInterval = config.getLatencyLogInterval() > 0 ?
+                config.getLatencyLogInterval() : DEFAULT_LATENCY_LOG_INTERVAL_SECONDS;
+        deliveryModeMetrics.start(latencyLogInterval, TimeUnit.SECONDS);
+        if (persistent) {
+            registerLatencyGauges(deliveryModeMetrics.getPersistentLatency());
+        }
+        if (nonPersistent) {
+            registerLatencyGauges(deliveryModeMetrics.getNonPersistentLatency());
+        }
+    }
+
+    /**
+     * Exposes the percentiles of the last sampled interval of a latency recorder as gauges in milliseconds
+     */
+    private static void registerLatencyGauges(final LatencyRecorder recorder) {
+        double[] percentiles = {50, 99, 99.9, 99.99, 100};
+        String[] names = {"p50", "p99", "p99_9", "p99_99", "max"};
+        for (int i = 0; i < percentiles.length; i++) {
+            final double percentile = percentiles[i];
+            METRICS.register(name(recorder.getName(), names[i]), new Gauge<Double>() {
+                @Override
+                public Double getValue() {
+                    // latency is recorded in microseconds, reported in milliseconds
+                    return recorder.getLastInterval().getValueAtPercentile(percentile) / 1000.0;
+                }
+            });
+        }
+    }
+
+    /**
+     * Exposes the number of messages sent and the one minute publish rate per delivery mode of the
+     * publishers of this process
+     */
+    private static void registerDeliveryModeGauges(TestConfiguration config) {
+        final List<Meter> persistentRates = new ArrayList<>();
+        final List<Meter> nonPersistentRates = new ArrayList<>();
+        for (List<PublisherConfig> publishers : Arrays.asList(config.getTopicPublishers(),
+                config.getQueuePublishers())) {
+            for (PublisherConfig publisherConfig : publishers) {
+                if (ProducerSettings.isPersistent(publisherConfig)) {
+                    persistentRates.add(getPublisherRate(publisherConfig));
+                } else {
+                    nonPersistentRates.add(getPublisherRate(publisherConfig));
+                }
+            }
+        }
+        registerSumGauges(ProducerSettings.PERSISTENT, persistentRates);
+        registerSumGauges(ProducerSettings.NON_PERSISTENT, nonPersistentRates);
+    }
+
+    private static void registerSumGauges(String deliveryMode, final List<Meter> publisherRates) {
+        if (publisherRates.isEmpty()) {
+            return;
+        }
+        METRICS.register(name("global", "publisher", deliveryMode, "count"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long count = 0;
+                for (Meter publisherRate : publisherRates) {
+                    count += publisherRate.getCount();
+                }
+                return count;
+            }
+        });
+        METRICS.register(name("global", "publisher", deliveryMode, "rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                double rate = 0;
+                for (Meter publisherRate : publisherRates) {
+                    rate += publisherRate.getOneMinuteRate();
+                }
+                return rate;
+            }
+        });
+    }
 }
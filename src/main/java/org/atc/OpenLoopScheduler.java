@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces an open-loop publisher at a constant arrival rate. Each message gets an intended send time
+ * derived from the start of the run, independent of how long previous sends took. When the broker
+ * stalls the publisher falls behind the schedule and sends back to back until it catches up, instead of
+ * silently lowering the offered load the way a {@link com.google.common.util.concurrent.RateLimiter} does.
+ */
+final class OpenLoopScheduler implements SendScheduler {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int messagesPerSecond;
+    private long startNanos;
+    private long startMillis;
+    private long scheduledCount;
+
+    /**
+     * @param messagesPerSecond target arrival rate of the publisher
+     */
+    OpenLoopScheduler(int messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    @Override
+    public long acquire() throws InterruptedException {
+        if (scheduledCount == 0) {
+            startNanos = System.nanoTime();
+            startMillis = System.currentTimeMillis();
+        }
+        long intendedNanos = startNanos + (scheduledCount * NANOS_PER_SECOND) / messagesPerSecond;
+        scheduledCount++;
+
+        long waitNanos = intendedNanos - System.nanoTime();
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitNanos = intendedNanos - System.nanoTime();
+        }
+        return intendedNanos;
+    }
+
+    @Override
+    public long toEpochMillis(long intendedNanos) {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(intendedNanos - startNanos);
+    }
+}
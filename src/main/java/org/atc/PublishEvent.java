@@ -20,7 +20,8 @@ import com.lmax.disruptor.EventFactory;
 
 /**
  * Used by {@link com.lmax.disruptor.dsl.Disruptor} to handle transactional publishing. This is
- * the container for the publish events
+ * the container for the publish events. Each ring entry owns a reusable {@link org.atc.ATCMessage} that
+ * is filled in place by the producer, hence publishing does not allocate messages.
  */
 class PublishEvent {
 
@@ -37,17 +38,19 @@ class PublishEvent {
         CLOSE_PUB;
     }
 
-    private ATCMessage atcMessage;
+    private final ATCMessage atcMessage = new ATCMessage();
     private EventType type;
+    private TxPublishHandler handler;
 
+    /**
+     * Message owned by this ring entry. Valid until the entry is reused for a later sequence.
+     *
+     * @return reusable message
+     */
     ATCMessage getAtcMessage() {
         return atcMessage;
     }
 
-    void setAtcMessage(ATCMessage atcMessage) {
-        this.atcMessage = atcMessage;
-    }
-
     EventType getType() {
         return type;
     }
@@ -56,12 +59,25 @@ class PublishEvent {
         this.type = type;
     }
 
+    /**
+     * Transactional handler of the publisher that published this entry. Rings shared by several
+     * publishers route each entry to the handler of its publisher.
+     *
+     * @return handler of the publisher
+     */
+    TxPublishHandler getHandler() {
+        return handler;
+    }
+
+    void setHandler(TxPublishHandler handler) {
+        this.handler = handler;
+    }
+
     static EventFactory<PublishEvent> getFactory() {
         return new PublishEventFactory();
     }
 
     void clear() {
-        atcMessage = null;
         type = null;
     }
 
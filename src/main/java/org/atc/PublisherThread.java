@@ -16,17 +16,21 @@
 
 package org.atc;
 
-import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.google.common.util.concurrent.RateLimiter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.atc.config.ConfigReader;
 import org.atc.config.PublisherConfig;
+import org.atc.metrics.WindowedCounter;
+import org.atc.payload.PayloadGenerator;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -40,36 +44,101 @@ public class PublisherThread implements Runnable {
     private static final String DEFAULT_CONTENT = "Test Message";
 
     private final Meter publishRate;
+    private final Counter publishErrors;
+    private final Histogram scheduleLag;
+    private final Histogram payloadSize;
+    private final PayloadGenerator payloadGenerator;
+    private final DisruptorBasedPublisher disruptorPublisher;
+    private final Reconnector reconnector;
     private SimplePublisher publisher;
 
-    private AtomicInteger sentCount;
+    private final WindowedCounter sentCount;
 
-    public PublisherThread(SimplePublisher publisher) {
+    /**
+     * Sequence of the last message sent by a non transactional publisher
+     */
+    private volatile long lastSequence;
+
+    /**
+     * Scheduler of the load profile shared by the publishers, null if there is no load profile
+     */
+    private final SendScheduler loadScheduler;
+
+    public PublisherThread(SimplePublisher publisher) throws ATCException {
+        this(publisher, Collections.<SimplePublisher>emptyList());
+    }
+
+    /**
+     * Creates a transactional publisher with a commit pipeline
+     *
+     * @param publisher publisher to run
+     * @param pipelinePublishers initialised publishers of the same configuration, one per outstanding commit
+     *                           of the commit pipeline
+     * @throws ATCException if the payload cannot be loaded
+     */
+    public PublisherThread(SimplePublisher publisher, List<SimplePublisher> pipelinePublishers)
+            throws ATCException {
+        this(publisher, pipelinePublishers, null);
+    }
+
+    /**
+     * Creates a publisher that follows the load profile unless it has a messagesPerSecond of its own
+     *
+     * @param publisher publisher to run
+     * @param pipelinePublishers initialised publishers of the same configuration, one per outstanding commit
+     *                           of the commit pipeline
+     * @param loadScheduler scheduler of the load profile shared by all the publishers, null for none
+     * @throws ATCException if the payload cannot be loaded
+     */
+    PublisherThread(SimplePublisher publisher, List<SimplePublisher> pipelinePublishers,
+                    SendScheduler loadScheduler) throws ATCException {
         this.publisher = publisher;
-        sentCount = new AtomicInteger(0);
+        this.loadScheduler = loadScheduler;
+        // the handler thread and the commit threads of a transactional publisher count sent messages
+        sentCount = new WindowedCounter(pipelinePublishers.size() + 1);
         publishRate = Main.METRICS.meter(name(
                 "publisher", publisher.getConfigs().getQueueName(),
                 "publisher id " + publisher.getConfigs().getId(),
                 "meter")
         );
+        publishErrors = Main.METRICS.counter(name("global", "publisher", "errors"));
+        reconnector = new Reconnector(publisher.getConfigs(), "publisher");
+        scheduleLag = Main.METRICS.histogram(name(
+                "publisher", publisher.getConfigs().getQueueName(),
+                "publisher id " + publisher.getConfigs().getId(),
+                "schedule lag")
+        );
+        payloadSize = Main.METRICS.histogram(name(
+                "publisher", publisher.getConfigs().getQueueName(),
+                "publisher id " + publisher.getConfigs().getId(),
+                "payload size")
+        );
+
+        String messageContent = publisher.getConfigs().getMessageContent();
+        if(StringUtils.isEmpty(messageContent)) {
+            messageContent = DEFAULT_CONTENT;
+        }
+        try {
+            payloadGenerator = PayloadGenerator.create(publisher.getConfigs().getPayload(), messageContent);
+        } catch (IOException e) {
+            throw new ATCException("Error while loading payload corpus for publisher " +
+                    publisher.getConfigs().getId(), e);
+        }
+
+        // rings are acquired up front so that a shared ring lives until its last publisher is done
+        if (publisher.getConfigs().isTransactional()) {
+            disruptorPublisher = new DisruptorBasedPublisher(publisher.getConfigs().getTransactionBatchSize(),
+                    publisher, pipelinePublishers, sentCount, publishRate,
+                    DisruptorEngine.acquire(publisher.getConfigs()));
+        } else {
+            disruptorPublisher = null;
+        }
 
         // Messages sent for a given time period is collected through this gauge
         Main.GAUGES.register(
                 name("Publisher", publisher.getConfigs().getQueueName(),
                         "publisher id " + this.publisher.getConfigs().getId(), "gauge"),
-                new Gauge<Integer>() {
-
-                    /**
-                     * number of messages sent since last call to this method is returned
-                     * @return Integer
-                     */
-                    @Override
-                    public Integer getValue() {
-                        int val = sentCount.get();
-                        sentCount.addAndGet(-val);
-                        return val;
-                    }
-                });
+                sentCount);
     }
 
     public final void run() {
@@ -87,31 +156,46 @@ public class PublisherThread implements Runnable {
         log.info("Starting publisher to send " + messageCount + " messages to ." + config.getQueueName() +
                 "  Publisher ID: " + publisherID);
         ATCMessage atcMessage = null;
-        String messageContent = config.getMessageContent();
-
-        if(StringUtils.isEmpty(messageContent)) {
-            messageContent = DEFAULT_CONTENT;
-        }
 
         RateLimiter rateLimiter = null;
+        SendScheduler scheduler = null;
         if (config.getMessagesPerSecond() != 0) {
-            rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
+            if (config.isOpenLoop()) {
+                scheduler = new OpenLoopScheduler(config.getMessagesPerSecond());
+            } else {
+                rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
+            }
+        } else {
+            scheduler = loadScheduler;
         }
 
         try {
+            // a single message is reused for all sends, only the per message state is overwritten
+            atcMessage = new ATCMessage();
+            atcMessage.setPublisherId(config.getNumericId());
             for (int i = 1; i <= messageCount; i++) {
-                atcMessage = publisher.createTextMessage(messageContent);
-                atcMessage.setMessageID(publisherID + "-" + i);
-
+                long intendedNanos = 0;
                 if (null != rateLimiter) {
                     rateLimiter.acquire(); // wait for a permit to publish or block
+                } else if (null != scheduler) {
+                    intendedNanos = awaitIntendedSendTime(scheduler);
+                    if (intendedNanos == SendScheduler.END_OF_SCHEDULE) {
+                        log.info("Load profile ended after " + (i - 1) + " messages. Publisher ID: " +
+                                publisherID);
+                        break;
+                    }
                 }
-                publisher.send(atcMessage);
+                atcMessage.setSequence(i);
+                setSendTime(atcMessage, scheduler, intendedNanos);
+                payloadGenerator.fill(atcMessage);
+                payloadSize.update(atcMessage.getContentLength());
+                send(atcMessage);
+                lastSequence = i;
 
                 if (log.isDebugEnabled()) {
                     log.debug("Message published: " + atcMessage);
                 }
-                sentCount.incrementAndGet();
+                sentCount.increment();
                 publishRate.mark();
 
                 if (config.getDelayBetweenMsgs() > 0) {
@@ -124,6 +208,7 @@ public class PublisherThread implements Runnable {
 
             publisher.close();
         } catch (ATCException e) {
+            publishErrors.inc();
             log.error("Exception occurred while publishing.\n\tPublisher ID: " + publisherID + "\n\tMessage: "
                     + atcMessage, e);
         } catch (InterruptedException e) {
@@ -142,39 +227,52 @@ public class PublisherThread implements Runnable {
 
         log.info("Starting transactional publisher to send " + messageCount + " messages to " +
                 publisher.getConfigs().getQueueName() + ". Publisher ID: " + publisherID);
-        ATCMessage atcMessage;
-        int batchSize = publisher.getConfigs().getTransactionBatchSize();
-
-        String messageContent = publisher.getConfigs().getMessageContent();
-        if(StringUtils.isEmpty(messageContent)) {
-            messageContent = DEFAULT_CONTENT;
-        }
-
-        DisruptorBasedPublisher disruptorPublisher =
-                new DisruptorBasedPublisher(batchSize, publisher, sentCount, publishRate);
+        int numericId = config.getNumericId();
 
         RateLimiter rateLimiter = null;
+        SendScheduler scheduler = null;
         if (config.getMessagesPerSecond() != 0) {
-            rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
+            if (config.isOpenLoop()) {
+                scheduler = new OpenLoopScheduler(config.getMessagesPerSecond());
+            } else {
+                rateLimiter = RateLimiter.create(config.getMessagesPerSecond());
+            }
+        } else {
+            scheduler = loadScheduler;
         }
 
         for (int i = 1; i <= messageCount; i++) {
+            if (disruptorPublisher.isFailed()) {
+                log.error("Transactional publisher stopped after " + (i - 1) + " messages. Publisher ID: " +
+                        publisherID);
+                break;
+            }
+            long intendedNanos = 0;
             try {
-                atcMessage = publisher.createTextMessage(messageContent);
-                atcMessage.setMessageID(Integer.toString(i));
                 if (null != rateLimiter) {
                     rateLimiter.acquire();  // wait for a permit to publish or block
+                } else if (null != scheduler) {
+                    intendedNanos = awaitIntendedSendTime(scheduler);
+                    if (intendedNanos == SendScheduler.END_OF_SCHEDULE) {
+                        log.info("Load profile ended after " + (i - 1) + " messages. Publisher ID: " +
+                                publisherID);
+                        break;
+                    }
                 }
-                disruptorPublisher.publish(atcMessage);
-            } catch (ATCException e) {
-                log.error("Exception occurred while creating message for publisher " + publisherID, e);
-                i--; // resend
-                try {
-                    Thread.sleep(ConfigReader.RESEND_WAIT_INTERVAL_MILLISECONDS); // wait an send again
-                } catch (InterruptedException e1) {
-                    Thread.currentThread().interrupt(); // on interrupt exception throw it.
-                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
+
+            // fill the message owned by the ring entry in place
+            long sequence = disruptorPublisher.next();
+            ATCMessage atcMessage = disruptorPublisher.getMessage(sequence);
+            payloadGenerator.fill(atcMessage);
+            payloadSize.update(atcMessage.getContentLength());
+            atcMessage.setPublisherId(numericId);
+            atcMessage.setSequence(i);
+            setSendTime(atcMessage, scheduler, intendedNanos);
+            disruptorPublisher.publish(sequence);
         }
 
         log.info("Stopping transactional publisher. [ Publisher ID: " + publisher.getConfigs().getId() + "  ]");
@@ -182,4 +280,76 @@ public class PublisherThread implements Runnable {
         disruptorPublisher.shutdown();
         log.info("Stopped publisher. [ Publisher ID: " + publisher.getConfigs().getId() + "  ]");
     }
+
+    /**
+     * @return numeric id of the publisher written to the message header
+     */
+    int getNumericId() {
+        return publisher.getConfigs().getNumericId();
+    }
+
+    /**
+     * @return number of messages the publisher sent, fewer than configured when the load profile or a
+     * failure stopped it early. For a transactional publisher the messages up to the highest committed
+     * batch, as messages handed to the ring but never committed are not sent.
+     */
+    long getSentCount() {
+        if (null != disruptorPublisher) {
+            return disruptorPublisher.getCommittedSequence();
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Sends a message, re-creating the session and sending the message again after a failure until the
+     * reconnector gives up
+     *
+     * @throws ATCException the failure the publisher could not recover from
+     * @throws InterruptedException if interrupted while reconnecting
+     */
+    private void send(ATCMessage atcMessage) throws ATCException, InterruptedException {
+        while (true) {
+            try {
+                publisher.send(atcMessage);
+                reconnector.messageDone();
+                return;
+            } catch (ATCException e) {
+                if (!reconnector.recover(publisher, 1, e)) {
+                    throw e;
+                }
+                publishErrors.inc();
+            }
+        }
+    }
+
+    /**
+     * Waits for the next slot of the open-loop schedule and records how far behind the schedule the
+     * publisher is
+     *
+     * @param scheduler open-loop schedule of this publisher
+     * @return intended send time of the slot, {@link System#nanoTime()} based
+     * @throws InterruptedException if interrupted while waiting for the slot
+     */
+    private long awaitIntendedSendTime(SendScheduler scheduler) throws InterruptedException {
+        long intendedNanos = scheduler.acquire();
+        if (intendedNanos == SendScheduler.END_OF_SCHEDULE) {
+            return intendedNanos;
+        }
+        scheduleLag.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intendedNanos));
+        return intendedNanos;
+    }
+
+    /**
+     * Stamps a reused message with its intended send time. Without an open-loop schedule the send time is
+     * cleared so that the message is stamped when it is actually sent.
+     */
+    private static void setSendTime(ATCMessage atcMessage, SendScheduler scheduler, long intendedNanos) {
+        if (null == scheduler) {
+            atcMessage.setSendNanos(0);
+            atcMessage.setTimeStamp(0);
+        } else {
+            atcMessage.setSendNanos(intendedNanos);
+            atcMessage.setTimeStamp(scheduler.toEpochMillis(intendedNanos));
+        }
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import javax.naming.NamingException;
+
+/**
+ * A publisher or subscriber that can re-create its broker session after a failure. Driven by a
+ * {@link org.atc.Reconnector}.
+ */
+public interface Reconnectable {
+
+    /**
+     * Drops the broken session and its connection and creates the producer or consumer again on a new one.
+     * Messages sent in an uncommitted transaction or received but not acknowledged are lost with the old
+     * session, the broker redelivers the received ones.
+     *
+     * @throws NamingException if the connection factory or destination lookup fails
+     * @throws ATCException if the connection, session, producer or consumer cannot be created
+     */
+    void reconnect() throws NamingException, ATCException;
+}
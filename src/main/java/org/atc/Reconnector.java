@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.config.PubSubConfig;
+
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Recovers a publisher or subscriber from a failed send, receive or commit, e.g. when a broker node of a
+ * failover cluster restarts, by re-creating its session with exponential backoff between the attempts.
+ * <p>
+ * Every outage is recorded under global.&lt;publisher|consumer&gt;: the number of outages, the messages in flight
+ * at the failure, the outage duration from the failure until the session is re-created and the recovery time
+ * from the failure until the first message is sent or received again. A reconnector belongs to a single client
+ * and is used by one thread at a time.
+ */
+final class Reconnector {
+
+    private static Log log = LogFactory.getLog(Reconnector.class);
+
+    static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private final String client;
+    private final int attempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Counter outages;
+    private final Histogram inFlight;
+    private final Timer outageTime;
+    private final Timer recoveryTime;
+
+    /**
+     * Failure of the outage in progress, {@link System#nanoTime()} based
+     */
+    private long failureNanos;
+    private long reconnectedNanos;
+    private boolean recovering;
+
+    /**
+     * @param config configuration of the client, provides the reconnect settings
+     * @param role metric group of the client, "publisher" or "consumer"
+     */
+    Reconnector(PubSubConfig config, String role) {
+        client = role + " " + config.getId();
+        attempts = config.getReconnectAttempts();
+        initialDelayMillis = config.getReconnectInitialDelayMillis() > 0 ?
+                config.getReconnectInitialDelayMillis() : DEFAULT_INITIAL_DELAY_MILLIS;
+        maxDelayMillis = Math.max(initialDelayMillis, config.getReconnectMaxDelayMillis() > 0 ?
+                config.getReconnectMaxDelayMillis() : DEFAULT_MAX_DELAY_MILLIS);
+        outages = Main.METRICS.counter(name("global", role, "outages"));
+        inFlight = Main.METRICS.histogram(name("global", role, "in-flight-at-failure"));
+        outageTime = Main.METRICS.timer(name("global", role, "outage"));
+        recoveryTime = Main.METRICS.timer(name("global", role, "recovery"));
+    }
+
+    /**
+     * Re-creates the session of a failed client, waiting the backoff delay before every attempt. A failure before
+     * the first message after a recovery continues the same outage.
+     *
+     * @param target failed client
+     * @param messagesInFlight messages sent or received but not yet committed or acknowledged at the failure
+     * @param cause the failure
+     * @return true once the session is re-created, false if reconnecting is disabled or every attempt failed
+     * @throws InterruptedException if interrupted while backing off
+     */
+    boolean recover(Reconnectable target, long messagesInFlight, Exception cause) throws InterruptedException {
+        if (attempts <= 0) {
+            return false;
+        }
+        if (!recovering) {
+            recovering = true;
+            failureNanos = System.nanoTime();
+            outages.inc();
+            inFlight.update(messagesInFlight);
+        }
+        log.warn("The " + client + " failed, reconnecting: " + cause.getMessage());
+
+        long delayMillis = initialDelayMillis;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            try {
+                target.reconnect();
+                reconnectedNanos = System.nanoTime();
+                log.info("The " + client + " reconnected after " + attempt + " attempts, " +
+                        TimeUnit.NANOSECONDS.toMillis(reconnectedNanos - failureNanos) + " ms after the failure");
+                return true;
+            } catch (NamingException | ATCException e) {
+                log.warn("Reconnect attempt " + attempt + " of the " + client + " failed: " + e.getMessage());
+                delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+            }
+        }
+        log.error("The " + client + " gave up after " + attempts + " reconnect attempts");
+        recovering = false;
+        return false;
+    }
+
+    /**
+     * Marks a message sent, committed or received. The first one after a recovery completes the outage.
+     */
+    void messageDone() {
+        if (recovering) {
+            recovering = false;
+            outageTime.update(reconnectedNanos - failureNanos, TimeUnit.NANOSECONDS);
+            recoveryTime.update(System.nanoTime() - failureNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
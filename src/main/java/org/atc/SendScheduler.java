@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc;
+
+/**
+ * Gives open-loop publishers the intended send time of each message
+ */
+interface SendScheduler {
+
+    /**
+     * Returned by {@link #acquire()} when no more messages are due
+     */
+    long END_OF_SCHEDULE = Long.MIN_VALUE;
+
+    /**
+     * Blocks until the intended send time of the next message. Returns immediately if the publisher is
+     * already behind the schedule.
+     *
+     * @return intended send time of the next message in {@link System#nanoTime()} units, or
+     * {@link #END_OF_SCHEDULE}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    long acquire() throws InterruptedException;
+
+    /**
+     * Converts an intended send time returned by {@link #acquire()} to epoch milliseconds so that it
+     * can be compared with the receiving side clock
+     *
+     * @param intendedNanos intended send time in {@link System#nanoTime()} units
+     * @return intended send time in milliseconds since epoch
+     */
+    long toEpochMillis(long intendedNanos);
+}
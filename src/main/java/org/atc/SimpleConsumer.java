@@ -25,12 +25,60 @@ import javax.naming.NamingException;
  * Generic interface for a message consumer used by the {@link org.atc.ConsumerThread} to consume
  * messages
  */
-public interface SimpleConsumer {
+public interface SimpleConsumer extends Reconnectable {
 
     SubscriberConfig getConfigs();
 
+    /**
+     * Receives the next message, waiting at most the configured receive timeout if one is set
+     *
+     * @return received message or null if the receive timeout expired
+     * @throws ATCException if receiving fails
+     */
     ATCMessage receive() throws ATCException;
 
+    /**
+     * Receives the next message, waiting at most the given time
+     *
+     * @param timeoutMillis longest wait in milliseconds, 0 to wait until a message arrives
+     * @return received message or null if the timeout expired
+     * @throws ATCException if receiving fails
+     */
+    ATCMessage receive(long timeoutMillis) throws ATCException;
+
+    /**
+     * Commits the messages received since the last commit. Only for transactional subscribers.
+     *
+     * @throws ATCException if the commit fails
+     */
+    void commit() throws ATCException;
+
+    /**
+     * Rolls back the messages received since the last commit, the broker redelivers them. Only for
+     * transactional subscribers.
+     *
+     * @throws ATCException if the rollback fails
+     */
+    void rollback() throws ATCException;
+
+    /**
+     * Switches the consumer to push mode. Messages are delivered to the listener by the provider's
+     * dispatcher thread and {@link #receive()} must not be used afterwards.
+     *
+     * @param listener listener receiving the messages
+     * @throws ATCException if the listener cannot be registered
+     */
+    void setMessageListener(ATCMessageListener listener) throws ATCException;
+
+    /**
+     * Stops delivering messages to the listener, waiting for a message being delivered. The session stays
+     * open, so that the messages received so far can be committed or acknowledged from the calling thread
+     * before {@link #close()}.
+     *
+     * @throws ATCException if delivery cannot be stopped
+     */
+    void stopListening() throws ATCException;
+
     void close() throws ATCException;
 
     void unsubscribe() throws ATCException;
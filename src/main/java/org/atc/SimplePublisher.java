@@ -24,7 +24,7 @@ import javax.naming.NamingException;
  * Generic interface used by the {@link org.atc.PublisherThread} to publish messages to a
  * broker.
  */
-public interface SimplePublisher {
+public interface SimplePublisher extends Reconnectable {
 
     void send(ATCMessage atcMessage) throws ATCException;
 
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.config.SearchConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches for the highest total publish rate the broker sustains. Each step runs the publishers at a
+ * rate through the {@link org.atc.AdjustableRateScheduler}, lets the rate settle for the warm-up window
+ * and then measures it. A step holds when
+ * <ul>
+ *     <li>the latency percentile of the messages received in the window is within the SLO</li>
+ *     <li>the publishers sent at least {@link #MIN_SENT_FRACTION} of the rate</li>
+ *     <li>the backlog, messages due to the subscribers but not yet received, grew by no more than the
+ *     allowed fraction of the messages due in the window</li>
+ * </ul>
+ * The rate is doubled until a step fails and then bisected between the highest holding and the lowest
+ * failing rate. Between steps the publishers pause until the subscribers drained the backlog, so that a
+ * failed step does not leak into the next one.
+ * <p>
+ * Latency is taken from the intervals sampled by the {@link org.atc.metrics.LatencyReporter}, hence the
+ * window boundaries are accurate to the latency log interval.
+ */
+final class ThroughputSearch {
+
+    private static Log log = LogFactory.getLog(ThroughputSearch.class);
+
+    /**
+     * Fraction of the step rate the publishers must send for the rate to hold
+     */
+    static final double MIN_SENT_FRACTION = 0.95;
+
+    private static final double DEFAULT_START_RATE = 1000;
+    private static final double DEFAULT_WARMUP_SECONDS = 10;
+    private static final double DEFAULT_MEASURE_SECONDS = 30;
+    private static final double DEFAULT_COOLDOWN_SECONDS = 30;
+    private static final double DEFAULT_LATENCY_PERCENTILE = 99;
+    private static final double DEFAULT_MAX_BACKLOG_GROWTH = 0.02;
+    private static final double DEFAULT_RESOLUTION = 0.05;
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    /**
+     * Search gives up when even this rate fails
+     */
+    private static final double MIN_RATE = 1;
+
+    /**
+     * Counters read by the search
+     */
+    interface Probe {
+
+        /**
+         * @return messages sent by the publishers driven by the search
+         */
+        long getSentCount();
+
+        /**
+         * @return messages due to the subscribers, a message sent to a topic is due to each of its subscribers
+         */
+        long getDueCount();
+
+        /**
+         * @return messages received by the subscribers
+         */
+        long getReceivedCount();
+
+        /**
+         * @return copy of the latency histogram of all the received messages in microseconds
+         */
+        Histogram copyLatency();
+    }
+
+    private final AdjustableRateScheduler scheduler;
+    private final Probe probe;
+    private final File stepsFile;
+    private final double startRate;
+    private final double maxRate;
+    private final double warmupSeconds;
+    private final double measureSeconds;
+    private final double cooldownSeconds;
+    private final double latencySloMillis;
+    private final double latencyPercentile;
+    private final double maxBacklogGrowth;
+    private final double resolution;
+
+    /**
+     * @param config search configuration
+     * @param scheduler scheduler followed by the publishers
+     * @param probe counters of the test
+     * @param stepsFile CSV file the steps are written to
+     */
+    ThroughputSearch(SearchConfig config, AdjustableRateScheduler scheduler, Probe probe, File stepsFile) {
+        if (config.getLatencySloMillis() <= 0) {
+            throw new IllegalArgumentException("Throughput search needs a latencySloMillis");
+        }
+        if (config.getStartRate() < 0 || config.getMaxRate() < 0 || config.getLatencyPercentile() < 0 ||
+                config.getLatencyPercentile() > 100 || config.getMaxBacklogGrowth() < 0 ||
+                config.getResolution() < 0 || config.getResolution() >= 1) {
+            throw new IllegalArgumentException("Invalid throughput search configuration. Rates must not be " +
+                    "negative, latencyPercentile must be at most 100 and resolution less than 1");
+        }
+        this.scheduler = scheduler;
+        this.probe = probe;
+        this.stepsFile = stepsFile;
+        startRate = orDefault(config.getStartRate(), DEFAULT_START_RATE);
+        maxRate = config.getMaxRate();
+        warmupSeconds = orDefault(config.getWarmupSeconds(), DEFAULT_WARMUP_SECONDS);
+        measureSeconds = orDefault(config.getMeasureSeconds(), DEFAULT_MEASURE_SECONDS);
+        cooldownSeconds = orDefault(config.getCooldownSeconds(), DEFAULT_COOLDOWN_SECONDS);
+        latencySloMillis = config.getLatencySloMillis();
+        latencyPercentile = orDefault(config.getLatencyPercentile(), DEFAULT_LATENCY_PERCENTILE);
+        maxBacklogGrowth = orDefault(config.getMaxBacklogGrowth(), DEFAULT_MAX_BACKLOG_GROWTH);
+        resolution = orDefault(config.getResolution(), DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Runs the search and ends the schedule of the publishers
+     *
+     * @return highest rate that held in messages per second, 0 if none did
+     * @throws InterruptedException if interrupted while running a step
+     * @throws IOException if the steps file cannot be written
+     */
+    double run() throws InterruptedException, IOException {
+        double holding = 0;
+        double failing = Double.POSITIVE_INFINITY;
+        double rate = maxRate == 0 ? startRate : Math.min(startRate, maxRate);
+
+        log.info("Searching the maximum sustainable throughput from " + format(rate) + " msg/s. Steps of " +
+                format(warmupSeconds) + " s warm-up and " + format(measureSeconds) + " s measurement, p" +
+                format(latencyPercentile) + " latency SLO " + format(latencySloMillis) + " ms");
+        try (PrintWriter steps = new PrintWriter(Files.newBufferedWriter(stepsFile.toPath(),
+                StandardCharsets.UTF_8))) {
+            steps.println("rate,sent rate,received rate,latency millis,backlog growth,result");
+            try {
+                while (true) {
+                    if (runStep(rate, steps)) {
+                        holding = rate;
+                    } else {
+                        failing = rate;
+                    }
+                    if (failing < MIN_RATE) {
+                        break;
+                    }
+                    if (Double.isInfinite(failing)) {
+                        if (maxRate > 0 && rate >= maxRate) {
+                            log.info("Maximum rate of the search holds");
+                            break;
+                        }
+                        rate = maxRate > 0 ? Math.min(rate * 2, maxRate) : rate * 2;
+                    } else if (failing - holding <= resolution * failing) {
+                        break;
+                    } else {
+                        rate = (holding + failing) / 2;
+                    }
+                }
+            } finally {
+                scheduler.end();
+            }
+        }
+
+        if (holding == 0) {
+            log.info("Search complete. No rate down to " + format(failing) + " msg/s holds");
+        } else {
+            log.info("Search complete. Maximum sustainable throughput: " + format(holding) + " msg/s" +
+                    (Double.isInfinite(failing) ? "" : ", " + format(failing) + " msg/s fails"));
+        }
+        return holding;
+    }
+
+    /**
+     * Runs a step and drains the backlog afterwards
+     *
+     * @return true if the rate holds
+     */
+    private boolean runStep(double rate, PrintWriter steps) throws InterruptedException {
+        scheduler.setRate(rate);
+        TimeUnit.MILLISECONDS.sleep((long) (warmupSeconds * 1000));
+
+        long startNanos = System.nanoTime();
+        long sentBefore = probe.getSentCount();
+        long dueBefore = probe.getDueCount();
+        long receivedBefore = probe.getReceivedCount();
+        Histogram latencyBefore = probe.copyLatency();
+        TimeUnit.MILLISECONDS.sleep((long) (measureSeconds * 1000));
+        long sent = probe.getSentCount() - sentBefore;
+        long received = probe.getReceivedCount() - receivedBefore;
+        long due = probe.getDueCount() - dueBefore;
+        Histogram latency = probe.copyLatency();
+        double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        scheduler.setRate(0);
+
+        latency.subtract(latencyBefore);
+        double sentRate = sent / seconds;
+        double receivedRate = received / seconds;
+        long backlogGrowth = due - received;
+        double latencyMillis = latency.getTotalCount() == 0 ? Double.NaN :
+                latency.getValueAtPercentile(latencyPercentile) / 1000.0;
+
+        String failure;
+        if (sentRate < rate * MIN_SENT_FRACTION) {
+            failure = "publishers behind";
+        } else if (latency.getTotalCount() == 0) {
+            failure = "no latency recorded";
+        } else if (latencyMillis > latencySloMillis) {
+            failure = "latency SLO missed";
+        } else if (backlogGrowth > maxBacklogGrowth * Math.max(due, 1)) {
+            failure = "backlog grows";
+        } else {
+            failure = null;
+        }
+
+        log.info("Step at " + format(rate) + " msg/s " + (null == failure ? "holds" : "fails, " + failure) +
+                ". Sent " + format(sentRate) + " msg/s, received " + format(receivedRate) + " msg/s, p" +
+                format(latencyPercentile) + " latency " + format(latencyMillis) + " ms, backlog growth " +
+                backlogGrowth);
+        steps.println(String.format(Locale.US, "%.1f,%.1f,%.1f,%.3f,%d,%s", rate, sentRate, receivedRate,
+                latencyMillis, backlogGrowth, null == failure ? "holds" : "fails"));
+        steps.flush();
+
+        drain();
+        return null == failure;
+    }
+
+    /**
+     * Waits until the subscribers received all the due messages or the cooldown elapsed
+     */
+    private void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + (long) (cooldownSeconds * TimeUnit.SECONDS.toNanos(1));
+        while (probe.getDueCount() > probe.getReceivedCount()) {
+            if (System.nanoTime() - deadline > 0) {
+                log.warn("Backlog of " + (probe.getDueCount() - probe.getReceivedCount()) + " messages " +
+                        "not drained in " + format(cooldownSeconds) + " seconds, continuing the search");
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(DRAIN_POLL_MILLIS);
+        }
+    }
+
+    private static double orDefault(double value, double defaultValue) {
+        return value == 0 ? defaultValue : value;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.1f", value);
+    }
+}
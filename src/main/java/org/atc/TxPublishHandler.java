@@ -16,28 +16,64 @@
 
 package org.atc;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.EventHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.atc.config.ConfigReader;
+import org.atc.config.PublisherConfig;
+import org.atc.metrics.WindowedCounter;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
- * Transactional publish handler dor {@link org.atc.DisruptorBasedPublisher}
+ * Transactional publish handler dor {@link org.atc.DisruptorBasedPublisher}. Ring entries are reused by
+ * the producer once handled, hence uncommitted messages are copied to a preallocated batch to be able to
+ * resend them.
+ * <p>
+ * With a commit pipeline the publisher has a transacted session, a lane, for every outstanding commit plus
+ * one. A full batch is committed by a commit thread while the next batch is already sent on the next lane.
+ * The handler only waits when it comes back to a lane whose commit is still in flight.
+ * <p>
+ * A failed send or commit re-creates the session of the lane through its {@link org.atc.Reconnector} and
+ * sends the batch again. Once a lane gives up the publisher stops and the remaining events are dropped.
  */
 class TxPublishHandler implements EventHandler<PublishEvent> {
 
     private static Log log = LogFactory.getLog(TxPublishHandler.class);
 
-    private final List<ATCMessage> messagesList;
+    private static final int COMMIT_THREAD_SHUTDOWN_WAIT_TIME_SECONDS = 10;
+
+    private final Lane[] lanes;
+    private int currentLane;
     private final int batchSize;
     private final SimplePublisher publisher;
-    private final AtomicInteger sentCount;
+    private final WindowedCounter sentCount;
     private final Meter publishRate;
+    private final Timer commitTimer;
+    private final Counter publishErrors;
+    private volatile boolean failed;
+
+    /**
+     * Sequence of the last message of the highest committed batch
+     */
+    private volatile long committedSequence;
+
+    /**
+     * Runs pipelined commits. Null when commits are synchronous.
+     */
+    private final ExecutorService commitExecutor;
 
     /**
      * Creates the transactional publish handler
@@ -46,68 +82,256 @@ class TxPublishHandler implements EventHandler<PublishEvent> {
      * @param sentCount Sent message within a time period tracker
      * @param publishRate Metrics publish rate calculating meter
      */
-    TxPublishHandler(int batchSize, SimplePublisher publisher, AtomicInteger sentCount, Meter publishRate) {
-        messagesList = new ArrayList<>(batchSize);
+    TxPublishHandler(int batchSize, SimplePublisher publisher, WindowedCounter sentCount, Meter publishRate) {
+        this(batchSize, publisher, Collections.<SimplePublisher>emptyList(), sentCount, publishRate);
+    }
+
+    /**
+     * Creates the transactional publish handler with a commit pipeline
+     * @param batchSize Transaction batch size
+     * @param publisher SimplePublisher
+     * @param pipelinePublishers additional publishers of the same destination on sessions of their own, one
+     *                           per outstanding commit. Empty for synchronous commits.
+     * @param sentCount Sent message within a time period tracker
+     * @param publishRate Metrics publish rate calculating meter
+     */
+    TxPublishHandler(int batchSize, SimplePublisher publisher, List<SimplePublisher> pipelinePublishers,
+                     WindowedCounter sentCount, Meter publishRate) {
+        lanes = new Lane[pipelinePublishers.size() + 1];
+        lanes[0] = new Lane(publisher, batchSize);
+        for (int i = 0; i < pipelinePublishers.size(); i++) {
+            lanes[i + 1] = new Lane(pipelinePublishers.get(i), batchSize);
+        }
         this.batchSize = batchSize;
         this.publisher = publisher;
         this.sentCount = sentCount;
         this.publishRate = publishRate;
+
+        PublisherConfig config = publisher.getConfigs();
+        commitTimer = Main.METRICS.timer(name("publisher", config.getQueueName(),
+                "publisher id " + config.getId(), "commit"));
+        publishErrors = Main.METRICS.counter(name("global", "publisher", "errors"));
+
+        if (pipelinePublishers.isEmpty()) {
+            commitExecutor = null;
+        } else {
+            ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat("TxCommitThread-id-" + config.getId() + "-%d").build();
+            // a single commit thread completes the commits in batch order
+            int commitThreads = config.isOrderedCommits() ? 1 : pipelinePublishers.size();
+            commitExecutor = Executors.newFixedThreadPool(commitThreads, namedThreadFactory);
+        }
     }
 
     public void onEvent(PublishEvent event, long sequence, boolean endOfBatch) throws ATCException {
 
+        Lane lane = lanes[currentLane];
         try {
-            if(event.getType() != PublishEvent.EventType.CLOSE_PUB ) {
-                messagesList.add(event.getAtcMessage());
-                publisher.send(event.getAtcMessage());
+            if(event.getType() != PublishEvent.EventType.CLOSE_PUB && !failed) {
+                ATCMessage atcMessage = lane.batch[lane.batchCount++];
+                atcMessage.copyFrom(event.getAtcMessage());
+                lane.publisher.send(atcMessage);
                 if(log.isDebugEnabled()) {
                     log.debug("[ sequence: " + sequence + " ] publish event. Message " + event.getAtcMessage());
                 }
             }
 
-            if ((messagesList.size() == batchSize)) {
-                publisher.commit();
-                sentCount.addAndGet(messagesList.size());
-                publishRate.mark(messagesList.size());
-
-                if (log.isDebugEnabled()) {
-                    log.debug("Messages committed. Batch size " + messagesList.size());
-                }
-                messagesList.clear();
+            if ((lane.batchCount == batchSize)) {
+                commit(lane);
             }
 
             if (event.getType() == PublishEvent.EventType.CLOSE_PUB) {
-                publisher.close();
+                close();
             }
         } catch (ATCException e) {
-            log.error("Publish failed for publisher " + publisher.getConfigs().getId(), e);
-            resend();
+            publishErrors.inc();
+            if (event.getType() == PublishEvent.EventType.CLOSE_PUB) {
+                log.error("Error while closing publisher " + publisher.getConfigs().getId(), e);
+            } else {
+                resend(lane, e);
+                committed(lane);
+            }
         } finally {
             event.clear();
         }
     }
 
     /**
-     * Try to resend failed messages
+     * Commits a full batch, either right away or through the commit pipeline. A pipelined commit moves
+     * the handler to the next lane, waiting for the commit of that lane if it is still in flight.
      */
-    private void resend() {
+    private void commit(final Lane lane) {
+        if (null == commitExecutor) {
+            commitBatch(lane);
+            return;
+        }
+        lane.pendingCommit = commitExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                commitBatch(lane);
+            }
+        });
+        currentLane = (currentLane + 1) % lanes.length;
+        awaitCommit(lanes[currentLane]);
+    }
 
+    /**
+     * Commits the batch of a lane, resending it on a new session if the commit fails
+     */
+    private void commitBatch(Lane lane) {
+        Timer.Context commitTime = commitTimer.time();
         try {
-            Thread.sleep(ConfigReader.RESEND_WAIT_INTERVAL_MILLISECONDS);
-            publisher.rollback();
-            for (ATCMessage atcMessage : messagesList) {
-                publisher.send(atcMessage);
+            lane.publisher.commit();
+            commitTime.stop();
+            if (log.isDebugEnabled()) {
+                log.debug("Messages committed. Batch size " + lane.batchCount);
             }
-
-            publisher.commit();
-            sentCount.addAndGet(messagesList.size());
-            publishRate.mark(messagesList.size());
-            messagesList.clear();
         } catch (ATCException e) {
-            log.error("Failed to re-publish. Publisher id " + publisher.getConfigs().getId(), e);
-            resend();
+            publishErrors.inc();
+            resend(lane, e);
+        }
+        committed(lane);
+    }
+
+    private void committed(Lane lane) {
+        if (lane.batchCount > 0) {
+            recordCommitted(lane.batch[lane.batchCount - 1].getSequence());
+        }
+        sentCount.add(lane.batchCount);
+        publishRate.mark(lane.batchCount);
+        lane.batchCount = 0;
+    }
+
+    private void awaitCommit(Lane lane) {
+        if (null == lane.pendingCommit) {
+            return;
+        }
+        try {
+            lane.pendingCommit.get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            publishErrors.inc();
+            log.error("Pipelined commit failed for publisher " + publisher.getConfigs().getId(), e);
+        }
+        lane.pendingCommit = null;
+    }
+
+    /**
+     * Waits for the outstanding commits and closes the publishers of all the lanes
+     */
+    private void close() throws ATCException {
+        // earlier batches still in the pipeline commit before the last one, keeping the batch order
+        for (Lane lane : lanes) {
+            awaitCommit(lane);
+        }
+        // the last batch is partial when the message count is not a multiple of the batch size or the
+        // publisher stopped early, e.g. at the end of the load profile
+        if (lanes[currentLane].batchCount > 0) {
+            commitBatch(lanes[currentLane]);
+        }
+        if (null != commitExecutor) {
+            commitExecutor.shutdown();
+            try {
+                commitExecutor.awaitTermination(COMMIT_THREAD_SHUTDOWN_WAIT_TIME_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.publisher.close();
+        }
+    }
+
+    /**
+     * @return true if the publisher stopped after a failure it could not recover from
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return sequence of the last message of the highest committed batch, 0 if nothing was committed.
+     * Messages dropped after a failure are not counted.
+     */
+    long getCommittedSequence() {
+        return committedSequence;
+    }
+
+    /**
+     * Batches of different lanes may commit out of order
+     */
+    private synchronized void recordCommitted(long sequence) {
+        if (sequence > committedSequence) {
+            committedSequence = sequence;
+        }
+    }
+
+    /**
+     * Re-creates the session of a lane after a failed send or commit and sends its batch again until it is
+     * committed. Stops the publisher if the reconnector of the lane gives up.
+     *
+     * @param lane failed lane
+     * @param cause the failure
+     */
+    private void resend(Lane lane, ATCException cause) {
+        while (true) {
+            try {
+                if (!lane.reconnector.recover(lane.publisher, lane.batchCount, cause)) {
+                    giveUp(lane, cause);
+                    return;
+                }
+                for (int i = 0; i < lane.batchCount; i++) {
+                    lane.publisher.send(lane.batch[i]);
+                }
+                lane.publisher.commit();
+                lane.reconnector.messageDone();
+                return;
+            } catch (ATCException e) {
+                publishErrors.inc();
+                cause = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                giveUp(lane, cause);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the publisher. The batch of the lane is lost and the messages still on the ring are dropped.
+     */
+    private void giveUp(Lane lane, ATCException cause) {
+        failed = true;
+        if (lane.batchCount > 0) {
+            log.error("Publish failed for publisher " + publisher.getConfigs().getId() + ", stopping. " +
+                    "Uncommitted messages " + lane.batch[0].getSequence() + " to " +
+                    lane.batch[lane.batchCount - 1].getSequence() + " are dropped by the publisher", cause);
+        } else {
+            log.error("Publish failed for publisher " + publisher.getConfigs().getId() + ", stopping", cause);
+        }
+        lane.batchCount = 0;
+    }
+
+    /**
+     * A transacted session of the publisher with the batch sent on it since its last commit. While a
+     * pipelined commit is pending the lane belongs to the commit thread.
+     */
+    private static final class Lane {
+
+        private final SimplePublisher publisher;
+        private final Reconnector reconnector;
+        private final ATCMessage[] batch;
+        private int batchCount;
+        private Future<?> pendingCommit;
+
+        private Lane(SimplePublisher publisher, int batchSize) {
+            this.publisher = publisher;
+            reconnector = new Reconnector(publisher.getConfigs(), "publisher");
+            batch = new ATCMessage[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = new ATCMessage();
+            }
         }
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access to virtual threads and their JFR pinning events. The client is built for Java 7, hence the
+ * Java 21 APIs are reached through reflection and are only used when the runtime provides them.
+ */
+final class VirtualThreads {
+
+    private static Log log = LogFactory.getLog(VirtualThreads.class);
+
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread";
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method UNSTARTED = findMethod(classOrNull("java.lang.Thread$Builder"),
+            "unstarted", Runnable.class);
+
+    private static final AtomicLong PINNED_COUNT = new AtomicLong();
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return null != OF_VIRTUAL && null != UNSTARTED;
+    }
+
+    /**
+     * Creates an unstarted virtual thread
+     *
+     * @param task task to run
+     * @return virtual thread
+     */
+    static Thread newThread(Runnable task) {
+        try {
+            return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create virtual thread", e);
+        }
+    }
+
+    /**
+     * Counts the carriers among the platform threads of the root thread group, which includes the group of
+     * the carriers. Threads are enumerated without capturing their stacks, hence the count is cheap enough
+     * for a gauge.
+     *
+     * @return number of live carrier threads of the virtual thread scheduler
+     */
+    static int carrierThreadCount() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (null != root.getParent()) {
+            root = root.getParent();
+        }
+        // the estimate may grow between the two calls, enumerate again until the array has room to spare
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int threadCount = root.enumerate(threads, true);
+        while (threadCount == threads.length) {
+            threads = new Thread[threads.length * 2];
+            threadCount = root.enumerate(threads, true);
+        }
+        int count = 0;
+        for (int i = 0; i < threadCount; i++) {
+            if (CARRIER_THREAD_CLASS.equals(threads[i].getClass().getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static long pinnedCount() {
+        return PINNED_COUNT.get();
+    }
+
+    /**
+     * Counts {@value #PINNED_EVENT} JFR events with a JFR recording stream. Logs a warning and leaves the
+     * count at 0 if JFR streaming is not available.
+     */
+    static void startPinningMonitor() {
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+            Class<?> durationClass = Class.forName("java.time.Duration");
+            Class<?> consumerClass = Class.forName("java.util.function.Consumer");
+
+            Object stream = streamClass.getConstructor().newInstance();
+            Object settings = streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+            settingsClass.getMethod("withThreshold", durationClass)
+                    .invoke(settings, durationClass.getField("ZERO").get(null));
+
+            Object counter = Proxy.newProxyInstance(VirtualThreads.class.getClassLoader(),
+                    new Class<?>[]{consumerClass}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("accept".equals(method.getName())) {
+                                PINNED_COUNT.incrementAndGet();
+                                return null;
+                            } else if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            } else if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            }
+                            return "VirtualThreadPinnedCounter";
+                        }
+                    });
+            streamClass.getMethod("onEvent", String.class, consumerClass).invoke(stream, PINNED_EVENT, counter);
+            streamClass.getMethod("startAsync").invoke(stream);
+        } catch (ReflectiveOperationException e) {
+            log.warn("JFR event streaming is not available. Virtual thread pinning will not be reported.", e);
+        }
+    }
+
+    private static Class<?> classOrNull(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (null == type) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.config.PubSubConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import javax.naming.NamingException;
+
+/**
+ * Shares JMS connections and sessions between publishers and subscribers. A connection serves up to
+ * sessionsPerConnection sessions and a subscriber session serves up to consumersPerSession consumers.
+ * Publisher sessions are never shared. With the default of one session per connection and one consumer
+ * per session every client gets its own connection, as without the pool.
+ * <p>
+ * Connections are created stopped and started by {@link #start()} once all the subscribers are in place,
+ * so that no session starts dispatching while other consumers are still being created on it. Connection
+ * factories and destinations are resolved only once through a {@link org.atc.amqp.JndiCache}.
+ * <p>
+ * The pool is locked only to book sessions on connections. Connections and sessions are created and closed
+ * outside the lock, so that clients connect in parallel and a slow broker does not hold up the others.
+ * <p>
+ * A failed client drops only its own session through {@link #invalidate(PooledSession)}. A connection is given
+ * up only when the provider reports it lost to its {@link javax.jms.ExceptionListener} or when it cannot create
+ * a session. It is then taken out of the pool and the listeners registered with
+ * {@link #addConnectionLossListener(PooledSession, ExceptionListener)} are notified, since push mode consumers
+ * do not see the failure otherwise.
+ */
+public final class ConnectionPool {
+
+    private static Log log = LogFactory.getLog(ConnectionPool.class);
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    private final Map<String, List<PooledConnection>> connections;
+    private final Map<String, List<PooledSession>> sharedSessions;
+    private final JndiCache jndiCache;
+    private boolean started;
+
+    private ConnectionPool() {
+        connections = new HashMap<>();
+        sharedSessions = new HashMap<>();
+        jndiCache = new JndiCache();
+    }
+
+    public static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquires a session on a pooled connection
+     *
+     * @param conf publisher or subscriber configuration, provides the connection settings and the number
+     *             of sessions per connection
+     * @param transacted whether the session is transacted
+     * @param acknowledgeMode acknowledge mode of the session
+     * @param consumersPerSession number of clients allowed to share the session. 1 for an exclusive session
+     * @return session to be released with {@link #release(PooledSession)}
+     * @throws NamingException if the connection factory lookup fails
+     * @throws JMSException if the connection or the session cannot be created
+     */
+    public PooledSession acquireSession(PubSubConfig conf, boolean transacted, int acknowledgeMode,
+                                        int consumersPerSession)
+            throws NamingException, JMSException {
+
+        String connectionKey = JndiCache.key(conf);
+        String sessionKey = connectionKey + "|" + transacted + "|" + acknowledgeMode;
+
+        PooledConnection connection;
+        boolean create;
+        synchronized (this) {
+            if (consumersPerSession > 1) {
+                List<PooledSession> sessions = sharedSessions.get(sessionKey);
+                if (null != sessions) {
+                    for (PooledSession session : sessions) {
+                        if (session.hasCapacity()) {
+                            session.acquire();
+                            return session;
+                        }
+                    }
+                }
+            }
+            connection = bookConnection(connectionKey, conf);
+            create = null == connection;
+            if (create) {
+                connection = new PooledConnection(connectionKey, Math.max(1, conf.getSessionsPerConnection()));
+                connection.sessionOpened();
+                connections.get(connectionKey).add(connection);
+            }
+        }
+        if (create) {
+            createConnection(connection, conf);
+        }
+
+        Connection jmsConnection = null;
+        Session jmsSession;
+        try {
+            jmsConnection = connection.awaitConnection();
+            jmsSession = jmsConnection.createSession(transacted, acknowledgeMode);
+        } catch (NamingException | JMSException e) {
+            if (null != jmsConnection && e instanceof JMSException) {
+                // a connection that cannot create sessions is broken
+                connectionLost(connection, (JMSException) e);
+            }
+            closeSession(null, connection);
+            throw e;
+        }
+
+        synchronized (this) {
+            PooledSession session = new PooledSession(sessionKey, connection, jmsSession,
+                    Math.max(1, consumersPerSession));
+            session.acquire();
+            if (consumersPerSession > 1) {
+                List<PooledSession> sessions = sharedSessions.get(sessionKey);
+                if (null == sessions) {
+                    sessions = new ArrayList<>();
+                    sharedSessions.put(sessionKey, sessions);
+                }
+                sessions.add(session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Releases a session acquired from the pool. The session is closed when its last user releases it and
+     * the connection is closed when its last session is closed.
+     *
+     * @param session session to release
+     * @throws JMSException if closing the session or the connection fails
+     */
+    public void release(PooledSession session) throws JMSException {
+        synchronized (this) {
+            if (!session.release()) {
+                return;
+            }
+            List<PooledSession> sessions = sharedSessions.get(session.getKey());
+            if (null != sessions) {
+                sessions.remove(session);
+            }
+        }
+        closeSession(session.getSession(), session.getOwner());
+    }
+
+    /**
+     * Drops the session of a failed client, ignoring errors since it is broken. The session is no longer shared
+     * with new consumers and is closed once its last user invalidated or released it. The connection is closed
+     * only if this was its last session, other sessions on it are not affected.
+     *
+     * @param session session of the failed client
+     */
+    public void invalidate(PooledSession session) {
+        synchronized (this) {
+            List<PooledSession> sessions = sharedSessions.get(session.getKey());
+            if (null != sessions) {
+                sessions.remove(session);
+            }
+            if (!session.release()) {
+                return;
+            }
+        }
+        try {
+            closeSession(session.getSession(), session.getOwner());
+        } catch (JMSException e) {
+            log.debug("Error while closing a failed session", e);
+        }
+    }
+
+    /**
+     * Registers a listener notified once if the connection of a session is lost. Notified right away if the
+     * connection is already lost.
+     *
+     * @param session session whose connection to watch
+     * @param listener listener to notify, called from the provider's thread
+     */
+    public void addConnectionLossListener(PooledSession session, ExceptionListener listener) {
+        synchronized (this) {
+            if (!session.getOwner().isLost()) {
+                session.getOwner().addLossListener(listener);
+                return;
+            }
+        }
+        listener.onException(new JMSException("The connection of the session is lost"));
+    }
+
+    /**
+     * Removes a listener registered with {@link #addConnectionLossListener(PooledSession, ExceptionListener)}
+     *
+     * @param session session the listener was registered for
+     * @param listener listener to remove
+     */
+    public synchronized void removeConnectionLossListener(PooledSession session, ExceptionListener listener) {
+        session.getOwner().removeLossListener(listener);
+    }
+
+    /**
+     * Starts delivery on all pooled connections. Connections created afterwards are started right away.
+     *
+     * @throws JMSException if a connection fails to start
+     */
+    public synchronized void start() throws JMSException {
+        started = true;
+        for (List<PooledConnection> pooledConnections : connections.values()) {
+            for (PooledConnection connection : pooledConnections) {
+                // connections still being created are started once created
+                if (null != connection.getConnection()) {
+                    connection.getConnection().start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up a destination through JNDI, once per destination and connection settings
+     *
+     * @param conf configuration providing the initial context factory
+     * @param type JNDI destination type, "queue" or "topic"
+     * @param name destination name
+     * @return destination
+     * @throws NamingException if the lookup fails
+     */
+    public Destination lookupDestination(PubSubConfig conf, String type, String name) throws NamingException {
+        return jndiCache.getDestination(conf, type, name);
+    }
+
+    /**
+     * Looks up the connection factory of a publisher or subscriber through JNDI, once per connection settings
+     *
+     * @param conf configuration providing the initial context factory and the connection URL
+     * @return connection factory
+     * @throws NamingException if the lookup fails
+     */
+    public ConnectionFactory lookupConnectionFactory(PubSubConfig conf) throws NamingException {
+        return jndiCache.getConnectionFactory(conf);
+    }
+
+    /**
+     * Looks up the connection factory of a publisher or subscriber in a new JNDI context, bypassing the cache.
+     * For measuring the lookup itself.
+     *
+     * @param conf configuration providing the initial context factory and the connection URL
+     * @return connection factory
+     * @throws NamingException if the lookup fails
+     */
+    public ConnectionFactory lookupConnectionFactoryUncached(PubSubConfig conf) throws NamingException {
+        return JndiCache.lookupConnectionFactory(conf);
+    }
+
+    /**
+     * Looks up a destination in a new JNDI context, bypassing the cache. For measuring the lookup itself.
+     *
+     * @param conf configuration providing the initial context factory
+     * @param type JNDI destination type, "queue" or "topic"
+     * @param name destination name
+     * @return destination
+     * @throws NamingException if the lookup fails
+     */
+    public Destination lookupDestinationUncached(PubSubConfig conf, String type, String name)
+            throws NamingException {
+        return JndiCache.lookupDestination(conf, type, name);
+    }
+
+    /**
+     * Books a session on a pooled connection with capacity left, including connections still being created
+     *
+     * @return booked connection, null if all are full
+     */
+    private PooledConnection bookConnection(String connectionKey, PubSubConfig conf) {
+        List<PooledConnection> pooledConnections = connections.get(connectionKey);
+        if (null == pooledConnections) {
+            pooledConnections = new ArrayList<>();
+            connections.put(connectionKey, pooledConnections);
+        }
+        for (PooledConnection connection : pooledConnections) {
+            if (connection.hasCapacity()) {
+                connection.sessionOpened();
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the JMS connection of a booked pooled connection, outside the pool lock. A connection that
+     * cannot be created is taken out of the pool and the clients waiting for it get the failure.
+     */
+    private void createConnection(final PooledConnection pooledConnection, PubSubConfig conf) {
+        Connection connection;
+        try {
+            connection = lookupConnectionFactory(conf).createConnection();
+            connection.setExceptionListener(new ExceptionListener() {
+                @Override
+                public void onException(JMSException e) {
+                    connectionLost(pooledConnection, e);
+                }
+            });
+        } catch (NamingException | JMSException e) {
+            synchronized (this) {
+                connections.get(pooledConnection.getKey()).remove(pooledConnection);
+            }
+            pooledConnection.fail(e);
+            return;
+        }
+
+        boolean start;
+        int pooled;
+        synchronized (this) {
+            pooledConnection.complete(connection);
+            start = started;
+            pooled = connections.get(pooledConnection.getKey()).size();
+        }
+        if (start) {
+            // also started by start() if that ran meanwhile, starting twice has no effect
+            try {
+                connection.start();
+            } catch (JMSException e) {
+                log.error("Error while starting a pooled connection", e);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Connection created. Pooled connections for the broker: " + pooled);
+        }
+    }
+
+    /**
+     * Takes a lost connection and its shared sessions out of the pool and notifies its loss listeners. The
+     * connection is closed once its clients invalidated or released their sessions.
+     */
+    private void connectionLost(PooledConnection connection, JMSException cause) {
+        List<ExceptionListener> listeners;
+        synchronized (this) {
+            if (connection.isLost()) {
+                return;
+            }
+            listeners = connection.markLost();
+            List<PooledConnection> pooledConnections = connections.get(connection.getKey());
+            if (null != pooledConnections) {
+                pooledConnections.remove(connection);
+            }
+            for (List<PooledSession> sessions : sharedSessions.values()) {
+                for (Iterator<PooledSession> iterator = sessions.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().getOwner() == connection) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        log.warn("Pooled connection lost, notifying " + listeners.size() + " consumers: " + cause.getMessage());
+        for (ExceptionListener listener : listeners) {
+            listener.onException(cause);
+        }
+    }
+
+    /**
+     * Closes a session and, if it was the last session of its connection, the connection
+     *
+     * @param session session to close, null if its creation failed
+     * @param connection connection the session was booked on
+     */
+    private void closeSession(Session session, PooledConnection connection) throws JMSException {
+        boolean lastSession;
+        synchronized (this) {
+            lastSession = connection.sessionClosed();
+            if (lastSession) {
+                List<PooledConnection> pooledConnections = connections.get(connection.getKey());
+                if (null != pooledConnections) {
+                    pooledConnections.remove(connection);
+                }
+            }
+        }
+        try {
+            if (null != session) {
+                session.close();
+            }
+        } finally {
+            if (lastSession && null != connection.getConnection()) {
+                connection.getConnection().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.ATCException;
+import org.atc.ATCMessageListener;
+import org.atc.config.SubscriberConfig;
+
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Adapts an {@link org.atc.ATCMessageListener} to a {@link javax.jms.MessageListener}. Acknowledges and
+ * converts each message in the provider's dispatcher thread the same way the blocking receive path does.
+ * Registered with {@link org.atc.amqp.ConnectionPool#addConnectionLossListener} it also passes on the loss
+ * of the connection, after which no further message is delivered.
+ */
+public class JMSMessageListenerAdapter implements MessageListener, ExceptionListener {
+
+    private static Log log = LogFactory.getLog(JMSMessageListenerAdapter.class);
+
+    private final SubscriberConfig config;
+    private final MessageAcknowledger acknowledger;
+    private final ATCMessageListener listener;
+
+    public JMSMessageListenerAdapter(SubscriberConfig config, MessageAcknowledger acknowledger,
+                                     ATCMessageListener listener) {
+        this.config = config;
+        this.acknowledger = acknowledger;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        try {
+            acknowledger.onMessage(message);
+            listener.onMessage(MessageUtils.fromJMSToATC(message));
+        } catch (JMSException e) {
+            log.error("Error occurred while processing received message. Subscriber id: " + config.getId(), e);
+        }
+    }
+
+    @Override
+    public void onException(JMSException e) {
+        listener.onConnectionLost(new ATCException("Connection lost. Subscriber id: " + config.getId(), e));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.atc.config.PubSubConfig;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Resolves connection factories and destinations through JNDI once per connection settings and shares them
+ * between all the publishers and subscribers. JMS connection factories and destinations can be used from any
+ * thread while JNDI contexts cannot, hence only the resolved objects are kept and a context is closed right
+ * after its lookup. Cached entries are read without locking, lookups of new entries are serialised so that
+ * each entry is resolved only once.
+ * <p>
+ * Properties based contexts, such as the one of Andes, bind a destination only when the context is created
+ * with an entry for it. A destination is therefore looked up in a context of its own the first time it is used.
+ */
+final class JndiCache {
+
+    private final ConcurrentMap<String, ConnectionFactory> factories;
+    private final ConcurrentMap<String, Destination> destinations;
+
+    JndiCache() {
+        factories = new ConcurrentHashMap<>();
+        destinations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param conf configuration providing the initial context factory and the connection URL
+     * @return connection factory of the connection settings
+     * @throws NamingException if the lookup fails
+     */
+    ConnectionFactory getConnectionFactory(PubSubConfig conf) throws NamingException {
+        String key = key(conf);
+        ConnectionFactory factory = factories.get(key);
+        if (null == factory) {
+            synchronized (this) {
+                factory = factories.get(key);
+                if (null == factory) {
+                    factory = lookupConnectionFactory(conf);
+                    factories.put(key, factory);
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @param conf configuration providing the initial context factory
+     * @param type JNDI destination type, "queue" or "topic"
+     * @param name destination name
+     * @return destination
+     * @throws NamingException if the lookup fails
+     */
+    Destination getDestination(PubSubConfig conf, String type, String name) throws NamingException {
+        String key = key(conf) + "|" + type + "|" + name;
+        Destination destination = destinations.get(key);
+        if (null == destination) {
+            synchronized (this) {
+                destination = destinations.get(key);
+                if (null == destination) {
+                    destination = lookupDestination(conf, type, name);
+                    destinations.put(key, destination);
+                }
+            }
+        }
+        return destination;
+    }
+
+    /**
+     * Looks up a connection factory in a new context, bypassing the cache
+     *
+     * @param conf configuration providing the initial context factory and the connection URL
+     * @return connection factory
+     * @throws NamingException if the lookup fails
+     */
+    static ConnectionFactory lookupConnectionFactory(PubSubConfig conf) throws NamingException {
+        return (ConnectionFactory) lookup(conf, null, conf.getConnectionFactoryName());
+    }
+
+    /**
+     * Looks up a destination in a new context, bypassing the cache
+     *
+     * @param conf configuration providing the initial context factory
+     * @param type JNDI destination type, "queue" or "topic"
+     * @param name destination name
+     * @return destination
+     * @throws NamingException if the lookup fails
+     */
+    static Destination lookupDestination(PubSubConfig conf, String type, String name) throws NamingException {
+        return (Destination) lookup(conf, type + "." + name, name);
+    }
+
+    /**
+     * Key of the effective connection settings of a publisher or subscriber
+     *
+     * @param conf publisher or subscriber configuration
+     * @return key, equal for clients connecting to the same broker through the same factory
+     */
+    static String key(PubSubConfig conf) {
+        return conf.getInitialContextFactory() + "|" + conf.getConnectionFactoryPrefix() + "|" +
+                conf.getConnectionFactoryName() + "|" + conf.getTCPConnectionURL();
+    }
+
+    /**
+     * Looks up a name in a new context
+     *
+     * @param destinationEntry JNDI entry of a destination to bind in the context, null for none
+     */
+    private static Object lookup(PubSubConfig conf, String destinationEntry, String name) throws NamingException {
+        Properties properties = new Properties();
+        properties.put(Context.INITIAL_CONTEXT_FACTORY, conf.getInitialContextFactory());
+        properties.put(conf.getConnectionFactoryPrefix() + "." + conf.getConnectionFactoryName(),
+                conf.getTCPConnectionURL());
+        if (null != destinationEntry) {
+            properties.put(destinationEntry, name);
+        }
+        InitialContext ctx = new InitialContext(properties);
+        try {
+            return ctx.lookup(name);
+        } finally {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.atc.config.SubscriberConfig;
+
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Acknowledges the messages received by a client acknowledge subscriber in batches. Acknowledging a
+ * message acknowledges all the messages consumed by its session before it, hence a batch costs a single
+ * acknowledgement. A batch is acknowledged when it reaches ackBatchSize messages or when its first message
+ * is ackIntervalMillis old. {@link #receive} bounds its wait by the time left to the interval, hence a
+ * receiving subscriber acknowledges a due batch while traffic pauses. A listener is only called when a
+ * message arrives and a session must not be used by another thread meanwhile, hence the batch of a listener
+ * based subscriber is acknowledged with the next message after its interval, or at the latest by
+ * {@link #flush()} when the subscriber closes.
+ * <p>
+ * Messages of the other acknowledge modes are acknowledged by the session and messages of transacted
+ * sessions by their commit, these are ignored here.
+ */
+public final class MessageAcknowledger {
+
+    private final boolean clientAcknowledge;
+    private final int batchSize;
+    private final long intervalNanos;
+    private Message pending;
+    private int pendingCount;
+    private long batchStartNanos;
+
+    public MessageAcknowledger(SubscriberConfig config) {
+        clientAcknowledge = !config.isTransactional() &&
+                getAcknowledgeMode(config) == Session.CLIENT_ACKNOWLEDGE;
+        batchSize = Math.max(1, config.getAckBatchSize());
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getAckIntervalMillis());
+    }
+
+    /**
+     * Acknowledge mode of the session of a non transactional subscriber
+     *
+     * @param config subscriber configuration
+     * @return {@link javax.jms.Session} acknowledge mode
+     */
+    public static int getAcknowledgeMode(SubscriberConfig config) {
+        if (null == config.getAcknowledgeMode()) {
+            return config.isEnableClientAcknowledgment() ? Session.CLIENT_ACKNOWLEDGE : Session.AUTO_ACKNOWLEDGE;
+        }
+        switch (config.getAcknowledgeMode()) {
+            case "auto":
+                return Session.AUTO_ACKNOWLEDGE;
+            case "client":
+                return Session.CLIENT_ACKNOWLEDGE;
+            case "dups-ok":
+                return Session.DUPS_OK_ACKNOWLEDGE;
+            default:
+                throw new IllegalArgumentException("Unknown acknowledge mode " + config.getAcknowledgeMode() +
+                        ". Use auto, client or dups-ok");
+        }
+    }
+
+    /**
+     * Adds a received message to the batch and acknowledges the batch if it is due
+     *
+     * @param message received message
+     * @throws JMSException if acknowledging fails
+     */
+    public synchronized void onMessage(Message message) throws JMSException {
+        if (!clientAcknowledge) {
+            return;
+        }
+        if (pendingCount == 0 && intervalNanos > 0) {
+            batchStartNanos = System.nanoTime();
+        }
+        pending = message;
+        pendingCount++;
+        if (pendingCount >= batchSize ||
+                (intervalNanos > 0 && System.nanoTime() - batchStartNanos >= intervalNanos)) {
+            flush();
+        }
+    }
+
+    /**
+     * Receives the next message of a consumer and adds it to the batch. While a batch is waiting the receive
+     * is bounded by the time left to its interval, and the batch is acknowledged when no message arrived by
+     * then.
+     *
+     * @param consumer consumer of the session
+     * @param timeoutMillis receive timeout in milliseconds, 0 to wait until a message arrives
+     * @return received message or null if the timeout expired
+     * @throws JMSException if receiving or acknowledging fails
+     */
+    public Message receive(MessageConsumer consumer, long timeoutMillis) throws JMSException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            long waitMillis = 0;
+            if (timeoutMillis > 0) {
+                waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (waitMillis <= 0) {
+                    flush();
+                    return null;
+                }
+            }
+            long flushMillis = getFlushDelayMillis();
+            Message message;
+            if (flushMillis > 0 && (waitMillis == 0 || flushMillis < waitMillis)) {
+                message = consumer.receive(flushMillis);
+                if (null == message) {
+                    flush();
+                    continue;
+                }
+            } else if (waitMillis > 0) {
+                message = consumer.receive(waitMillis);
+                if (null == message) {
+                    flush();
+                    return null;
+                }
+            } else {
+                message = consumer.receive();
+            }
+            onMessage(message);
+            return message;
+        }
+    }
+
+    /**
+     * Acknowledges the messages of the batch, if any
+     *
+     * @throws JMSException if acknowledging fails
+     */
+    public synchronized void flush() throws JMSException {
+        if (null == pending) {
+            return;
+        }
+        Message message = pending;
+        pending = null;
+        pendingCount = 0;
+        message.acknowledge();
+    }
+
+    /**
+     * @return milliseconds until the waiting batch is due, at least 1. 0 if no batch is waiting for its
+     * interval
+     */
+    private synchronized long getFlushDelayMillis() {
+        if (!clientAcknowledge || intervalNanos == 0 || pendingCount == 0) {
+            return 0;
+        }
+        long delayNanos = batchStartNanos + intervalNanos - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.ATCMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.UUID;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Fixed layout binary header written at the start of every message payload sent by ATC publishers.
+ * <pre>
+ *  offset  size  field
+ *       0     4  magic ("ATC1")
+ *       4     4  clock domain of the publisher
+ *       8     4  publisher id
+ *      12     8  sequence number
+ *      20     8  send time, {@link System#nanoTime()}
+ *      28     8  send time, milliseconds since epoch
+ * </pre>
+ * Monotonic send times are only comparable between JVMs running on the same boot of the same kernel. The
+ * clock domain is derived from the kernel's boot id, so that the receiver falls back to the wall clock time
+ * for messages sent from other hosts or from before a reboot. Host names are not used since cloned hosts
+ * often share one.
+ */
+final class MessageHeader {
+
+    private static Log log = LogFactory.getLog(MessageHeader.class);
+
+    static final int MAGIC = 0x41544331;
+    static final int SIZE = 36;
+
+    private static final String BOOT_ID_FILE = "/proc/sys/kernel/random/boot_id";
+
+    /**
+     * Clock domain of this JVM. 0 if the boot id is not available, which never matches any domain.
+     */
+    static final int CLOCK_DOMAIN = resolveClockDomain();
+
+    private MessageHeader() {
+    }
+
+    /**
+     * Writes the header of the given message to the start of the payload
+     *
+     * @param jmsMessage newly created {@link javax.jms.BytesMessage}
+     * @param message message whose publisher id, sequence and send times are written
+     * @throws JMSException if the provider fails to write to the message
+     */
+    static void write(BytesMessage jmsMessage, ATCMessage message) throws JMSException {
+        jmsMessage.writeInt(MAGIC);
+        jmsMessage.writeInt(CLOCK_DOMAIN);
+        jmsMessage.writeInt(message.getPublisherId());
+        jmsMessage.writeLong(message.getSequence());
+        jmsMessage.writeLong(message.getSendNanos());
+        jmsMessage.writeLong(message.getTimeStamp());
+    }
+
+    /**
+     * Reads the header from the start of the payload into the given message
+     *
+     * @param jmsMessage received {@link javax.jms.BytesMessage}
+     * @param message message to fill
+     * @return false if the payload does not start with an ATC header. The read position of the message
+     * is undefined in that case
+     * @throws JMSException if the provider fails to read from the message
+     */
+    static boolean read(BytesMessage jmsMessage, ATCMessage message) throws JMSException {
+        if (jmsMessage.getBodyLength() < SIZE || jmsMessage.readInt() != MAGIC) {
+            return false;
+        }
+        int clockDomain = jmsMessage.readInt();
+        message.setLocalClock(clockDomain != 0 && clockDomain == CLOCK_DOMAIN);
+        message.setPublisherId(jmsMessage.readInt());
+        message.setSequence(jmsMessage.readLong());
+        message.setSendNanos(jmsMessage.readLong());
+        message.setTimeStamp(jmsMessage.readLong());
+        return true;
+    }
+
+    private static int resolveClockDomain() {
+        try {
+            UUID bootId = UUID.fromString(new String(Files.readAllBytes(Paths.get(BOOT_ID_FILE)),
+                    StandardCharsets.US_ASCII).trim());
+            long bits = bootId.getMostSignificantBits() ^ bootId.getLeastSignificantBits();
+            int domain = (int) (bits ^ (bits >>> 32));
+            return 0 == domain ? 1 : domain;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Unable to read the boot id from " + BOOT_ID_FILE + ". Latency will be measured with the " +
+                    "wall clock.", e);
+            return 0;
+        }
+    }
+}
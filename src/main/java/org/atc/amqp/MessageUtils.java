@@ -19,6 +19,9 @@ package org.atc.amqp;
 
 import org.atc.ATCMessage;
 
+import java.nio.ByteBuffer;
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
@@ -29,11 +32,22 @@ import javax.jms.TextMessage;
  */
 public final class MessageUtils {
 
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<CopyBuffer> COPY_BUFFER = new ThreadLocal<CopyBuffer>() {
+        @Override
+        protected CopyBuffer initialValue() {
+            return new CopyBuffer();
+        }
+    };
+
     private MessageUtils() {
     }
 
     /**
-     * Converts {@link javax.jms.Message} to an {@link org.atc.ATCMessage}
+     * Converts {@link javax.jms.Message} to an {@link org.atc.ATCMessage}. Messages sent by ATC publishers
+     * are {@link javax.jms.BytesMessage}s starting with a {@link org.atc.amqp.MessageHeader}, which is
+     * decoded without any string parsing. For other messages the send time is taken from JMSTimestamp.
      * @param jmsMessage {@link javax.jms.Message} to be converted
      * @return corresponding {@link org.atc.ATCMessage} is returned
      * @throws JMSException
@@ -42,10 +56,24 @@ public final class MessageUtils {
 
         ATCMessage message = new ATCMessage();
         message.setMessageID(jmsMessage.getJMSMessageID());
-        message.setTimeStamp(jmsMessage.getJMSTimestamp());
         message.setCorrelationId(jmsMessage.getJMSMessageID());
-        if(jmsMessage instanceof TextMessage) {
+        message.setRedelivered(jmsMessage.getJMSRedelivered());
+        message.setPersistent(jmsMessage.getJMSDeliveryMode() == DeliveryMode.PERSISTENT);
+        if (jmsMessage instanceof BytesMessage) {
+            BytesMessage bytesMessage = (BytesMessage) jmsMessage;
+            int headerSize = MessageHeader.SIZE;
+            if (!MessageHeader.read(bytesMessage, message)) {
+                bytesMessage.reset();
+                headerSize = 0;
+                message.setTimeStamp(jmsMessage.getJMSTimestamp());
+            }
+            byte[] payload = new byte[(int) (bytesMessage.getBodyLength() - headerSize)];
+            bytesMessage.readBytes(payload);
+            message.setContent(payload);
+            return message;
+        } else if(jmsMessage instanceof TextMessage) {
             TextMessage t = (TextMessage) jmsMessage;
+            message.setTimeStamp(jmsMessage.getJMSTimestamp());
             message.setContent(t.getText());
             return message;
         }
@@ -53,7 +81,9 @@ public final class MessageUtils {
     }
 
     /**
-     * Converts from {@link org.atc.ATCMessage} to {@link javax.jms.Message}
+     * Converts from {@link org.atc.ATCMessage} to {@link javax.jms.Message}. The message is sent as a
+     * {@link javax.jms.BytesMessage} with a {@link org.atc.amqp.MessageHeader} followed by the content,
+     * either raw bytes or UTF-8 encoded text. Messages without an intended send time are stamped with the current time.
      * @param session {@link javax.jms.Session} to create the new message. Session that is used to
      *                                         publish the {@link javax.jms.Message}
      * @param message {@link org.atc.ATCMessage} to be converted
@@ -61,10 +91,69 @@ public final class MessageUtils {
      * @throws JMSException
      */
     public static Message fromATCToJMS(Session session, ATCMessage message) throws JMSException {
-        Message jmsMessage = session.createTextMessage(message.getStringContent());
+        if (message.getTimeStamp() == 0) {
+            message.setSendNanos(System.nanoTime());
+            message.setTimeStamp(System.currentTimeMillis());
+        }
+        BytesMessage jmsMessage = session.createBytesMessage();
+        MessageHeader.write(jmsMessage, message);
+        writeContent(jmsMessage, message);
         jmsMessage.setJMSTimestamp(message.getTimeStamp());
         jmsMessage.setJMSMessageID(message.getMessageID());
         jmsMessage.setJMSCorrelationID(message.getCorrelationId());
         return jmsMessage;
     }
+
+    /**
+     * Writes the content without copying it to an intermediate array. Content held in a direct buffer,
+     * such as a memory mapped corpus, is copied through a per thread chunk since JMS only accepts arrays.
+     */
+    private static void writeContent(BytesMessage jmsMessage, ATCMessage message) throws JMSException {
+        ByteBuffer buffer = message.getContentBuffer();
+        if (null != buffer && buffer.hasArray()) {
+            jmsMessage.writeBytes(buffer.array(), buffer.arrayOffset() + message.getContentOffset(),
+                    message.getContentLength());
+        } else if (null != buffer) {
+            CopyBuffer copyBuffer = COPY_BUFFER.get();
+            ByteBuffer view = copyBuffer.viewOf(buffer);
+            byte[] chunk = copyBuffer.chunk;
+            int position = message.getContentOffset();
+            int end = position + message.getContentLength();
+            while (position < end) {
+                int length = Math.min(chunk.length, end - position);
+                view.limit(position + length);
+                view.position(position);
+                view.get(chunk, 0, length);
+                jmsMessage.writeBytes(chunk, 0, length);
+                position += length;
+            }
+        } else {
+            if (null == message.getContentArray()) {
+                message.getContent(); // encodes text content once
+            }
+            if (null != message.getContentArray()) {
+                jmsMessage.writeBytes(message.getContentArray(), message.getContentOffset(),
+                        message.getContentLength());
+            }
+        }
+    }
+
+    /**
+     * Chunk and reusable view of the last written buffer of a publisher thread
+     */
+    private static final class CopyBuffer {
+
+        private final byte[] chunk = new byte[COPY_CHUNK_SIZE];
+        private ByteBuffer source;
+        private ByteBuffer view;
+
+        private ByteBuffer viewOf(ByteBuffer buffer) {
+            if (buffer != source) {
+                source = buffer;
+                view = buffer.duplicate();
+            }
+            view.clear();
+            return view;
+        }
+    }
 }
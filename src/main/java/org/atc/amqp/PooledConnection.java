@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.naming.NamingException;
+
+/**
+ * A {@link javax.jms.Connection} shared by sessions of the {@link org.atc.amqp.ConnectionPool}. The session
+ * count and the loss listeners are guarded by the pool. A connection is pooled while it is still being
+ * created, so that clients arriving meanwhile take a session on it instead of opening further connections,
+ * and wait for it with {@link #awaitConnection()}.
+ * <p>
+ * A connection reported lost by the provider is marked lost and its loss listeners are handed over to the
+ * pool to be notified, each only once.
+ */
+final class PooledConnection {
+
+    private final String key;
+    private final int sessionCapacity;
+    private final CountDownLatch created;
+    private volatile Connection connection;
+    private volatile Exception failure;
+    private final List<ExceptionListener> lossListeners;
+    private int openSessions;
+    private boolean lost;
+
+    /**
+     * Creates a pooled connection whose JMS connection is still being created
+     */
+    PooledConnection(String key, int sessionCapacity) {
+        this.key = key;
+        this.sessionCapacity = sessionCapacity;
+        created = new CountDownLatch(1);
+        lossListeners = new ArrayList<>();
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the JMS connection, null while it is being created or if creating it failed
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    void complete(Connection connection) {
+        this.connection = connection;
+        created.countDown();
+    }
+
+    void fail(Exception failure) {
+        this.failure = failure;
+        created.countDown();
+    }
+
+    /**
+     * Waits until the JMS connection is created
+     *
+     * @return JMS connection
+     * @throws NamingException if the connection factory lookup failed
+     * @throws JMSException if the connection could not be created
+     */
+    Connection awaitConnection() throws NamingException, JMSException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                created.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof NamingException) {
+            NamingException e = new NamingException("Pooled connection could not be created");
+            e.setRootCause(failure);
+            throw e;
+        } else if (null != failure) {
+            JMSException e = new JMSException("Pooled connection could not be created");
+            e.setLinkedException(failure);
+            e.initCause(failure);
+            throw e;
+        }
+        return connection;
+    }
+
+    boolean hasCapacity() {
+        return openSessions < sessionCapacity;
+    }
+
+    void sessionOpened() {
+        openSessions++;
+    }
+
+    /**
+     * @return true if this was the last open session of the connection
+     */
+    boolean sessionClosed() {
+        openSessions--;
+        return openSessions == 0;
+    }
+
+    boolean isLost() {
+        return lost;
+    }
+
+    void addLossListener(ExceptionListener listener) {
+        lossListeners.add(listener);
+    }
+
+    void removeLossListener(ExceptionListener listener) {
+        lossListeners.remove(listener);
+    }
+
+    /**
+     * Marks the connection lost
+     *
+     * @return the loss listeners to notify
+     */
+    List<ExceptionListener> markLost() {
+        lost = true;
+        List<ExceptionListener> listeners = new ArrayList<>(lossListeners);
+        lossListeners.clear();
+        return listeners;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import javax.jms.Session;
+
+/**
+ * A {@link javax.jms.Session} handed out by the {@link org.atc.amqp.ConnectionPool}. Subscriber sessions
+ * can be shared by several consumers, hence the session is closed by the pool once all users released it.
+ */
+public final class PooledSession {
+
+    private final String key;
+    private final PooledConnection owner;
+    private final Session session;
+    private final int capacity;
+    private int users;
+
+    PooledSession(String key, PooledConnection owner, Session session, int capacity) {
+        this.key = key;
+        this.owner = owner;
+        this.session = session;
+        this.capacity = capacity;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    PooledConnection getOwner() {
+        return owner;
+    }
+
+    boolean hasCapacity() {
+        return users < capacity;
+    }
+
+    void acquire() {
+        users++;
+    }
+
+    /**
+     * @return true if this was the last user of the session
+     */
+    boolean release() {
+        users--;
+        return users == 0;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.amqp;
+
+import org.atc.config.PublisherConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+/**
+ * Delivery mode, priority, time to live and message id and timestamp hints of a publisher. Settings that
+ * are the same for every message are set on the producer, a priority distribution picks the priority of
+ * each message.
+ */
+public final class ProducerSettings {
+
+    public static final String PERSISTENT = "persistent";
+    public static final String NON_PERSISTENT = "non-persistent";
+
+    private final int deliveryMode;
+    private final long timeToLiveMillis;
+    private final boolean disableMessageId;
+    private final boolean disableMessageTimestamp;
+    private final int[] priorities;
+    private final long[] cumulativeWeights;
+
+    public ProducerSettings(PublisherConfig config) {
+        deliveryMode = isPersistent(config) ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT;
+        if (config.getTimeToLiveMillis() < 0) {
+            throw new IllegalArgumentException("timeToLiveMillis should not be negative. Publisher id " +
+                    config.getId());
+        }
+        timeToLiveMillis = config.getTimeToLiveMillis();
+        disableMessageId = config.isDisableMessageId();
+        disableMessageTimestamp = config.isDisableMessageTimestamp();
+
+        List<Integer> configuredPriorities = config.getPriorities();
+        if (null == configuredPriorities || configuredPriorities.isEmpty()) {
+            priorities = null;
+            cumulativeWeights = null;
+            return;
+        }
+        List<Integer> weights = config.getPriorityWeights();
+        if (null != weights && !weights.isEmpty() && weights.size() != configuredPriorities.size()) {
+            throw new IllegalArgumentException("priorityWeights should have a weight for each priority. " +
+                    "Publisher id " + config.getId());
+        }
+        priorities = new int[configuredPriorities.size()];
+        cumulativeWeights = new long[configuredPriorities.size()];
+        long total = 0;
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = configuredPriorities.get(i);
+            int weight = null == weights || weights.isEmpty() ? 1 : weights.get(i);
+            if (priorities[i] < 0 || priorities[i] > 9 || weight < 0) {
+                throw new IllegalArgumentException("Priorities should be from 0 to 9 and their weights should " +
+                        "not be negative. Publisher id " + config.getId());
+            }
+            total += weight;
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Priorities should have a positive weight. Publisher id " +
+                    config.getId());
+        }
+    }
+
+    /**
+     * Delivery mode of a publisher
+     *
+     * @param config publisher configuration
+     * @return true if the publisher sends persistent messages
+     */
+    public static boolean isPersistent(PublisherConfig config) {
+        if (null == config.getDeliveryMode()) {
+            return true;
+        }
+        switch (config.getDeliveryMode()) {
+            case PERSISTENT:
+                return true;
+            case NON_PERSISTENT:
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown delivery mode " + config.getDeliveryMode() +
+                        ". Use persistent or non-persistent");
+        }
+    }
+
+    /**
+     * Applies the settings shared by all messages to a producer
+     *
+     * @param producer producer of the publisher
+     * @throws JMSException if the producer rejects a setting
+     */
+    public void apply(MessageProducer producer) throws JMSException {
+        producer.setDeliveryMode(deliveryMode);
+        producer.setTimeToLive(timeToLiveMillis);
+        producer.setDisableMessageID(disableMessageId);
+        producer.setDisableMessageTimestamp(disableMessageTimestamp);
+    }
+
+    /**
+     * Sends a message, with a priority of the distribution if there is one
+     *
+     * @param producer producer the settings were applied to
+     * @param message message to send
+     * @throws JMSException if sending fails
+     */
+    public void send(MessageProducer producer, Message message) throws JMSException {
+        if (null == priorities) {
+            producer.send(message);
+        } else {
+            producer.send(message, deliveryMode, nextPriority(), timeToLiveMillis);
+        }
+    }
+
+    private int nextPriority() {
+        long totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+        long point = (long) (ThreadLocalRandom.current().nextDouble() * totalWeight);
+        int index = Arrays.binarySearch(cumulativeWeights, point);
+        index = index < 0 ? -index - 1 : index;
+        // first priority whose cumulative weight is above the point, skipping priorities without weight
+        while (cumulativeWeights[index] <= point) {
+            index++;
+        }
+        return priorities[index];
+    }
+}
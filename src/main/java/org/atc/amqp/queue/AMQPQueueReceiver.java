@@ -18,35 +18,41 @@ package org.atc.amqp.queue;
 
 import org.atc.ATCException;
 import org.atc.ATCMessage;
+import org.atc.ATCMessageListener;
 import org.atc.SimpleConsumer;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.JMSMessageListenerAdapter;
+import org.atc.amqp.MessageAcknowledger;
 import org.atc.amqp.MessageUtils;
+import org.atc.amqp.PooledSession;
 import org.atc.config.SubscriberConfig;
 
-import java.util.Properties;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.Queue;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
-import javax.jms.QueueSession;
-import javax.naming.Context;
-import javax.naming.InitialContext;
+import javax.jms.Session;
 import javax.naming.NamingException;
 
 public class AMQPQueueReceiver implements SimpleConsumer {
 
 
-    private QueueConnection queueConnection;
-    private QueueSession queueSession;
+    private PooledSession pooledSession;
     private MessageConsumer consumer;
     private SubscriberConfig config;
+    private MessageAcknowledger acknowledger;
+    private ATCMessageListener listener;
+    private JMSMessageListenerAdapter listenerAdapter;
 
     public final ATCMessage receive() throws ATCException {
+        return receive(config.getReceiveTimeoutMillis());
+    }
+
+    public final ATCMessage receive(long timeoutMillis) throws ATCException {
         try {
-            Message message = consumer.receive();
-            if (config.isEnableClientAcknowledgment()) {
-                message.acknowledge();
+            Message message = acknowledger.receive(consumer, timeoutMillis);
+            if (null == message) {
+                return null;
             }
             return MessageUtils.fromJMSToATC(message);
         } catch (JMSException e) {
@@ -56,12 +62,66 @@ public class AMQPQueueReceiver implements SimpleConsumer {
 
     }
 
+    public final void commit() throws ATCException {
+        try {
+            pooledSession.getSession().commit();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while committing received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void rollback() throws ATCException {
+        try {
+            pooledSession.getSession().rollback();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while rolling back received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void setMessageListener(ATCMessageListener listener) throws ATCException {
+        try {
+            this.listener = listener;
+            listenerAdapter = new JMSMessageListenerAdapter(config, acknowledger, listener);
+            consumer.setMessageListener(listenerAdapter);
+            ConnectionPool.getInstance().addConnectionLossListener(pooledSession, listenerAdapter);
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while setting message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void stopListening() throws ATCException {
+        try {
+            // closing the JMS consumer waits for the listener, the session stays open for the final commit
+            consumer.close();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while stopping message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void reconnect() throws NamingException, ATCException {
+        if (null != listenerAdapter) {
+            ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+        }
+        ConnectionPool.getInstance().invalidate(pooledSession);
+        subscribe(config);
+        if (null != listener) {
+            setMessageListener(listener);
+        }
+    }
+
     public final void close() throws ATCException {
         try {
+            if (null != listenerAdapter) {
+                ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+            }
             consumer.close();
-            queueSession.close();
-            queueConnection.stop();
-            queueConnection.close();
+            // messages of a batch still waiting for their acknowledgement
+            acknowledger.flush();
+            ConnectionPool.getInstance().release(pooledSession);
         } catch (JMSException e) {
             throw new ATCException("Exception occurred while closing publisher " + config.getId(), e);
         }
@@ -75,25 +135,18 @@ public class AMQPQueueReceiver implements SimpleConsumer {
         config = conf;
         try {
             String queueName = conf.getQueueName();
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, conf.getInitialContextFactory());
-            properties.put(conf.getConnectionFactoryPrefix() + "." + conf.getConnectionFactoryName(), conf.getTCPConnectionURL());
-            properties.put("queue." + queueName, queueName);
-            InitialContext ctx = new InitialContext(properties);
-            // Lookup connection factory
-            QueueConnectionFactory connFactory = (QueueConnectionFactory) ctx.lookup(conf.getConnectionFactoryName());
-            queueConnection = connFactory.createQueueConnection();
-            queueConnection.start();
-            if (config.isEnableClientAcknowledgment()) {
-                queueSession = queueConnection.createQueueSession(false, QueueSession.CLIENT_ACKNOWLEDGE);
-            } else if (config.isTransactional()) {
-                queueSession = queueConnection.createQueueSession(true, QueueSession.AUTO_ACKNOWLEDGE);
+            ConnectionPool pool = ConnectionPool.getInstance();
+            acknowledger = new MessageAcknowledger(config);
+            if (config.isTransactional()) {
+                pooledSession = pool.acquireSession(config, true, Session.AUTO_ACKNOWLEDGE,
+                        config.getConsumersPerSession());
             } else {
-                queueSession = queueConnection.createQueueSession(false, QueueSession.AUTO_ACKNOWLEDGE);
+                pooledSession = pool.acquireSession(config, false, MessageAcknowledger.getAcknowledgeMode(config),
+                        config.getConsumersPerSession());
             }
             //Receive message
-            Queue queue = (Queue) ctx.lookup(queueName);
-            consumer = queueSession.createConsumer(queue);
+            Queue queue = (Queue) pool.lookupDestination(conf, "queue", queueName);
+            consumer = pooledSession.getSession().createConsumer(queue);
             return consumer;
         } catch (JMSException e) {
             throw new ATCException("Subscriber initialisation failed. Subscriber id " + config.getId(), e);
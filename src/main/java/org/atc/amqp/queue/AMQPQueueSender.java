@@ -19,54 +19,52 @@ package org.atc.amqp.queue;
 import org.atc.ATCException;
 import org.atc.ATCMessage;
 import org.atc.SimplePublisher;
+import org.atc.amqp.ConnectionPool;
 import org.atc.amqp.MessageUtils;
+import org.atc.amqp.PooledSession;
+import org.atc.amqp.ProducerSettings;
 import org.atc.config.PublisherConfig;
 
-import java.util.Properties;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageProducer;
 import javax.jms.Queue;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
-import javax.jms.QueueSender;
-import javax.jms.QueueSession;
-import javax.naming.Context;
-import javax.naming.InitialContext;
+import javax.jms.Session;
 import javax.naming.NamingException;
 
 public class AMQPQueueSender implements SimplePublisher {
 
-    private QueueConnection queueConnection;
-    private QueueSession queueSession;
-    private QueueSender queueSender;
+    private PooledSession pooledSession;
+    private Session queueSession;
+    private MessageProducer queueSender;
     private PublisherConfig config;
+    private ProducerSettings settings;
 
     public final void init(PublisherConfig conf) throws NamingException, ATCException {
         try {
             String queueName = conf.getQueueName();
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, conf.getInitialContextFactory());
-            properties.put(conf.getConnectionFactoryPrefix() + "." + conf.getConnectionFactoryName(), conf.getTCPConnectionURL());
-            properties.put("queue." + queueName, queueName);
-            InitialContext ctx = new InitialContext(properties);
-            // Lookup connection factory
-            QueueConnectionFactory connFactory = (QueueConnectionFactory) ctx.lookup(conf.getConnectionFactoryName());
-            queueConnection = connFactory.createQueueConnection();
-            queueConnection.start();
             if (conf.isTransactional()) {
-                queueSession = queueConnection.createQueueSession(true, 0);
+                pooledSession = ConnectionPool.getInstance().acquireSession(conf, true, 0, 1);
             } else {
-                queueSession = queueConnection.createQueueSession(false, QueueSession.AUTO_ACKNOWLEDGE);
+                pooledSession = ConnectionPool.getInstance().acquireSession(conf, false, Session.AUTO_ACKNOWLEDGE, 1);
             }
+            queueSession = pooledSession.getSession();
 //        Queue queue = (Queue)ctx.lookup(queueName);
             Queue queue = queueSession.createQueue(queueName);
-            queueSender = queueSession.createSender(queue);
+            queueSender = queueSession.createProducer(queue);
+            settings = new ProducerSettings(conf);
+            settings.apply(queueSender);
             config = conf;
         } catch (JMSException e) {
             throw new ATCException("Publisher initialisation failed. Publisher id " + conf.getId(), e);
         }
     }
 
+    public final void reconnect() throws NamingException, ATCException {
+        ConnectionPool.getInstance().invalidate(pooledSession);
+        init(config);
+    }
+
     public final ATCMessage createTextMessage(String text) throws ATCException {
         return new ATCMessage(text);
     }
@@ -74,7 +72,7 @@ public class AMQPQueueSender implements SimplePublisher {
     public final void send(ATCMessage atcMessage) throws ATCException {
         try {
             Message m = MessageUtils.fromATCToJMS(queueSession, atcMessage);
-            queueSender.send(m);
+            settings.send(queueSender, m);
         } catch (JMSException e) {
             throw new ATCException("Error occurred while sending message. Publisher id" + config.getId(), e);
         }
@@ -103,8 +101,7 @@ public class AMQPQueueSender implements SimplePublisher {
     public final void close() throws ATCException {
         try {
             queueSender.close();
-            queueSession.close();
-            queueConnection.close();
+            ConnectionPool.getInstance().release(pooledSession);
         } catch (JMSException e) {
             throw new ATCException("Exception occurred while closing publisher " + config.getId(), e);
 
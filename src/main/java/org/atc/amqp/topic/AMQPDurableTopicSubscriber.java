@@ -18,40 +18,47 @@ package org.atc.amqp.topic;
 
 import org.atc.ATCException;
 import org.atc.ATCMessage;
+import org.atc.ATCMessageListener;
 import org.atc.SimpleConsumer;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.JMSMessageListenerAdapter;
+import org.atc.amqp.MessageAcknowledger;
 import org.atc.amqp.MessageUtils;
+import org.atc.amqp.PooledSession;
 import org.atc.config.SubscriberConfig;
 
-import java.util.Properties;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.Session;
 import javax.jms.Topic;
-import javax.jms.TopicConnection;
-import javax.jms.TopicConnectionFactory;
-import javax.jms.TopicSession;
 import javax.jms.TopicSubscriber;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 public class AMQPDurableTopicSubscriber implements SimpleConsumer {
 
     private String subscriptionId;
-    private TopicConnection topicConnection;
-    private TopicSession topicSession;
+    private PooledSession pooledSession;
+    private Session topicSession;
     private TopicSubscriber topicSubscriber;
     private SubscriberConfig config;
+    private MessageAcknowledger acknowledger;
+    private ATCMessageListener listener;
+    private JMSMessageListenerAdapter listenerAdapter;
 
     public final SubscriberConfig getConfigs() {
         return config;
     }
 
     public final ATCMessage receive() throws ATCException {
+        return receive(config.getReceiveTimeoutMillis());
+    }
+
+    public final ATCMessage receive(long timeoutMillis) throws ATCException {
         try {
-            Message m = topicSubscriber.receive();
-            if (config.isEnableClientAcknowledgment()) {
-                m.acknowledge();
+            Message m = acknowledger.receive(topicSubscriber, timeoutMillis);
+            if (null == m) {
+                return null;
             }
             return MessageUtils.fromJMSToATC(m);
         } catch (JMSException e) {
@@ -60,11 +67,66 @@ public class AMQPDurableTopicSubscriber implements SimpleConsumer {
         }
     }
 
+    public final void commit() throws ATCException {
+        try {
+            pooledSession.getSession().commit();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while committing received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void rollback() throws ATCException {
+        try {
+            pooledSession.getSession().rollback();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while rolling back received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void setMessageListener(ATCMessageListener listener) throws ATCException {
+        try {
+            this.listener = listener;
+            listenerAdapter = new JMSMessageListenerAdapter(config, acknowledger, listener);
+            topicSubscriber.setMessageListener(listenerAdapter);
+            ConnectionPool.getInstance().addConnectionLossListener(pooledSession, listenerAdapter);
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while setting message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void stopListening() throws ATCException {
+        try {
+            // closing the JMS consumer waits for the listener, the session stays open for the final commit
+            topicSubscriber.close();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while stopping message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void reconnect() throws NamingException, ATCException {
+        if (null != listenerAdapter) {
+            ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+        }
+        ConnectionPool.getInstance().invalidate(pooledSession);
+        subscribe(config);
+        if (null != listener) {
+            setMessageListener(listener);
+        }
+    }
+
     public final void close() throws ATCException {
         try {
+            if (null != listenerAdapter) {
+                ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+            }
             topicSubscriber.close();
-            topicSession.close();
-            topicConnection.close();
+            // messages of a batch still waiting for their acknowledgement
+            acknowledger.flush();
+            ConnectionPool.getInstance().release(pooledSession);
         } catch (JMSException e) {
             throw new ATCException("Exception occurred while closing subscriber " + config.getId(), e);
         }
@@ -84,25 +146,19 @@ public class AMQPDurableTopicSubscriber implements SimpleConsumer {
         try {
             String topicName = conf.getQueueName();
             subscriptionId = conf.getSubscriptionID();
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, conf.getInitialContextFactory());
-            properties.put(conf.getConnectionFactoryPrefix() + "." + conf.getConnectionFactoryName(), conf.getTCPConnectionURL());
-            properties.put("topic." + topicName, topicName);
-            InitialContext ctx = new InitialContext(properties);
-            // Lookup connection factory
-            TopicConnectionFactory connFactory = (TopicConnectionFactory) ctx.lookup(conf.getConnectionFactoryName());
-            topicConnection = connFactory.createTopicConnection();
-            topicConnection.start();
-            if (conf.isEnableClientAcknowledgment()) {
-                topicSession = topicConnection.createTopicSession(false, TopicSession.CLIENT_ACKNOWLEDGE);
-            } else if (conf.isTransactional()) {
-                topicSession = topicConnection.createTopicSession(true, TopicSession.AUTO_ACKNOWLEDGE);
+            ConnectionPool pool = ConnectionPool.getInstance();
+            acknowledger = new MessageAcknowledger(conf);
+            if (conf.isTransactional()) {
+                pooledSession = pool.acquireSession(conf, true, Session.AUTO_ACKNOWLEDGE,
+                        conf.getConsumersPerSession());
             } else {
-                topicSession = topicConnection.createTopicSession(false, TopicSession.AUTO_ACKNOWLEDGE);
+                pooledSession = pool.acquireSession(conf, false, MessageAcknowledger.getAcknowledgeMode(conf),
+                        conf.getConsumersPerSession());
             }
+            topicSession = pooledSession.getSession();
 
             // create durable subscriber with subscription ID
-            Topic topic = (Topic) ctx.lookup(topicName);
+            Topic topic = (Topic) pool.lookupDestination(conf, "topic", topicName);
             topicSubscriber = topicSession.createDurableSubscriber(topic, subscriptionId);
             return topicSubscriber;
         } catch (JMSException e) {
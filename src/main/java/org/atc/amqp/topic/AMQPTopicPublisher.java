@@ -19,32 +19,31 @@ package org.atc.amqp.topic;
 import org.atc.ATCException;
 import org.atc.ATCMessage;
 import org.atc.SimplePublisher;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.PooledSession;
+import org.atc.amqp.ProducerSettings;
 import org.atc.config.PublisherConfig;
 import org.atc.amqp.MessageUtils;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
 import javax.jms.Topic;
-import javax.jms.TopicConnection;
-import javax.jms.TopicConnectionFactory;
-import javax.jms.TopicPublisher;
-import javax.jms.TopicSession;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import java.util.Properties;
 
 public class AMQPTopicPublisher implements SimplePublisher {
 
-    private TopicPublisher topicPublisher;
-    private TopicSession topicSession;
-    private TopicConnection topicConnection;
+    private MessageProducer topicPublisher;
+    private Session topicSession;
+    private PooledSession pooledSession;
     private PublisherConfig config;
+    private ProducerSettings settings;
 
     public final void send(ATCMessage atcMessage) throws ATCException {
         try {
             Message m = MessageUtils.fromATCToJMS(topicSession, atcMessage);
-            topicPublisher.send(m);
+            settings.send(topicPublisher, m);
         } catch (JMSException e) {
             throw new ATCException("Error occurred while sending message. Publisher id" + config.getId(), e);
         }
@@ -71,32 +70,29 @@ public class AMQPTopicPublisher implements SimplePublisher {
         try {
             this.config = conf;
             String topicName = conf.getQueueName();
-            String tcpConnectionURL = conf.getTCPConnectionURL();
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, conf.getInitialContextFactory());
-            properties.put(conf.getConnectionFactoryPrefix() + "." + conf.getConnectionFactoryName(),
-                    tcpConnectionURL);
-            properties.put("topic." + topicName, topicName);
-            System.out.println("getTCPConnectionURL(userName,password) = " + tcpConnectionURL);
-            InitialContext ctx = new InitialContext(properties);
-            // Lookup connection factory
-            TopicConnectionFactory connFactory = (TopicConnectionFactory) ctx.lookup(conf.getConnectionFactoryName());
-            topicConnection = connFactory.createTopicConnection();
-            topicConnection.start();
+            ConnectionPool pool = ConnectionPool.getInstance();
             if (conf.isTransactional()) {
-                topicSession = topicConnection.createTopicSession(true, 0);
+                pooledSession = pool.acquireSession(conf, true, 0, 1);
             } else {
-                topicSession = topicConnection.createTopicSession(false, TopicSession.AUTO_ACKNOWLEDGE);
+                pooledSession = pool.acquireSession(conf, false, Session.AUTO_ACKNOWLEDGE, 1);
             }
-            Topic topic = (Topic) ctx.lookup(conf.getQueueName());
+            topicSession = pooledSession.getSession();
+            Topic topic = (Topic) pool.lookupDestination(conf, "topic", topicName);
 //            Topic topic = topicSession.createTopic(config.getQueueName());
             // create the message to send
-            topicPublisher = topicSession.createPublisher(topic);
+            topicPublisher = topicSession.createProducer(topic);
+            settings = new ProducerSettings(conf);
+            settings.apply(topicPublisher);
         } catch (JMSException jmse) {
             throw new ATCException("Publisher initialisation failed. Publisher id " + conf.getId(), jmse);
         }
     }
 
+    public final void reconnect() throws NamingException, ATCException {
+        ConnectionPool.getInstance().invalidate(pooledSession);
+        init(config);
+    }
+
     public final ATCMessage createTextMessage(String text) throws ATCException {
         return new ATCMessage(text);
     }
@@ -108,9 +104,7 @@ public class AMQPTopicPublisher implements SimplePublisher {
     public final void close() throws ATCException {
         try {
             topicPublisher.close();
-            topicSession.close();
-            topicConnection.stop();
-            topicConnection.close();
+            ConnectionPool.getInstance().release(pooledSession);
         } catch (JMSException jmse) {
             throw new ATCException("Exception occurred while closing publisher " + config.getId(), jmse);
         }
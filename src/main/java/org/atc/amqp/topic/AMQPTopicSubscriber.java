@@ -18,53 +18,47 @@ package org.atc.amqp.topic;
 
 import org.atc.ATCException;
 import org.atc.ATCMessage;
+import org.atc.ATCMessageListener;
 import org.atc.SimpleConsumer;
+import org.atc.amqp.ConnectionPool;
+import org.atc.amqp.JMSMessageListenerAdapter;
+import org.atc.amqp.MessageAcknowledger;
 import org.atc.amqp.MessageUtils;
+import org.atc.amqp.PooledSession;
 import org.atc.config.SubscriberConfig;
 
-import java.util.Properties;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.Session;
 import javax.jms.Topic;
-import javax.jms.TopicConnection;
-import javax.jms.TopicConnectionFactory;
-import javax.jms.TopicSession;
-import javax.jms.TopicSubscriber;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 public class AMQPTopicSubscriber implements SimpleConsumer {
 
-    private TopicConnection topicConnection;
-    private TopicSession topicSession;
-    private TopicSubscriber topicSubscriber;
+    private PooledSession pooledSession;
+    private MessageConsumer topicSubscriber;
     private SubscriberConfig config;
+    private MessageAcknowledger acknowledger;
+    private ATCMessageListener listener;
+    private JMSMessageListenerAdapter listenerAdapter;
 
     public final MessageConsumer subscribe(SubscriberConfig config) throws NamingException, ATCException {
 
         this.config = config;
         try {
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, config.getInitialContextFactory());
-            properties.put(config.getConnectionFactoryPrefix() + "." + config.getConnectionFactoryName(), config.getTCPConnectionURL());
-            InitialContext ctx = new InitialContext(properties);
-
-            // Lookup connection factory
-            TopicConnectionFactory connFactory = (TopicConnectionFactory) ctx.lookup(config.getConnectionFactoryName());
-            topicConnection = connFactory.createTopicConnection();
-            topicConnection.start();
-            if (config.isEnableClientAcknowledgment()) {
-                topicSession = topicConnection.createTopicSession(false, TopicSession.CLIENT_ACKNOWLEDGE);
-            } else if (config.isTransactional()) {
-                topicSession = topicConnection.createTopicSession(true, TopicSession.AUTO_ACKNOWLEDGE);
+            ConnectionPool pool = ConnectionPool.getInstance();
+            acknowledger = new MessageAcknowledger(config);
+            if (config.isTransactional()) {
+                pooledSession = pool.acquireSession(config, true, Session.AUTO_ACKNOWLEDGE,
+                        config.getConsumersPerSession());
             } else {
-                topicSession = topicConnection.createTopicSession(false, TopicSession.AUTO_ACKNOWLEDGE);
+                pooledSession = pool.acquireSession(config, false, MessageAcknowledger.getAcknowledgeMode(config),
+                        config.getConsumersPerSession());
             }
             // Send message
-            Topic topic = topicSession.createTopic(config.getQueueName());
-            this.topicSubscriber = topicSession.createSubscriber(topic);
+            Topic topic = pooledSession.getSession().createTopic(config.getQueueName());
+            this.topicSubscriber = pooledSession.getSession().createConsumer(topic);
 
             return topicSubscriber;
         } catch (JMSException jmse) {
@@ -77,10 +71,14 @@ public class AMQPTopicSubscriber implements SimpleConsumer {
     }
 
     public final ATCMessage receive() throws ATCException {
+        return receive(config.getReceiveTimeoutMillis());
+    }
+
+    public final ATCMessage receive(long timeoutMillis) throws ATCException {
         try {
-            Message message = topicSubscriber.receive();
-            if (config.isEnableClientAcknowledgment()) {
-                message.acknowledge();
+            Message message = acknowledger.receive(topicSubscriber, timeoutMillis);
+            if (null == message) {
+                return null;
             }
             return MessageUtils.fromJMSToATC(message);
         } catch (JMSException e) {
@@ -89,11 +87,66 @@ public class AMQPTopicSubscriber implements SimpleConsumer {
         }
     }
 
+    public final void commit() throws ATCException {
+        try {
+            pooledSession.getSession().commit();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while committing received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void rollback() throws ATCException {
+        try {
+            pooledSession.getSession().rollback();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while rolling back received messages. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void setMessageListener(ATCMessageListener listener) throws ATCException {
+        try {
+            this.listener = listener;
+            listenerAdapter = new JMSMessageListenerAdapter(config, acknowledger, listener);
+            topicSubscriber.setMessageListener(listenerAdapter);
+            ConnectionPool.getInstance().addConnectionLossListener(pooledSession, listenerAdapter);
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while setting message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void stopListening() throws ATCException {
+        try {
+            // closing the JMS consumer waits for the listener, the session stays open for the final commit
+            topicSubscriber.close();
+        } catch (JMSException e) {
+            throw new ATCException("Error occurred while stopping message listener. Subscriber id: " +
+                    config.getId(), e);
+        }
+    }
+
+    public final void reconnect() throws NamingException, ATCException {
+        if (null != listenerAdapter) {
+            ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+        }
+        ConnectionPool.getInstance().invalidate(pooledSession);
+        subscribe(config);
+        if (null != listener) {
+            setMessageListener(listener);
+        }
+    }
+
     public final void close() throws ATCException {
         try {
+            if (null != listenerAdapter) {
+                ConnectionPool.getInstance().removeConnectionLossListener(pooledSession, listenerAdapter);
+            }
             topicSubscriber.close();
-            topicSession.close();
-            topicConnection.stop();
+            // messages of a batch still waiting for their acknowledgement
+            acknowledger.flush();
+            ConnectionPool.getInstance().release(pooledSession);
         } catch (JMSException e) {
             throw new ATCException("Exception occurred while closing subscriber " + config.getId(), e);
         }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.cluster;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.ATCException;
+import org.atc.config.ConfigReader;
+import org.atc.config.TestConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a slice of a test on behalf of a {@link org.atc.cluster.Controller}. The agent waits for the
+ * controller to connect and assign its slice, reports when its subscribers are in place, starts
+ * publishing at the instant given by the controller and streams its results back.
+ */
+public final class Agent {
+
+    private static Log log = LogFactory.getLog(Agent.class);
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final TestConfiguration configuration;
+    private final TestConfiguration fullConfiguration;
+    private boolean finished;
+
+    private Agent(Socket socket, TestConfiguration configuration, TestConfiguration fullConfiguration,
+                  DataInputStream input, DataOutputStream output) {
+        this.socket = socket;
+        this.configuration = configuration;
+        this.fullConfiguration = fullConfiguration;
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Waits for a controller to connect and assign a slice of its test
+     *
+     * @param port port to listen on
+     * @return agent connected to the controller
+     * @throws ATCException if the assignment cannot be received or parsed
+     */
+    public static Agent accept(int port) throws ATCException {
+        log.info("Agent waiting for a controller on port " + port);
+        Socket socket = null;
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            ClusterProtocol.readType(input, ClusterProtocol.ASSIGN);
+            int index = input.readInt();
+            int count = input.readInt();
+            String configText = ClusterProtocol.readString(input);
+            int idCount = input.readInt();
+            List<String> ids = new ArrayList<>(idCount);
+            for (int i = 0; i < idCount; i++) {
+                ids.add(input.readUTF());
+            }
+
+            TestConfiguration fullConfiguration = parse(configText, ids);
+            TestConfiguration configuration = parse(configText, ids);
+            ConfigReader.slice(configuration, index, count);
+            log.info("Agent assigned slice " + (index + 1) + " of " + count + " by controller " +
+                    socket.getRemoteSocketAddress());
+            return new Agent(socket, configuration, fullConfiguration, input, output);
+        } catch (IOException | NoSuchFieldException | IllegalAccessException e) {
+            closeQuietly(socket);
+            throw new ATCException("Error while receiving the test assignment from the controller", e);
+        }
+    }
+
+    /**
+     * @return slice of the test run by this agent
+     */
+    public TestConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return whole test, run by all the agents together
+     */
+    public TestConfiguration getFullConfiguration() {
+        return fullConfiguration;
+    }
+
+    /**
+     * Tells the controller the subscribers are in place and blocks until the start instant of the test
+     *
+     * @throws ATCException if the controller connection fails
+     * @throws InterruptedException if interrupted while waiting for the start instant
+     */
+    public void awaitStart() throws ATCException, InterruptedException {
+        long startMillis;
+        try {
+            synchronized (this) {
+                output.writeInt(ClusterProtocol.READY);
+                output.flush();
+            }
+            ClusterProtocol.readType(input, ClusterProtocol.START);
+            startMillis = input.readLong();
+        } catch (IOException e) {
+            throw new ATCException("Error while waiting for the controller to start the test", e);
+        }
+        long waitMillis = startMillis - System.currentTimeMillis();
+        log.info("Test starts in " + waitMillis + " milliseconds");
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * Sends the results of an interval to the controller. Failures are logged, the test goes on.
+     *
+     * @param interval latency histogram of the interval
+     * @param published messages published since the start
+     * @param received messages received since the start
+     */
+    public synchronized void sendInterval(Histogram interval, long published, long received) {
+        if (finished) {
+            return;
+        }
+        try {
+            output.writeInt(ClusterProtocol.INTERVAL);
+            output.writeLong(published);
+            output.writeLong(received);
+            ClusterProtocol.writeHistogram(output, interval);
+            output.flush();
+        } catch (IOException e) {
+            log.error("Error while sending interval results to the controller", e);
+        }
+    }
+
+    /**
+     * Sends the results of the whole run and disconnects from the controller
+     *
+     * @param total latency histogram of the run
+     * @param published messages published
+     * @param received messages received
+     * @throws ATCException if the results cannot be sent
+     */
+    public synchronized void finish(Histogram total, long published, long received) throws ATCException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            output.writeInt(ClusterProtocol.DONE);
+            output.writeLong(published);
+            output.writeLong(received);
+            ClusterProtocol.writeHistogram(output, total);
+            output.flush();
+        } catch (IOException e) {
+            throw new ATCException("Error while sending the results to the controller", e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static TestConfiguration parse(String configText, List<String> ids)
+            throws NoSuchFieldException, IllegalAccessException {
+        TestConfiguration configuration =
+                ConfigReader.parseConfig(new ByteArrayInputStream(configText.getBytes(StandardCharsets.UTF_8)));
+        ConfigReader.setIds(configuration, ids);
+        return configuration;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (null == socket) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.warn("Error while closing the controller connection", e);
+        }
+    }
+}
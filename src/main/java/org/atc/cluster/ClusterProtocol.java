@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.cluster;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+
+/**
+ * Messages exchanged between the {@link org.atc.cluster.Controller} and its {@link org.atc.cluster.Agent}s
+ * over a plain TCP connection. Every message starts with its type.
+ * <pre>
+ * controller to agent  ASSIGN   slice index, slice count, configuration file, client ids
+ *                      START    start time (epoch milliseconds)
+ * agent to controller  READY    subscribers are in place
+ *                      INTERVAL messages published, messages received, interval latency histogram
+ *                      DONE     messages published, messages received, latency histogram of the run
+ * </pre>
+ * Message counts are totals since the start of the agent. Histograms are HdrHistogram compressed
+ * encodings with values in microseconds.
+ */
+final class ClusterProtocol {
+
+    static final int ASSIGN = 1;
+    static final int START = 2;
+    static final int READY = 3;
+    static final int INTERVAL = 4;
+    static final int DONE = 5;
+
+    private ClusterProtocol() {
+    }
+
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeHistogram(DataOutputStream output, Histogram histogram) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        output.writeInt(length);
+        output.write(buffer.array(), 0, length);
+    }
+
+    static Histogram readHistogram(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), 0);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid latency histogram received", e);
+        }
+    }
+
+    static int readType(DataInputStream input, int... expected) throws IOException {
+        int type = input.readInt();
+        for (int expectedType : expected) {
+            if (type == expectedType) {
+                return type;
+            }
+        }
+        throw new IOException("Unexpected cluster message type " + type);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.cluster;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.atc.ATCException;
+import org.atc.config.ConfigReader;
+import org.atc.config.TestConfiguration;
+import org.atc.metrics.LatencyReporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a test between several {@link org.atc.cluster.Agent}s and merges their results. Each agent
+ * runs a slice of the publishers and subscribers of the configuration. Publishing starts at the same
+ * instant on all the agents once every agent has its subscribers in place.
+ * <p>
+ * Interval results of the agents are merged into logs/metrics/merged.csv and
+ * logs/metrics/merged-latency.hlog and the merged results of the whole run are logged at the end.
+ */
+public final class Controller {
+
+    private static Log log = LogFactory.getLog(Controller.class);
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long CONNECT_RETRY_MILLIS = 500;
+    private static final long START_DELAY_MILLIS = 2000;
+    private static final int DEFAULT_INTERVAL_SECONDS = 1;
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final String configText;
+    private final TestConfiguration configuration;
+    private final List<InetSocketAddress> agentAddresses;
+
+    private final Histogram intervalLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private long[] published;
+    private long[] received;
+    private long reportedPublished;
+    private long reportedReceived;
+    private HistogramLogWriter histogramLog;
+    private PrintStream csv;
+
+    /**
+     * @param configText test configuration file content, sent to the agents
+     * @param agentAddresses agents to run the test on
+     * @throws ATCException if the configuration cannot be parsed
+     */
+    public Controller(String configText, List<InetSocketAddress> agentAddresses) throws ATCException {
+        this.configText = configText;
+        this.agentAddresses = agentAddresses;
+        try {
+            configuration = ConfigReader.parseConfig(
+                    new ByteArrayInputStream(configText.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ATCException("Error while parsing the test configuration", e);
+        }
+    }
+
+    /**
+     * Runs the test on the agents and blocks until all of them are done
+     *
+     * @throws ATCException if an agent cannot be reached or the result files cannot be created
+     * @throws InterruptedException if interrupted while waiting for the agents
+     */
+    public void run() throws ATCException, InterruptedException {
+        int agentCount = agentAddresses.size();
+        published = new long[agentCount];
+        received = new long[agentCount];
+        List<String> ids = ConfigReader.getIds(configuration);
+        List<Socket> sockets = new ArrayList<>();
+        List<DataInputStream> inputs = new ArrayList<>();
+        List<DataOutputStream> outputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < agentCount; i++) {
+                Socket socket = connect(agentAddresses.get(i));
+                sockets.add(socket);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                inputs.add(input);
+                outputs.add(output);
+
+                output.writeInt(ClusterProtocol.ASSIGN);
+                output.writeInt(i);
+                output.writeInt(agentCount);
+                ClusterProtocol.writeString(output, configText);
+                output.writeInt(ids.size());
+                for (String id : ids) {
+                    output.writeUTF(id);
+                }
+                output.flush();
+            }
+
+            for (int i = 0; i < agentCount; i++) {
+                ClusterProtocol.readType(inputs.get(i), ClusterProtocol.READY);
+                log.info("Agent " + agentAddresses.get(i) + " ready");
+            }
+
+            long startMillis = System.currentTimeMillis() + START_DELAY_MILLIS;
+            for (DataOutputStream output : outputs) {
+                output.writeInt(ClusterProtocol.START);
+                output.writeLong(startMillis);
+                output.flush();
+            }
+            log.info("Test started on " + agentCount + " agents");
+        } catch (IOException e) {
+            closeAll(sockets);
+            throw new ATCException("Error while starting the test on the agents", e);
+        }
+
+        openResultFiles();
+        int intervalSeconds = configuration.getLatencyLogInterval() > 0 ?
+                configuration.getLatencyLogInterval() : DEFAULT_INTERVAL_SECONDS;
+        ScheduledExecutorService reportExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ControllerReporter").setDaemon(true).build());
+        reportExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                reportInterval();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        CountDownLatch done = new CountDownLatch(agentCount);
+        for (int i = 0; i < agentCount; i++) {
+            Thread reader = new ThreadFactoryBuilder().setNameFormat("AgentReader-" + i).setDaemon(true).build()
+                    .newThread(new AgentReader(i, inputs.get(i), done));
+            reader.start();
+        }
+        done.await();
+
+        reportExecutor.shutdown();
+        reportInterval();
+        closeAll(sockets);
+        reportTotal();
+    }
+
+    private synchronized void reportInterval() {
+        long publishedSum = 0;
+        long receivedSum = 0;
+        for (int i = 0; i < published.length; i++) {
+            publishedSum += published[i];
+            receivedSum += received[i];
+        }
+
+        long now = System.currentTimeMillis();
+        intervalLatency.setEndTimeStamp(now);
+        histogramLog.outputIntervalHistogram(intervalLatency);
+        csv.printf(Locale.US, "%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f%n", TimeUnit.MILLISECONDS.toSeconds(now),
+                publishedSum - reportedPublished, receivedSum - reportedReceived, intervalLatency.getTotalCount(),
+                intervalLatency.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                intervalLatency.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                intervalLatency.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                intervalLatency.getMaxValue() / MICROS_PER_MILLI);
+        csv.flush();
+
+        reportedPublished = publishedSum;
+        reportedReceived = receivedSum;
+        intervalLatency.reset();
+        intervalLatency.setStartTimeStamp(now);
+    }
+
+    private synchronized void reportTotal() {
+        histogramLog.close();
+        csv.close();
+        long publishedSum = 0;
+        long receivedSum = 0;
+        StringBuilder report = new StringBuilder("Merged results of " + published.length + " agents");
+        for (int i = 0; i < published.length; i++) {
+            publishedSum += published[i];
+            receivedSum += received[i];
+            report.append("\n\tagent ").append(agentAddresses.get(i)).append(": published ")
+                    .append(published[i]).append(", received ").append(received[i]);
+        }
+        report.append("\n\ttotal: published ").append(publishedSum).append(", received ").append(receivedSum)
+                .append("\n\tlatency (ms) ").append(LatencyReporter.summary(totalLatency));
+        log.info(report);
+    }
+
+    private synchronized void onInterval(int agent, long agentPublished, long agentReceived, Histogram interval) {
+        published[agent] = agentPublished;
+        received[agent] = agentReceived;
+        intervalLatency.add(interval);
+    }
+
+    private synchronized void onDone(int agent, long agentPublished, long agentReceived, Histogram total) {
+        published[agent] = agentPublished;
+        received[agent] = agentReceived;
+        totalLatency.add(total);
+    }
+
+    private void openResultFiles() throws ATCException {
+        File directory = new File(System.getProperty("user.dir") + "/logs/metrics");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new FileNotFoundException("Unable to create directory " + directory);
+            }
+            long now = System.currentTimeMillis();
+            histogramLog = new HistogramLogWriter(new File(directory, "merged-latency.hlog"));
+            histogramLog.outputLogFormatVersion();
+            histogramLog.outputStartTime(now);
+            histogramLog.setBaseTime(now);
+            histogramLog.outputLegend();
+            intervalLatency.setStartTimeStamp(now);
+
+            csv = new PrintStream(new File(directory, "merged.csv"), StandardCharsets.UTF_8.name());
+            csv.println("t,published,received,latency_count,latency_p50,latency_p99,latency_p99_9,latency_max");
+        } catch (IOException e) {
+            throw new ATCException("Error while creating the merged result files", e);
+        }
+    }
+
+    private static Socket connect(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                log.info("Connected to agent " + address);
+                return socket;
+            } catch (ConnectException e) {
+                socket.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static void closeAll(List<Socket> sockets) {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn("Error while closing agent connection", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the results streamed by an agent until it is done
+     */
+    private final class AgentReader implements Runnable {
+
+        private final int agent;
+        private final DataInputStream input;
+        private final CountDownLatch done;
+
+        private AgentReader(int agent, DataInputStream input, CountDownLatch done) {
+            this.agent = agent;
+            this.input = input;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int type = ClusterProtocol.readType(input, ClusterProtocol.INTERVAL, ClusterProtocol.DONE);
+                    long agentPublished = input.readLong();
+                    long agentReceived = input.readLong();
+                    Histogram histogram = ClusterProtocol.readHistogram(input);
+                    if (type == ClusterProtocol.DONE) {
+                        onDone(agent, agentPublished, agentReceived, histogram);
+                        log.info("Agent " + agentAddresses.get(agent) + " done");
+                        return;
+                    }
+                    onInterval(agent, agentPublished, agentReceived, histogram);
+                }
+            } catch (IOException e) {
+                log.error("Lost agent " + agentAddresses.get(agent) + " before it finished the test", e);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
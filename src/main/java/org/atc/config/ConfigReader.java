@@ -17,6 +17,7 @@
 package org.atc.config;
 
 import org.apache.commons.lang3.StringUtils;
+import org.atc.amqp.MessageAcknowledger;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.introspector.BeanAccess;
 
@@ -24,18 +25,29 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import javax.jms.Session;
 
 public final class ConfigReader {
 
     private ConfigReader() {
     }
 
-    public static final int RESEND_WAIT_INTERVAL_MILLISECONDS = 1000;
-
     public static TestConfiguration parseConfig(final String filePath) throws FileNotFoundException, NoSuchFieldException, IllegalAccessException {
+        return parseConfig(new FileInputStream(new File(filePath)));
+    }
 
-        InputStream input = new FileInputStream(new File(filePath));
+    /**
+     * Parses a YAML test configuration, for instance one bundled as a class path resource
+     *
+     * @param input YAML configuration
+     * @return test configuration with global settings applied and parallel publishers and subscribers
+     * expanded
+     */
+    public static TestConfiguration parseConfig(final InputStream input) throws NoSuchFieldException, IllegalAccessException {
         Yaml yaml = new Yaml();
         yaml.setBeanAccess(BeanAccess.FIELD);
         TestConfiguration testConfiguration = yaml.loadAs(input, TestConfiguration.class);
@@ -45,10 +57,85 @@ public final class ConfigReader {
         preProcessTopicSubscribers(testConfiguration);
         preProcessQueueSubscribers(testConfiguration);
         preProcessDurableTopicSubscribers(testConfiguration);
+        setNumericIds(testConfiguration);
 
         return testConfiguration;
     }
 
+    /**
+     * Ids of all the publishers and subscribers of a configuration, in a fixed order. Ids not given in
+     * the configuration file are random, hence processes parsing the same file use these to agree on them.
+     *
+     * @param tc parsed test configuration
+     * @return ids of the publishers followed by the subscribers
+     */
+    public static List<String> getIds(TestConfiguration tc) {
+        List<String> ids = new ArrayList<>();
+        for (List<? extends PubSubConfig> clients : clientLists(tc)) {
+            for (PubSubConfig client : clients) {
+                ids.add(client.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Applies ids returned by {@link #getIds(TestConfiguration)} for the same configuration file
+     *
+     * @param tc parsed test configuration
+     * @param ids ids in the order of {@link #getIds(TestConfiguration)}
+     */
+    public static void setIds(TestConfiguration tc, List<String> ids) {
+        Iterator<String> iterator = ids.iterator();
+        for (List<? extends PubSubConfig> clients : clientLists(tc)) {
+            for (PubSubConfig client : clients) {
+                if (!iterator.hasNext()) {
+                    throw new IllegalArgumentException("Fewer ids than publishers and subscribers");
+                }
+                client.setId(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * Keeps a slice of the publishers and subscribers, so that a test can be split between several
+     * client processes. Clients are dealt round robin over all the lists.
+     *
+     * @param tc parsed test configuration
+     * @param index index of the slice to keep, from 0
+     * @param count number of slices
+     */
+    public static void slice(TestConfiguration tc, int index, int count) {
+        int position = 0;
+        for (List<? extends PubSubConfig> clients : clientLists(tc)) {
+            Iterator<? extends PubSubConfig> iterator = clients.iterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                if (position % count != index) {
+                    iterator.remove();
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Numbers the publishers in the order of {@link #getIds(TestConfiguration)}, which lists them first
+     */
+    private static void setNumericIds(TestConfiguration tc) {
+        int numericId = 0;
+        for (List<PublisherConfig> publishers : Arrays.asList(tc.getTopicPublishers(), tc.getQueuePublishers())) {
+            for (PublisherConfig publisherConfig : publishers) {
+                publisherConfig.setNumericId(numericId++);
+            }
+        }
+    }
+
+    private static List<List<? extends PubSubConfig>> clientLists(TestConfiguration tc) {
+        return Arrays.<List<? extends PubSubConfig>>asList(tc.getTopicPublishers(), tc.getQueuePublishers(),
+                tc.getTopicSubscribers(), tc.getQueueSubscribers(), tc.getDurableTopicSubscribers());
+    }
+
     private static void addGlobalConfigerationsIfAbsent(TestConfiguration tc, List pubsubList) {
         for (Object obj : pubsubList) {
             PubSubConfig pubSubConfig = (PubSubConfig) obj;
@@ -59,26 +146,58 @@ public final class ConfigReader {
     private static void preProcessDurableTopicSubscribers(TestConfiguration tc) throws NoSuchFieldException, IllegalAccessException {
         addGlobalConfigerationsIfAbsent(tc, tc.getDurableTopicSubscribers());
         createDuplicateSubscribersIfNeeded(tc.getDurableTopicSubscribers());
+        validateSubscribers(tc.getDurableTopicSubscribers());
     }
 
     private static void preProcessQueueSubscribers(TestConfiguration tc) throws NoSuchFieldException, IllegalAccessException {
         addGlobalConfigerationsIfAbsent(tc, tc.getQueueSubscribers());
         createDuplicateSubscribersIfNeeded(tc.getQueueSubscribers());
+        validateSubscribers(tc.getQueueSubscribers());
     }
 
     private static void preProcessTopicSubscribers(TestConfiguration tc) throws NoSuchFieldException, IllegalAccessException {
         addGlobalConfigerationsIfAbsent(tc, tc.getTopicSubscribers());
         createDuplicateSubscribersIfNeeded(tc.getTopicSubscribers());
+        validateSubscribers(tc.getTopicSubscribers());
     }
 
     private static void preProcessQueuePublishers(TestConfiguration tc) throws NoSuchFieldException, IllegalAccessException {
         addGlobalConfigerationsIfAbsent(tc, tc.getQueuePublishers());
         createDuplicatePublishersIfNeeded(tc.getQueuePublishers());
+        validatePublishers(tc.getQueuePublishers());
     }
 
     private static void preProcessTopicPublishers(TestConfiguration tc) throws NoSuchFieldException, IllegalAccessException {
         addGlobalConfigerationsIfAbsent(tc, tc.getTopicPublishers());
         createDuplicatePublishersIfNeeded(tc.getTopicPublishers());
+        validatePublishers(tc.getTopicPublishers());
+    }
+
+    private static void validatePublishers(List<PublisherConfig> publisherList) {
+        for (PublisherConfig publisherConfig : publisherList) {
+            // messages of a transactional publisher are committed in batches of this size
+            if (publisherConfig.isTransactional() && publisherConfig.getTransactionBatchSize() < 1) {
+                throw new IllegalArgumentException("Transactional publisher " + publisherConfig.getId() +
+                        " needs a transactionBatchSize of at least 1, found " +
+                        publisherConfig.getTransactionBatchSize());
+            }
+        }
+    }
+
+    private static void validateSubscribers(List<SubscriberConfig> subscriberList) {
+        for (SubscriberConfig subscriberConfig : subscriberList) {
+            if (subscriberConfig.getConsumersPerSession() <= 1) {
+                continue;
+            }
+            // a session delivers to one consumer at a time and transactions and client acknowledgements
+            // span all the consumers of the session, hence only listeners that need neither can share one
+            if (!subscriberConfig.isUseMessageListener() || subscriberConfig.isTransactional() ||
+                    MessageAcknowledger.getAcknowledgeMode(subscriberConfig) == Session.CLIENT_ACKNOWLEDGE) {
+                throw new IllegalArgumentException("Subscriber " + subscriberConfig.getId() + " cannot share " +
+                        "its session. consumersPerSession above 1 needs useMessageListener with an auto or " +
+                        "dups-ok acknowledge mode and no transactions");
+            }
+        }
     }
 
     private static void createDuplicateSubscribersIfNeeded(List<SubscriberConfig> subscriberConfigList) throws NoSuchFieldException, IllegalAccessException {
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.config;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * A segment of the load profile, the total publish rate over time. Rates are in messages per second and
+ * times in seconds from the start of the segment.
+ * <ul>
+ *     <li>constant - rate for durationSeconds</li>
+ *     <li>ramp - linear change from rate from to rate to over durationSeconds</li>
+ *     <li>step - steps equal steps from rate from to rate to over durationSeconds</li>
+ *     <li>spike - rate, raised to peak for spikeSeconds from spikeStartSeconds, for durationSeconds</li>
+ *     <li>sine - rate plus a sine wave of amplitude and periodSeconds, for durationSeconds</li>
+ *     <li>piecewise - linear between the points given by times and rates, times starting from 0</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class LoadSegmentConfig {
+
+    @XmlAttribute
+    private String shape;
+    @XmlAttribute
+    private double durationSeconds;
+    @XmlAttribute
+    private double rate;
+    @XmlAttribute
+    private double from;
+    @XmlAttribute
+    private double to;
+    @XmlAttribute
+    private int steps;
+    @XmlAttribute
+    private double peak;
+    @XmlAttribute
+    private double spikeStartSeconds;
+    @XmlAttribute
+    private double spikeSeconds;
+    @XmlAttribute
+    private double amplitude;
+    @XmlAttribute
+    private double periodSeconds;
+    @XmlAttribute
+    private List<Double> times;
+    @XmlAttribute
+    private List<Double> rates;
+
+    public String getShape() {
+        return shape;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public double getFrom() {
+        return from;
+    }
+
+    public double getTo() {
+        return to;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public double getPeak() {
+        return peak;
+    }
+
+    public double getSpikeStartSeconds() {
+        return spikeStartSeconds;
+    }
+
+    public double getSpikeSeconds() {
+        return spikeSeconds;
+    }
+
+    public double getAmplitude() {
+        return amplitude;
+    }
+
+    public double getPeriodSeconds() {
+        return periodSeconds;
+    }
+
+    public List<Double> getTimes() {
+        return times;
+    }
+
+    public List<Double> getRates() {
+        return rates;
+    }
+}
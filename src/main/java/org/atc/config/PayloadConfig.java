@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.config;
+
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * Payload size distribution of a publisher
+ * <ul>
+ *     <li>fixed - size bytes</li>
+ *     <li>uniform - uniformly distributed between minSize and maxSize</li>
+ *     <li>normal - normally distributed with mean and stdDev, clamped to minSize and maxSize</li>
+ *     <li>histogram - one of sizes, chosen with the relative weights</li>
+ *     <li>corpus - a random newline separated record of corpusFile</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class PayloadConfig {
+
+    @XmlAttribute
+    private String distribution;
+    @XmlAttribute
+    private int size;
+    @XmlAttribute
+    private int minSize;
+    @XmlAttribute
+    private int maxSize;
+    @XmlAttribute
+    private double mean;
+    @XmlAttribute
+    private double stdDev;
+    @XmlAttribute
+    private List<Integer> sizes;
+    @XmlAttribute
+    private List<Integer> weights;
+    @XmlAttribute
+    private String corpusFile;
+    @XmlAttribute
+    private long seed;
+
+    public String getDistribution() {
+        return distribution;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+
+    public List<Integer> getWeights() {
+        return weights;
+    }
+
+    public String getCorpusFile() {
+        return corpusFile;
+    }
+
+    /**
+     * Seed of the random size and record selection. 0 for a random seed.
+     *
+     * @return seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+}
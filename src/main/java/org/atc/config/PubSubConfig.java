@@ -66,6 +66,16 @@ public abstract class PubSubConfig {
     @XmlAttribute
     private int messagesPerSecond;
 
+    @XmlAttribute
+    private int sessionsPerConnection;
+
+    @XmlAttribute
+    private int reconnectAttempts;
+    @XmlAttribute
+    private long reconnectInitialDelayMillis;
+    @XmlAttribute
+    private long reconnectMaxDelayMillis;
+
     PubSubConfig() {
         id = UUID.randomUUID().toString();
     }
@@ -98,6 +108,18 @@ public abstract class PubSubConfig {
         if (StringUtils.isBlank(getVirtualHostName())) {
             setVirtualHostName(tc.getVirtualHostName());
         }
+        if (sessionsPerConnection == 0) {
+            setSessionsPerConnection(tc.getSessionsPerConnection());
+        }
+        if (reconnectAttempts == 0) {
+            setReconnectAttempts(tc.getReconnectAttempts());
+        }
+        if (reconnectInitialDelayMillis == 0) {
+            setReconnectInitialDelayMillis(tc.getReconnectInitialDelayMillis());
+        }
+        if (reconnectMaxDelayMillis == 0) {
+            setReconnectMaxDelayMillis(tc.getReconnectMaxDelayMillis());
+        }
     }
 
     public final String getTCPConnectionURL() {
@@ -123,6 +145,57 @@ public abstract class PubSubConfig {
         this.messagesPerSecond = messagesPerSecond;
     }
 
+    /**
+     * Number of sessions sharing a single connection to the broker. Publishers and subscribers with the
+     * same connection settings share connections until this limit is reached.
+     *
+     * @return sessions per connection, 0 or 1 for a connection per client
+     */
+    public final int getSessionsPerConnection() {
+        return sessionsPerConnection;
+    }
+
+    final void setSessionsPerConnection(int sessionsPerConnection) {
+        this.sessionsPerConnection = sessionsPerConnection;
+    }
+
+    /**
+     * Number of times a failed publisher or subscriber re-creates its session, backing off exponentially
+     * between the attempts, before it gives up
+     *
+     * @return reconnect attempts per failure, 0 to stop at the first failure
+     */
+    public final int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    final void setReconnectAttempts(int reconnectAttempts) {
+        this.reconnectAttempts = reconnectAttempts;
+    }
+
+    /**
+     * @return wait before the first reconnect attempt in milliseconds, doubled after every failed attempt.
+     * 0 for the default
+     */
+    public final long getReconnectInitialDelayMillis() {
+        return reconnectInitialDelayMillis;
+    }
+
+    final void setReconnectInitialDelayMillis(long reconnectInitialDelayMillis) {
+        this.reconnectInitialDelayMillis = reconnectInitialDelayMillis;
+    }
+
+    /**
+     * @return longest wait between reconnect attempts in milliseconds, 0 for the default
+     */
+    public final long getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    final void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
+
     public final int getPort() {
         return port;
     }
@@ -16,9 +16,12 @@
 
 package org.atc.config;
 
+import java.util.List;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @SuppressWarnings("unused")
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -28,6 +31,34 @@ public class PublisherConfig extends PubSubConfig {
     private int publisherMaxThroughput;
     @XmlAttribute
     private String messageContent;
+    @XmlAttribute
+    private boolean openLoop;
+    @XmlElement
+    private PayloadConfig payload;
+    @XmlAttribute
+    private int ringSize;
+    @XmlAttribute
+    private String waitStrategy;
+    @XmlAttribute
+    private String ringName;
+    @XmlAttribute
+    private int commitPipelineDepth;
+    @XmlAttribute
+    private Boolean orderedCommits;
+    @XmlAttribute
+    private String deliveryMode;
+    @XmlAttribute
+    private List<Integer> priorities;
+    @XmlAttribute
+    private List<Integer> priorityWeights;
+    @XmlAttribute
+    private long timeToLiveMillis;
+    @XmlAttribute
+    private boolean disableMessageId;
+    @XmlAttribute
+    private boolean disableMessageTimestamp;
+    @XmlTransient
+    private transient int numericId;
 
     public final String getMessageContent() {
         return messageContent;
@@ -37,6 +68,149 @@ public class PublisherConfig extends PubSubConfig {
         this.messageContent = messageContent;
     }
 
+    /**
+     * Open-loop publishers send at the intended times of a constant arrival rate schedule
+     * (messagesPerSecond) and stamp each message with its intended send time, so that stalls in the
+     * broker show up as latency instead of a lower publishing rate.
+     *
+     * @return true if the publisher is open-loop
+     */
+    public final boolean isOpenLoop() {
+        return openLoop;
+    }
+
+    final void setOpenLoop(boolean openLoop) {
+        this.openLoop = openLoop;
+    }
+
+    /**
+     * Payload size distribution. If absent messageContent is sent as is.
+     *
+     * @return payload configuration or null
+     */
+    public final PayloadConfig getPayload() {
+        return payload;
+    }
+
+    /**
+     * Number of entries of the Disruptor ring of a transactional publisher, a power of two
+     *
+     * @return ring size or 0 for the default
+     */
+    public final int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * Wait strategy of the Disruptor handler thread of a transactional publisher: blocking, sleeping,
+     * yielding, busy-spin or phased-backoff
+     *
+     * @return wait strategy name or null for the default
+     */
+    public final String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Transactional publishers with the same ring name share one multi-producer ring and its handler
+     * thread. The first publisher of a ring decides its size and wait strategy.
+     *
+     * @return shared ring name or null for a ring of its own
+     */
+    public final String getRingName() {
+        return ringName;
+    }
+
+    /**
+     * Number of transaction commits of a transactional publisher that may be in flight while the next
+     * batch is sent. Each outstanding commit needs a transacted session of its own, hence the publisher
+     * opens depth + 1 sessions.
+     *
+     * @return commit pipeline depth, 0 to commit synchronously
+     */
+    public final int getCommitPipelineDepth() {
+        return commitPipelineDepth;
+    }
+
+    /**
+     * Pipelined commits are completed in batch order by default, so that a batch never becomes visible
+     * before the batches sent earlier by the same publisher. Unordered commits run concurrently.
+     *
+     * @return true if pipelined commits complete in batch order
+     */
+    public final boolean isOrderedCommits() {
+        return null == orderedCommits || orderedCommits;
+    }
+
+    /**
+     * JMS delivery mode of the published messages: persistent or non-persistent
+     *
+     * @return delivery mode, null for persistent
+     */
+    public final String getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    /**
+     * JMS priorities of the published messages, each message takes one of them at random in proportion to
+     * its weight in {@link #getPriorityWeights()}
+     *
+     * @return priorities from 0 to 9, null or empty for the default priority
+     */
+    public final List<Integer> getPriorities() {
+        return priorities;
+    }
+
+    /**
+     * @return relative weights of the priorities, null or empty for equal weights
+     */
+    public final List<Integer> getPriorityWeights() {
+        return priorityWeights;
+    }
+
+    /**
+     * Time after which the broker discards an undelivered message
+     *
+     * @return time to live in milliseconds, 0 for messages that never expire
+     */
+    public final long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Hint to the provider not to generate a JMS message id per message
+     *
+     * @return true if message ids are disabled
+     */
+    public final boolean isDisableMessageId() {
+        return disableMessageId;
+    }
+
+    /**
+     * Hint to the provider not to set the JMS timestamp of each message. Latency is measured with the send
+     * time in the message header, not with the JMS timestamp.
+     *
+     * @return true if message timestamps are disabled
+     */
+    public final boolean isDisableMessageTimestamp() {
+        return disableMessageTimestamp;
+    }
+
+    /**
+     * Numeric publisher id written to the header of every message so that receivers can tell publishers
+     * apart without parsing strings
+     *
+     * @return index of the publisher in the order of {@link org.atc.config.ConfigReader#getIds}, the same in
+     * every process parsing the configuration
+     */
+    public final int getNumericId() {
+        return numericId;
+    }
+
+    final void setNumericId(int numericId) {
+        this.numericId = numericId;
+    }
+
     final PublisherConfig copy() throws NoSuchFieldException, IllegalAccessException {
         PublisherConfig copy = new PublisherConfig();
         copyMembers(this, copy);
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.config;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * Search for the maximum sustainable throughput. The publishers without a messagesPerSecond of their own
+ * are run at a total rate that is doubled from startRate until a step fails and then bisected. A step
+ * holds when the latency percentile stays within the SLO, the publishers keep up with the rate and the
+ * backlog of the subscribers does not grow. Zero values take the defaults.
+ */
+@SuppressWarnings("unused")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class SearchConfig {
+
+    @XmlAttribute
+    private double startRate;
+    @XmlAttribute
+    private double maxRate;
+    @XmlAttribute
+    private double warmupSeconds;
+    @XmlAttribute
+    private double measureSeconds;
+    @XmlAttribute
+    private double cooldownSeconds;
+    @XmlAttribute
+    private double latencySloMillis;
+    @XmlAttribute
+    private double latencyPercentile;
+    @XmlAttribute
+    private double maxBacklogGrowth;
+    @XmlAttribute
+    private double resolution;
+
+    /**
+     * @return rate of the first step in messages per second, 0 for the default of 1000
+     */
+    public double getStartRate() {
+        return startRate;
+    }
+
+    /**
+     * @return highest rate tried in messages per second, 0 for no limit
+     */
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * @return seconds a step runs before it is measured, 0 for the default of 10
+     */
+    public double getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * @return seconds a step is measured, 0 for the default of 30
+     */
+    public double getMeasureSeconds() {
+        return measureSeconds;
+    }
+
+    /**
+     * @return longest wait for the subscribers to drain the backlog after a step, 0 for the default of 30
+     */
+    public double getCooldownSeconds() {
+        return cooldownSeconds;
+    }
+
+    /**
+     * @return latency SLO in milliseconds, required
+     */
+    public double getLatencySloMillis() {
+        return latencySloMillis;
+    }
+
+    /**
+     * @return latency percentile checked against the SLO, 0 for the default of 99
+     */
+    public double getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    /**
+     * @return allowed backlog growth during a measurement as a fraction of the messages due to the
+     * subscribers, 0 for the default of 0.02
+     */
+    public double getMaxBacklogGrowth() {
+        return maxBacklogGrowth;
+    }
+
+    /**
+     * @return search stops when the failing rate is within this fraction of the holding rate, 0 for the
+     * default of 0.05
+     */
+    public double getResolution() {
+        return resolution;
+    }
+}
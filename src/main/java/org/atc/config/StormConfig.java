@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.config;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * Connection storm run instead of a message test. Concurrent workers repeatedly connect a client of the
+ * configured publishers and subscribers, in turn, and close it again at a controlled rate. Every phase of
+ * connecting and closing is timed. Zero values take the defaults.
+ */
+@SuppressWarnings("unused")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class StormConfig {
+
+    @XmlAttribute
+    private double ratePerSecond;
+    @XmlAttribute
+    private int concurrency;
+    @XmlAttribute
+    private double durationSeconds;
+    @XmlAttribute
+    private long cycles;
+    @XmlAttribute
+    private long holdMillis;
+
+    /**
+     * @return clients connected per second by all the workers together, 0 for as fast as the workers can
+     */
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * @return number of clients connecting or connected at the same time, 0 for the default of 10
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return seconds the storm lasts, 0 for the default of 60
+     */
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return clients connected before the storm ends, 0 to run for durationSeconds
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return milliseconds a client stays connected before it is closed
+     */
+    public long getHoldMillis() {
+        return holdMillis;
+    }
+}
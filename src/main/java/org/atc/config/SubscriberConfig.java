@@ -32,6 +32,24 @@ public class SubscriberConfig extends PubSubConfig {
     private boolean enableClientAcknowledgment;
     @XmlAttribute
     private long receiveWaitTimeMillis;
+    @XmlAttribute
+    private int expectedMessagesPerSecond;
+    @XmlAttribute
+    private boolean useMessageListener;
+    @XmlAttribute
+    private int consumersPerSession;
+    @XmlAttribute
+    private boolean verifyMessages;
+    @XmlAttribute
+    private long receiveTimeoutMillis;
+    @XmlAttribute
+    private String acknowledgeMode;
+    @XmlAttribute
+    private int ackBatchSize;
+    @XmlAttribute
+    private long ackIntervalMillis;
+    @XmlAttribute
+    private long transactionLingerMillis;
 
     final void setSubscriptionID(String subscriptionID) {
         this.subscriptionID = subscriptionID;
@@ -70,4 +88,129 @@ public class SubscriberConfig extends PubSubConfig {
     public void setReceiveWaitTimeMillis(long receiveWaitTimeMillis) {
         this.receiveWaitTimeMillis = receiveWaitTimeMillis;
     }
+
+    /**
+     * Rate at which messages are expected to arrive at this subscriber. When set, latency values are
+     * corrected for coordinated omission by back filling the samples that a stalled broker prevented
+     * from being sent.
+     *
+     * @return expected arrival rate, 0 if latency correction is disabled
+     */
+    public int getExpectedMessagesPerSecond() {
+        return expectedMessagesPerSecond;
+    }
+
+    public void setExpectedMessagesPerSecond(int expectedMessagesPerSecond) {
+        this.expectedMessagesPerSecond = expectedMessagesPerSecond;
+    }
+
+    /**
+     * Listener based subscribers are pushed messages by the provider's dispatcher thread instead of
+     * running a dedicated thread that blocks on receive
+     *
+     * @return true if a {@link javax.jms.MessageListener} is used
+     */
+    public boolean isUseMessageListener() {
+        return useMessageListener;
+    }
+
+    public void setUseMessageListener(boolean useMessageListener) {
+        this.useMessageListener = useMessageListener;
+    }
+
+    /**
+     * Number of subscribers sharing a single session. Sessions deliver to one consumer at a time, hence
+     * sharing is limited to listener based subscribers with an auto or dups-ok acknowledge mode.
+     *
+     * @return consumers per session, 0 or 1 for a session per subscriber
+     */
+    public int getConsumersPerSession() {
+        return consumersPerSession;
+    }
+
+    public void setConsumersPerSession(int consumersPerSession) {
+        this.consumersPerSession = consumersPerSession;
+    }
+
+    /**
+     * Verified subscribers track the publisher id and sequence of every message and report missing,
+     * duplicated and reordered messages at the end of the test
+     *
+     * @return true if received messages are verified
+     */
+    public boolean isVerifyMessages() {
+        return verifyMessages;
+    }
+
+    public void setVerifyMessages(boolean verifyMessages) {
+        this.verifyMessages = verifyMessages;
+    }
+
+    /**
+     * Time without any message after which the subscriber gives up waiting for the remaining messages,
+     * so that a run with lost messages ends and reports them instead of waiting forever
+     *
+     * @return receive timeout in milliseconds, 0 to wait forever
+     */
+    public long getReceiveTimeoutMillis() {
+        return receiveTimeoutMillis;
+    }
+
+    public void setReceiveTimeoutMillis(long receiveTimeoutMillis) {
+        this.receiveTimeoutMillis = receiveTimeoutMillis;
+    }
+
+    /**
+     * Acknowledge mode of the subscriber session: auto, client or dups-ok
+     *
+     * @return acknowledge mode, null to take client when enableClientAcknowledgment is set and auto otherwise
+     */
+    public String getAcknowledgeMode() {
+        return acknowledgeMode;
+    }
+
+    public void setAcknowledgeMode(String acknowledgeMode) {
+        this.acknowledgeMode = acknowledgeMode;
+    }
+
+    /**
+     * Number of messages acknowledged together by a client acknowledge subscriber
+     *
+     * @return batch size, 0 or 1 to acknowledge every message
+     */
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    /**
+     * Longest time a client acknowledge subscriber holds back an acknowledgement of a batch that is not full
+     *
+     * @return interval in milliseconds, 0 for no time limit
+     */
+    public long getAckIntervalMillis() {
+        return ackIntervalMillis;
+    }
+
+    public void setAckIntervalMillis(long ackIntervalMillis) {
+        this.ackIntervalMillis = ackIntervalMillis;
+    }
+
+    /**
+     * Longest time a transactional subscriber holds received messages uncommitted when fewer than
+     * transactionBatchSize messages arrive. A subscriber with a message listener checks it only when a
+     * message arrives.
+     *
+     * @return linger in milliseconds, 0 to commit only full batches
+     */
+    public long getTransactionLingerMillis() {
+        return transactionLingerMillis;
+    }
+
+    public void setTransactionLingerMillis(long transactionLingerMillis) {
+        this.transactionLingerMillis = transactionLingerMillis;
+    }
 }
@@ -75,9 +75,39 @@ public class TestConfiguration {
     @XmlAttribute
     private int csvGaugeUpdateInterval;
 
+    @XmlAttribute
+    private String resultsFormat;
+
     @XmlAttribute
     private int publisherInitialDelaySeconds;
 
+    @XmlAttribute
+    private int latencyLogInterval;
+
+    @XmlAttribute
+    private String executionModel;
+
+    @XmlAttribute
+    private int executorPoolSize;
+
+    @XmlAttribute
+    private int sessionsPerConnection;
+
+    @XmlAttribute
+    private int reconnectAttempts;
+
+    @XmlAttribute
+    private long reconnectInitialDelayMillis;
+
+    @XmlAttribute
+    private long reconnectMaxDelayMillis;
+
+    @XmlAttribute
+    private int loopbackDeliveryLatencyMicros;
+
+    @XmlAttribute
+    private int prometheusPort;
+
     @XmlElement(name = "topicPublishers")
     private List<PublisherConfig> topicPublishers;
 
@@ -93,12 +123,22 @@ public class TestConfiguration {
     @XmlElement(name = "durableTopicSubscribers")
     private List<SubscriberConfig> durableTopicSubscribers;
 
+    @XmlElement(name = "loadProfile")
+    private List<LoadSegmentConfig> loadProfile;
+
+    @XmlElement(name = "search")
+    private SearchConfig search;
+
+    @XmlElement(name = "storm")
+    private StormConfig storm;
+
     public TestConfiguration() {
         topicPublishers = new ArrayList<>();
         queuePublishers = new ArrayList<>();
         topicSubscribers = new ArrayList<>();
         durableTopicSubscribers = new ArrayList<>();
         queueSubscribers = new ArrayList<>();
+        loadProfile = new ArrayList<>();
     }
 
     public final int getPort() {
@@ -229,6 +269,20 @@ public class TestConfiguration {
         this.csvGaugeUpdateInterval = csvGaugeUpdateInterval;
     }
 
+    /**
+     * Format of the results written to logs/metrics: binary (a single results.atcr file) or csv (a CSV file
+     * per metric)
+     *
+     * @return results format name
+     */
+    public String getResultsFormat() {
+        return resultsFormat;
+    }
+
+    public void setResultsFormat(String resultsFormat) {
+        this.resultsFormat = resultsFormat;
+    }
+
     public final List<PublisherConfig> getTopicPublishers() {
         return topicPublishers;
     }
@@ -276,4 +330,125 @@ public class TestConfiguration {
     public void setPublisherInitialDelaySeconds(int publisherInitialDelaySeconds) {
         this.publisherInitialDelaySeconds = publisherInitialDelaySeconds;
     }
+
+    /**
+     * Interval between two latency histogram samples written to logs/metrics/latency.hlog
+     *
+     * @return interval in seconds
+     */
+    public int getLatencyLogInterval() {
+        return latencyLogInterval;
+    }
+
+    public void setLatencyLogInterval(int latencyLogInterval) {
+        this.latencyLogInterval = latencyLogInterval;
+    }
+
+    /**
+     * How publishers and subscribers are run: platform (a platform thread each), virtual (a virtual thread
+     * each, Java 21 or later) or pooled (a bounded pool of executorPoolSize threads)
+     *
+     * @return execution model name
+     */
+    public String getExecutionModel() {
+        return executionModel;
+    }
+
+    public void setExecutionModel(String executionModel) {
+        this.executionModel = executionModel;
+    }
+
+    public int getExecutorPoolSize() {
+        return executorPoolSize;
+    }
+
+    public void setExecutorPoolSize(int executorPoolSize) {
+        this.executorPoolSize = executorPoolSize;
+    }
+
+    public int getSessionsPerConnection() {
+        return sessionsPerConnection;
+    }
+
+    public void setSessionsPerConnection(int sessionsPerConnection) {
+        this.sessionsPerConnection = sessionsPerConnection;
+    }
+
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    public void setReconnectAttempts(int reconnectAttempts) {
+        this.reconnectAttempts = reconnectAttempts;
+    }
+
+    public long getReconnectInitialDelayMillis() {
+        return reconnectInitialDelayMillis;
+    }
+
+    public void setReconnectInitialDelayMillis(long reconnectInitialDelayMillis) {
+        this.reconnectInitialDelayMillis = reconnectInitialDelayMillis;
+    }
+
+    public long getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    public void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
+
+    /**
+     * Delivery latency injected by the loopback provider (org.atc.loopback.LoopbackInitialContextFactory)
+     *
+     * @return latency in microseconds
+     */
+    public int getLoopbackDeliveryLatencyMicros() {
+        return loopbackDeliveryLatencyMicros;
+    }
+
+    public void setLoopbackDeliveryLatencyMicros(int loopbackDeliveryLatencyMicros) {
+        this.loopbackDeliveryLatencyMicros = loopbackDeliveryLatencyMicros;
+    }
+
+    /**
+     * Segments of the total publish rate over time, followed by all the publishers without a
+     * messagesPerSecond of their own
+     *
+     * @return load profile segments, empty if there is no load profile
+     */
+    public List<LoadSegmentConfig> getLoadProfile() {
+        return loadProfile;
+    }
+
+    /**
+     * Maximum sustainable throughput search run instead of a fixed length test
+     *
+     * @return search configuration, null if the test does not search
+     */
+    public SearchConfig getSearch() {
+        return search;
+    }
+
+    /**
+     * Connection storm run instead of a message test
+     *
+     * @return storm configuration, null if the test does not run a storm
+     */
+    public StormConfig getStorm() {
+        return storm;
+    }
+
+    /**
+     * Port of the HTTP endpoint serving the metrics in Prometheus text format at /metrics
+     *
+     * @return port, 0 when the endpoint is disabled
+     */
+    public int getPrometheusPort() {
+        return prometheusPort;
+    }
+
+    public void setPrometheusPort(int prometheusPort) {
+        this.prometheusPort = prometheusPort;
+    }
 }
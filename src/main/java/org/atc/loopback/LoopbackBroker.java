@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.Destination;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+/**
+ * In memory message routing of the loopback provider. Sent messages are handed straight to the buffers
+ * of the destination, optionally held back for a fixed delivery latency. There is no persistence, flow
+ * control or priority ordering.
+ */
+final class LoopbackBroker {
+
+    private static Log log = LogFactory.getLog(LoopbackBroker.class);
+
+    private static final LoopbackBroker INSTANCE = new LoopbackBroker(
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong(LoopbackInitialContextFactory.DELIVERY_LATENCY_PROPERTY, 0)));
+
+    private final long deliveryLatencyNanos;
+    private final AtomicLong messageIdSequence;
+    private final ConcurrentMap<String, MessageBuffer> queues;
+    private final ConcurrentMap<String, List<MessageBuffer>> topicSubscriptions;
+    private final Map<String, MessageBuffer> durableSubscriptions;
+
+    private LoopbackBroker(long deliveryLatencyNanos) {
+        this.deliveryLatencyNanos = deliveryLatencyNanos;
+        messageIdSequence = new AtomicLong();
+        queues = new ConcurrentHashMap<>();
+        topicSubscriptions = new ConcurrentHashMap<>();
+        durableSubscriptions = new HashMap<>();
+        if (deliveryLatencyNanos > 0) {
+            log.info("Loopback delivery latency: " + TimeUnit.NANOSECONDS.toMicros(deliveryLatencyNanos) + "us");
+        }
+    }
+
+    static LoopbackBroker getInstance() {
+        return INSTANCE;
+    }
+
+    String nextMessageId() {
+        return "ID:loopback-" + messageIdSequence.incrementAndGet();
+    }
+
+    /**
+     * Routes a sent message to the buffers of its destination. Messages sent to a topic without
+     * subscriptions are dropped.
+     *
+     * @param destination destination of the message
+     * @param message message whose body is not modified anymore
+     * @throws JMSException if the destination does not belong to the loopback provider
+     */
+    void deliver(Destination destination, LoopbackMessage message) throws JMSException {
+        message.setDeliverAtNanos(deliveryLatencyNanos > 0 ? System.nanoTime() + deliveryLatencyNanos : 0);
+        if (destination instanceof Queue) {
+            queueBuffer(((Queue) destination).getQueueName()).add(message.copy());
+        } else if (destination instanceof Topic) {
+            for (MessageBuffer subscription : subscriptions(((Topic) destination).getTopicName())) {
+                subscription.add(message.copy());
+            }
+        } else {
+            throw new InvalidDestinationException("Unsupported destination " + destination);
+        }
+    }
+
+    MessageBuffer queueBuffer(String queueName) {
+        MessageBuffer buffer = queues.get(queueName);
+        if (null == buffer) {
+            MessageBuffer newBuffer = new MessageBuffer(queueName);
+            buffer = queues.putIfAbsent(queueName, newBuffer);
+            if (null == buffer) {
+                buffer = newBuffer;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates a subscription receiving the messages sent to the topic from now on
+     *
+     * @param topicName topic to subscribe
+     * @return buffer of the subscription, to be removed with {@link #unsubscribe(String, MessageBuffer)}
+     */
+    MessageBuffer subscribe(String topicName) {
+        MessageBuffer buffer = new MessageBuffer(topicName);
+        subscriptions(topicName).add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns the durable subscription with the given name, creating it if absent. Messages sent while no
+     * subscriber is active are kept for the subscription.
+     *
+     * @param topicName topic to subscribe
+     * @param subscriptionName name of the durable subscription
+     * @return buffer of the subscription
+     */
+    synchronized MessageBuffer durableSubscribe(String topicName, String subscriptionName) {
+        MessageBuffer buffer = durableSubscriptions.get(subscriptionName);
+        if (null == buffer || !buffer.getName().equals(topicName)) {
+            if (null != buffer) {
+                unsubscribe(buffer.getName(), buffer);
+            }
+            buffer = subscribe(topicName);
+            durableSubscriptions.put(subscriptionName, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Removes a durable subscription
+     *
+     * @param subscriptionName name of the durable subscription
+     * @throws InvalidDestinationException if there is no such subscription
+     */
+    synchronized void durableUnsubscribe(String subscriptionName) throws InvalidDestinationException {
+        MessageBuffer buffer = durableSubscriptions.remove(subscriptionName);
+        if (null == buffer) {
+            throw new InvalidDestinationException("Unknown durable subscription " + subscriptionName);
+        }
+        unsubscribe(buffer.getName(), buffer);
+    }
+
+    void unsubscribe(String topicName, MessageBuffer buffer) {
+        subscriptions(topicName).remove(buffer);
+    }
+
+    private List<MessageBuffer> subscriptions(String topicName) {
+        List<MessageBuffer> subscriptions = topicSubscriptions.get(topicName);
+        if (null == subscriptions) {
+            List<MessageBuffer> newSubscriptions = new CopyOnWriteArrayList<>();
+            subscriptions = topicSubscriptions.putIfAbsent(topicName, newSubscriptions);
+            if (null == subscriptions) {
+                subscriptions = newSubscriptions;
+            }
+        }
+        return subscriptions;
+    }
+}
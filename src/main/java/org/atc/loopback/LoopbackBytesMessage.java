@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotReadableException;
+import javax.jms.MessageNotWriteableException;
+
+/**
+ * Bytes message of the loopback provider. The body is written to a growing array and read back in big
+ * endian order, as {@link java.io.DataOutput} does.
+ */
+final class LoopbackBytesMessage extends LoopbackMessage implements BytesMessage {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[] body;
+    private int length;
+    private int position;
+    private boolean readOnly;
+
+    LoopbackBytesMessage() {
+        body = new byte[INITIAL_CAPACITY];
+    }
+
+    @Override
+    void freeze() {
+        readOnly = true;
+        position = 0;
+    }
+
+    @Override
+    LoopbackMessage copy() {
+        return copyHeaders(new LoopbackBytesMessage(body, length));
+    }
+
+    private LoopbackBytesMessage(byte[] body, int length) {
+        this.body = body;
+        this.length = length;
+        this.readOnly = true;
+    }
+
+    @Override
+    public long getBodyLength() throws JMSException {
+        checkReadable();
+        return length;
+    }
+
+    @Override
+    public boolean readBoolean() throws JMSException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws JMSException {
+        checkAvailable(1);
+        return body[position++];
+    }
+
+    @Override
+    public int readUnsignedByte() throws JMSException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws JMSException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws JMSException {
+        checkAvailable(2);
+        int value = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+        position += 2;
+        return value;
+    }
+
+    @Override
+    public char readChar() throws JMSException {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws JMSException {
+        checkAvailable(4);
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (body[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public long readLong() throws JMSException {
+        checkAvailable(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (body[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public float readFloat() throws JMSException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws JMSException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public String readUTF() throws JMSException {
+        checkAvailable(2);
+        int utfLength = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+        checkAvailable(2 + utfLength);
+        try {
+            String value = new DataInputStream(new ByteArrayInputStream(body, position, 2 + utfLength)).readUTF();
+            position += 2 + utfLength;
+            return value;
+        } catch (IOException e) {
+            throw toJMSException("Unable to read string", e);
+        }
+    }
+
+    @Override
+    public int readBytes(byte[] value) throws JMSException {
+        return readBytes(value, value.length);
+    }
+
+    @Override
+    public int readBytes(byte[] value, int count) throws JMSException {
+        checkReadable();
+        if (position == length) {
+            return -1;
+        }
+        int read = Math.min(Math.min(count, value.length), length - position);
+        System.arraycopy(body, position, value, 0, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void writeBoolean(boolean value) throws JMSException {
+        writeByte((byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public void writeByte(byte value) throws JMSException {
+        ensureWritable(1);
+        body[length++] = value;
+    }
+
+    @Override
+    public void writeShort(short value) throws JMSException {
+        writeChar((char) value);
+    }
+
+    @Override
+    public void writeChar(char value) throws JMSException {
+        ensureWritable(2);
+        body[length++] = (byte) (value >>> 8);
+        body[length++] = (byte) value;
+    }
+
+    @Override
+    public void writeInt(int value) throws JMSException {
+        ensureWritable(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            body[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    @Override
+    public void writeLong(long value) throws JMSException {
+        ensureWritable(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            body[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    @Override
+    public void writeFloat(float value) throws JMSException {
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    @Override
+    public void writeDouble(double value) throws JMSException {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public void writeUTF(String value) throws JMSException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(out).writeUTF(value);
+        } catch (IOException e) {
+            throw toJMSException("Unable to write string", e);
+        }
+        writeBytes(out.toByteArray());
+    }
+
+    @Override
+    public void writeBytes(byte[] value) throws JMSException {
+        writeBytes(value, 0, value.length);
+    }
+
+    @Override
+    public void writeBytes(byte[] value, int offset, int count) throws JMSException {
+        ensureWritable(count);
+        System.arraycopy(value, offset, body, length, count);
+        length += count;
+    }
+
+    @Override
+    public void writeObject(Object value) throws JMSException {
+        if (value instanceof Boolean) {
+            writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            writeShort((Short) value);
+        } else if (value instanceof Character) {
+            writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            writeLong((Long) value);
+        } else if (value instanceof Float) {
+            writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            writeDouble((Double) value);
+        } else if (value instanceof String) {
+            writeUTF((String) value);
+        } else if (value instanceof byte[]) {
+            writeBytes((byte[]) value);
+        } else {
+            throw new MessageFormatException("Unsupported object type " +
+                    (null == value ? "null" : value.getClass().getName()));
+        }
+    }
+
+    @Override
+    public void reset() {
+        readOnly = true;
+        position = 0;
+    }
+
+    @Override
+    public void clearBody() {
+        body = new byte[INITIAL_CAPACITY];
+        length = 0;
+        position = 0;
+        readOnly = false;
+    }
+
+    private void checkReadable() throws MessageNotReadableException {
+        if (!readOnly) {
+            throw new MessageNotReadableException("Message is in write-only mode");
+        }
+    }
+
+    private void checkAvailable(int count) throws JMSException {
+        checkReadable();
+        if (length - position < count) {
+            throw new MessageEOFException("Unexpected end of message body");
+        }
+    }
+
+    private void ensureWritable(int count) throws MessageNotWriteableException {
+        if (readOnly) {
+            throw new MessageNotWriteableException("Message is in read-only mode");
+        }
+        if (length + count > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, length + count));
+        }
+    }
+
+    private static JMSException toJMSException(String message, Exception cause) {
+        JMSException e = new JMSException(message);
+        e.setLinkedException(cause);
+        e.initCause(cause);
+        return e;
+    }
+}
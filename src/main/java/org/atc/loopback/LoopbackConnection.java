@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.ConnectionConsumer;
+import javax.jms.ConnectionMetaData;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+/**
+ * Connection to the loopback broker. Consumers receive messages only while the connection is started.
+ */
+final class LoopbackConnection implements Connection {
+
+    private final LoopbackBroker broker;
+    private final List<LoopbackSession> sessions;
+    private final Object startLock;
+    private volatile boolean started;
+    private volatile boolean closed;
+    private String clientId;
+    private ExceptionListener exceptionListener;
+
+    LoopbackConnection(LoopbackBroker broker) {
+        this.broker = broker;
+        sessions = new CopyOnWriteArrayList<>();
+        startLock = new Object();
+    }
+
+    LoopbackBroker getBroker() {
+        return broker;
+    }
+
+    @Override
+    public Session createSession(boolean transacted, int acknowledgeMode) throws JMSException {
+        checkOpen();
+        LoopbackSession session = new LoopbackSession(this, transacted, acknowledgeMode);
+        sessions.add(session);
+        return session;
+    }
+
+    @Override
+    public String getClientID() {
+        return clientId;
+    }
+
+    @Override
+    public void setClientID(String clientID) {
+        this.clientId = clientID;
+    }
+
+    @Override
+    public ConnectionMetaData getMetaData() throws JMSException {
+        throw new JMSException("Connection meta data is not supported by the loopback provider");
+    }
+
+    @Override
+    public ExceptionListener getExceptionListener() {
+        return exceptionListener;
+    }
+
+    @Override
+    public void setExceptionListener(ExceptionListener listener) {
+        this.exceptionListener = listener;
+    }
+
+    @Override
+    public void start() throws JMSException {
+        checkOpen();
+        synchronized (startLock) {
+            started = true;
+            startLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+    }
+
+    @Override
+    public void close() throws JMSException {
+        closed = true;
+        for (LoopbackSession session : sessions) {
+            session.close();
+        }
+        synchronized (startLock) {
+            startLock.notifyAll();
+        }
+    }
+
+    @Override
+    public ConnectionConsumer createConnectionConsumer(Destination destination, String messageSelector,
+                                                       ServerSessionPool sessionPool, int maxMessages)
+            throws JMSException {
+        throw new JMSException("Connection consumers are not supported by the loopback provider");
+    }
+
+    @Override
+    public ConnectionConsumer createDurableConnectionConsumer(Topic topic, String subscriptionName,
+                                                              String messageSelector,
+                                                              ServerSessionPool sessionPool, int maxMessages)
+            throws JMSException {
+        throw new JMSException("Connection consumers are not supported by the loopback provider");
+    }
+
+    /**
+     * Waits until the connection is started
+     *
+     * @param timeoutNanos maximum time to wait
+     * @return true if the connection is started, false if timed out or closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitStarted(long timeoutNanos) throws InterruptedException {
+        if (started) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (startLock) {
+            long remaining = timeoutNanos;
+            while (!started && !closed && remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(startLock, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+        return started;
+    }
+
+    void sessionClosed(LoopbackSession session) {
+        sessions.remove(session);
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Connection is closed");
+        }
+    }
+}
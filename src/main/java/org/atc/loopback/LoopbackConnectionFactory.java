@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+
+/**
+ * Creates connections to the in JVM loopback broker. Credentials are ignored.
+ */
+final class LoopbackConnectionFactory implements ConnectionFactory {
+
+    @Override
+    public Connection createConnection() {
+        return new LoopbackConnection(LoopbackBroker.getInstance());
+    }
+
+    @Override
+    public Connection createConnection(String userName, String password) {
+        return createConnection();
+    }
+}
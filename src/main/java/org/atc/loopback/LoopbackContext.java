@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.util.Hashtable;
+import java.util.Map;
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+/**
+ * Read only JNDI context of the loopback provider built from the environment properties, following
+ * the conventions of properties file based JMS contexts
+ * <ul>
+ *     <li>queue.[jndiName] = [queue name]</li>
+ *     <li>topic.[jndiName] = [topic name]</li>
+ *     <li>[prefix].[jndiName] = [connection URL], any other prefix names a connection factory</li>
+ * </ul>
+ */
+final class LoopbackContext implements Context {
+
+    private static final String QUEUE_PREFIX = "queue.";
+    private static final String TOPIC_PREFIX = "topic.";
+
+    private final Hashtable<Object, Object> environment;
+
+    LoopbackContext(Hashtable<?, ?> environment) {
+        this.environment = new Hashtable<>();
+        if (null != environment) {
+            this.environment.putAll(environment);
+        }
+    }
+
+    @Override
+    public Object lookup(String name) throws NamingException {
+        Object queueName = environment.get(QUEUE_PREFIX + name);
+        if (null != queueName) {
+            return new LoopbackQueue(queueName.toString());
+        }
+        Object topicName = environment.get(TOPIC_PREFIX + name);
+        if (null != topicName) {
+            return new LoopbackTopic(topicName.toString());
+        }
+        for (Map.Entry<Object, Object> entry : environment.entrySet()) {
+            String key = entry.getKey().toString();
+            if (key.endsWith("." + name) && !key.startsWith("java.naming.")) {
+                return new LoopbackConnectionFactory();
+            }
+        }
+        throw new NameNotFoundException(name + " is not bound in the loopback context");
+    }
+
+    @Override
+    public Object lookup(Name name) throws NamingException {
+        return lookup(name.toString());
+    }
+
+    @Override
+    public void bind(Name name, Object obj) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void bind(String name, Object obj) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void rebind(Name name, Object obj) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void rebind(String name, Object obj) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void unbind(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void unbind(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void rename(Name oldName, Name newName) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void rename(String oldName, String newName) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public NamingEnumeration<NameClassPair> list(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public NamingEnumeration<NameClassPair> list(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void destroySubcontext(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public void destroySubcontext(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public Context createSubcontext(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public Context createSubcontext(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public Object lookupLink(Name name) throws NamingException {
+        return lookup(name);
+    }
+
+    @Override
+    public Object lookupLink(String name) throws NamingException {
+        return lookup(name);
+    }
+
+    @Override
+    public NameParser getNameParser(Name name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public NameParser getNameParser(String name) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public String composeName(String name, String prefix) throws NamingException {
+        throw readOnly();
+    }
+
+    @Override
+    public Object addToEnvironment(String propName, Object propVal) {
+        return environment.put(propName, propVal);
+    }
+
+    @Override
+    public Object removeFromEnvironment(String propName) {
+        return environment.remove(propName);
+    }
+
+    @Override
+    public Hashtable<?, ?> getEnvironment() {
+        return new Hashtable<>(environment);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    @Override
+    public String getNameInNamespace() {
+        return "";
+    }
+
+    private static OperationNotSupportedException readOnly() {
+        return new OperationNotSupportedException("The loopback context only supports lookups");
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.util.Hashtable;
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * JNDI entry point of the loopback provider, an in JVM JMS provider delivering messages straight from
+ * producers to consumers without a broker. Selected with
+ * <pre>
+ * initialContextFactory: org.atc.loopback.LoopbackInitialContextFactory
+ * </pre>
+ * It measures the throughput ceiling of the client itself and lets the client run on a machine without
+ * a broker. Connection factories and destinations are looked up the same way as with the Andes client.
+ * <p>
+ * A fixed delivery latency can be injected with the {@value #DELIVERY_LATENCY_PROPERTY} system property.
+ */
+public class LoopbackInitialContextFactory implements InitialContextFactory {
+
+    /**
+     * System property holding the delivery latency in microseconds added to every message
+     */
+    public static final String DELIVERY_LATENCY_PROPERTY = "org.atc.loopback.deliveryLatencyMicros";
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) {
+        return new LoopbackContext(environment);
+    }
+}
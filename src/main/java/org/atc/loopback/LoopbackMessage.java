@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+/**
+ * Headers and properties of loopback messages. A message is copied for every delivery so that each
+ * consumer reads the body independently and acknowledges through its own session.
+ */
+abstract class LoopbackMessage implements Message {
+
+    private String messageId;
+    private long timestamp;
+    private String correlationId;
+    private Destination replyTo;
+    private Destination destination;
+    private int deliveryMode = DeliveryMode.PERSISTENT;
+    private boolean redelivered;
+    private String type;
+    private long expiration;
+    private int priority = Message.DEFAULT_PRIORITY;
+    private Map<String, Object> properties;
+
+    private long deliverAtNanos;
+    private LoopbackSession session;
+
+    /**
+     * Creates a copy to be delivered to a consumer. Bodies are shared, hence the body of a sent message
+     * must not change anymore.
+     *
+     * @return copy of the message with its own read position
+     */
+    abstract LoopbackMessage copy();
+
+    /**
+     * Makes the body of a message being sent read only
+     */
+    abstract void freeze();
+
+    final <T extends LoopbackMessage> T copyHeaders(T copy) {
+        LoopbackMessage target = copy;
+        target.messageId = messageId;
+        target.timestamp = timestamp;
+        target.correlationId = correlationId;
+        target.replyTo = replyTo;
+        target.destination = destination;
+        target.deliveryMode = deliveryMode;
+        target.redelivered = redelivered;
+        target.type = type;
+        target.expiration = expiration;
+        target.priority = priority;
+        target.properties = null == properties ? null : new HashMap<>(properties);
+        target.deliverAtNanos = deliverAtNanos;
+        return copy;
+    }
+
+    /**
+     * Time ({@link System#nanoTime()}) before which the message should not be handed to the consumer.
+     * Used to inject delivery latency.
+     */
+    final long getDeliverAtNanos() {
+        return deliverAtNanos;
+    }
+
+    final void setDeliverAtNanos(long deliverAtNanos) {
+        this.deliverAtNanos = deliverAtNanos;
+    }
+
+    final void setSession(LoopbackSession session) {
+        this.session = session;
+    }
+
+    final void markRedelivered() {
+        redelivered = true;
+    }
+
+    final boolean isExpired() {
+        return expiration != 0 && System.currentTimeMillis() > expiration;
+    }
+
+    @Override
+    public String getJMSMessageID() {
+        return messageId;
+    }
+
+    @Override
+    public void setJMSMessageID(String id) {
+        this.messageId = id;
+    }
+
+    @Override
+    public long getJMSTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void setJMSTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public byte[] getJMSCorrelationIDAsBytes() {
+        return null == correlationId ? null : correlationId.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void setJMSCorrelationIDAsBytes(byte[] correlationID) {
+        this.correlationId = null == correlationID ? null : new String(correlationID, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void setJMSCorrelationID(String correlationID) {
+        this.correlationId = correlationID;
+    }
+
+    @Override
+    public String getJMSCorrelationID() {
+        return correlationId;
+    }
+
+    @Override
+    public Destination getJMSReplyTo() {
+        return replyTo;
+    }
+
+    @Override
+    public void setJMSReplyTo(Destination replyTo) {
+        this.replyTo = replyTo;
+    }
+
+    @Override
+    public Destination getJMSDestination() {
+        return destination;
+    }
+
+    @Override
+    public void setJMSDestination(Destination destination) {
+        this.destination = destination;
+    }
+
+    @Override
+    public int getJMSDeliveryMode() {
+        return deliveryMode;
+    }
+
+    @Override
+    public void setJMSDeliveryMode(int deliveryMode) {
+        this.deliveryMode = deliveryMode;
+    }
+
+    @Override
+    public boolean getJMSRedelivered() {
+        return redelivered;
+    }
+
+    @Override
+    public void setJMSRedelivered(boolean redelivered) {
+        this.redelivered = redelivered;
+    }
+
+    @Override
+    public String getJMSType() {
+        return type;
+    }
+
+    @Override
+    public void setJMSType(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public long getJMSExpiration() {
+        return expiration;
+    }
+
+    @Override
+    public void setJMSExpiration(long expiration) {
+        this.expiration = expiration;
+    }
+
+    @Override
+    public int getJMSPriority() {
+        return priority;
+    }
+
+    @Override
+    public void setJMSPriority(int priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public void clearProperties() {
+        properties = null;
+    }
+
+    @Override
+    public boolean propertyExists(String name) {
+        return null != properties && properties.containsKey(name);
+    }
+
+    @Override
+    public boolean getBooleanProperty(String name) throws JMSException {
+        Object value = getObjectProperty(name);
+        if (null == value || value instanceof String) {
+            return Boolean.valueOf((String) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new MessageFormatException("Property " + name + " is not a boolean");
+    }
+
+    @Override
+    public byte getByteProperty(String name) throws JMSException {
+        return (byte) getLongProperty(name);
+    }
+
+    @Override
+    public short getShortProperty(String name) throws JMSException {
+        return (short) getLongProperty(name);
+    }
+
+    @Override
+    public int getIntProperty(String name) throws JMSException {
+        return (int) getLongProperty(name);
+    }
+
+    @Override
+    public long getLongProperty(String name) throws JMSException {
+        Object value = getObjectProperty(name);
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue();
+        } else if (null == value || value instanceof String) {
+            return Long.parseLong((String) value);
+        }
+        throw new MessageFormatException("Property " + name + " is not an integral number");
+    }
+
+    @Override
+    public float getFloatProperty(String name) throws JMSException {
+        return (float) getDoubleProperty(name);
+    }
+
+    @Override
+    public double getDoubleProperty(String name) throws JMSException {
+        Object value = getObjectProperty(name);
+        if (value instanceof Float || value instanceof Double) {
+            return ((Number) value).doubleValue();
+        } else if (null == value) {
+            throw new NullPointerException("Property " + name + " does not exist");
+        } else if (value instanceof String) {
+            return Double.parseDouble((String) value);
+        }
+        throw new MessageFormatException("Property " + name + " is not a floating point number");
+    }
+
+    @Override
+    public String getStringProperty(String name) {
+        Object value = getObjectProperty(name);
+        return null == value ? null : value.toString();
+    }
+
+    @Override
+    public Object getObjectProperty(String name) {
+        return null == properties ? null : properties.get(name);
+    }
+
+    @Override
+    public Enumeration getPropertyNames() {
+        if (null == properties) {
+            return Collections.emptyEnumeration();
+        }
+        return Collections.enumeration(properties.keySet());
+    }
+
+    @Override
+    public void setBooleanProperty(String name, boolean value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setByteProperty(String name, byte value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setShortProperty(String name, short value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setIntProperty(String name, int value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setLongProperty(String name, long value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setFloatProperty(String name, float value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setDoubleProperty(String name, double value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setStringProperty(String name, String value) {
+        setProperty(name, value);
+    }
+
+    @Override
+    public void setObjectProperty(String name, Object value) throws JMSException {
+        if (null != value && !(value instanceof Boolean || value instanceof Number || value instanceof String)) {
+            throw new MessageFormatException("Unsupported property type " + value.getClass().getName());
+        }
+        setProperty(name, value);
+    }
+
+    /**
+     * Acknowledges all the messages consumed by the session of this message
+     */
+    @Override
+    public void acknowledge() throws JMSException {
+        if (null != session) {
+            session.acknowledge();
+        }
+    }
+
+    private void setProperty(String name, Object value) {
+        if (null == properties) {
+            properties = new HashMap<>();
+        }
+        properties.put(name, value);
+    }
+}
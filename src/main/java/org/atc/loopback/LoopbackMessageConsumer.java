@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Topic;
+import javax.jms.TopicSubscriber;
+
+/**
+ * Consumer of the loopback provider, receiving from the buffer of a queue or a topic subscription.
+ * A message listener is called from a dedicated dispatcher thread of the consumer. As required by JMS, closing
+ * the consumer waits for a message listener in progress to return.
+ */
+final class LoopbackMessageConsumer implements TopicSubscriber {
+
+    /**
+     * Longest time a blocked receive goes without checking whether the consumer was closed
+     */
+    private static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final LoopbackSession session;
+    private final Destination destination;
+    private final MessageBuffer buffer;
+    private final boolean removeSubscriptionOnClose;
+    private volatile MessageListener messageListener;
+    private Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * @param removeSubscriptionOnClose true for non durable topic subscriptions, which end with the consumer
+     */
+    LoopbackMessageConsumer(LoopbackSession session, Destination destination, MessageBuffer buffer,
+                            boolean removeSubscriptionOnClose) {
+        this.session = session;
+        this.destination = destination;
+        this.buffer = buffer;
+        this.removeSubscriptionOnClose = removeSubscriptionOnClose;
+    }
+
+    @Override
+    public Topic getTopic() {
+        return destination instanceof Topic ? (Topic) destination : null;
+    }
+
+    @Override
+    public boolean getNoLocal() {
+        return false;
+    }
+
+    @Override
+    public String getMessageSelector() {
+        return null;
+    }
+
+    @Override
+    public MessageListener getMessageListener() {
+        return messageListener;
+    }
+
+    @Override
+    public synchronized void setMessageListener(MessageListener listener) throws JMSException {
+        checkOpen();
+        this.messageListener = listener;
+        if (null != listener && null == dispatcher) {
+            dispatcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, "LoopbackDispatcher-" + buffer.getName());
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    @Override
+    public Message receive() throws JMSException {
+        checkOpen();
+        return next(-1);
+    }
+
+    @Override
+    public Message receive(long timeout) throws JMSException {
+        checkOpen();
+        return next(timeout == 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    @Override
+    public Message receiveNoWait() throws JMSException {
+        checkOpen();
+        return next(0);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (removeSubscriptionOnClose) {
+            session.getBroker().unsubscribe(buffer.getName(), buffer);
+        }
+        session.consumerClosed(this);
+        awaitDispatcher();
+    }
+
+    /**
+     * Waits until the dispatcher thread noticed the close, unless called by the listener itself
+     */
+    private void awaitDispatcher() {
+        Thread listenerThread;
+        synchronized (this) {
+            listenerThread = dispatcher;
+        }
+        if (null == listenerThread || listenerThread == Thread.currentThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (listenerThread.isAlive()) {
+            try {
+                listenerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the next message once the connection is started and the injected delivery latency has passed
+     *
+     * @param timeoutNanos maximum time to wait, negative to wait until a message arrives or the consumer
+     *                     is closed
+     * @return message or null if timed out, closed or interrupted
+     */
+    private LoopbackMessage next(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            while (!closed && !session.isClosed()) {
+                long remaining = timeoutNanos < 0 ? POLL_SLICE_NANOS :
+                        Math.min(POLL_SLICE_NANOS, Math.max(0, deadline - System.nanoTime()));
+
+                LoopbackMessage message = null;
+                if (session.getConnection().awaitStarted(remaining)) {
+                    message = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+                if (null != message && !message.isExpired()) {
+                    awaitDeliveryTime(message);
+                    session.delivered(buffer, message);
+                    return message;
+                } else if (null == message && timeoutNanos >= 0 && deadline - System.nanoTime() <= 0) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        while (!closed && !session.isClosed() && !Thread.currentThread().isInterrupted()) {
+            MessageListener listener = messageListener;
+            if (null == listener) {
+                LockSupport.parkNanos(POLL_SLICE_NANOS);
+                continue;
+            }
+            LoopbackMessage message = next(POLL_SLICE_NANOS);
+            if (null != message) {
+                session.dispatch(listener, message);
+            }
+        }
+    }
+
+    private static void awaitDeliveryTime(LoopbackMessage message) throws InterruptedException {
+        long delay = message.getDeliverAtNanos() - System.nanoTime();
+        while (message.getDeliverAtNanos() != 0 && delay > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            delay = message.getDeliverAtNanos() - System.nanoTime();
+        }
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Consumer is closed");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageProducer;
+
+/**
+ * Producer of the loopback provider. Sets the send headers and hands the message to its session.
+ */
+final class LoopbackMessageProducer implements MessageProducer {
+
+    private final LoopbackSession session;
+    private final Destination destination;
+    private boolean disableMessageId;
+    private boolean disableMessageTimestamp;
+    private int deliveryMode = DeliveryMode.PERSISTENT;
+    private int priority = Message.DEFAULT_PRIORITY;
+    private long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+    private volatile boolean closed;
+
+    LoopbackMessageProducer(LoopbackSession session, Destination destination) {
+        this.session = session;
+        this.destination = destination;
+    }
+
+    @Override
+    public void setDisableMessageID(boolean value) {
+        this.disableMessageId = value;
+    }
+
+    @Override
+    public boolean getDisableMessageID() {
+        return disableMessageId;
+    }
+
+    @Override
+    public void setDisableMessageTimestamp(boolean value) {
+        this.disableMessageTimestamp = value;
+    }
+
+    @Override
+    public boolean getDisableMessageTimestamp() {
+        return disableMessageTimestamp;
+    }
+
+    @Override
+    public void setDeliveryMode(int deliveryMode) {
+        this.deliveryMode = deliveryMode;
+    }
+
+    @Override
+    public int getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    @Override
+    public void setPriority(int defaultPriority) {
+        this.priority = defaultPriority;
+    }
+
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    @Override
+    public Destination getDestination() {
+        return destination;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void send(Message message) throws JMSException {
+        send(destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    @Override
+    public void send(Message message, int deliveryMode, int priority, long timeToLive) throws JMSException {
+        send(destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    @Override
+    public void send(Destination destination, Message message) throws JMSException {
+        send(destination, message, deliveryMode, priority, timeToLive);
+    }
+
+    @Override
+    public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive)
+            throws JMSException {
+        if (closed) {
+            throw new IllegalStateException("Producer is closed");
+        } else if (null == destination) {
+            throw new InvalidDestinationException("Destination is not set");
+        } else if (!(message instanceof LoopbackMessage)) {
+            throw new MessageFormatException("Only messages created by loopback sessions can be sent");
+        }
+
+        LoopbackMessage loopbackMessage = (LoopbackMessage) message;
+        long now = disableMessageTimestamp && timeToLive <= 0 ? 0 : System.currentTimeMillis();
+        loopbackMessage.setJMSDestination(destination);
+        loopbackMessage.setJMSDeliveryMode(deliveryMode);
+        loopbackMessage.setJMSPriority(priority);
+        loopbackMessage.setJMSTimestamp(disableMessageTimestamp ? 0 : now);
+        loopbackMessage.setJMSExpiration(timeToLive > 0 ? now + timeToLive : 0);
+        loopbackMessage.setJMSMessageID(disableMessageId ? null : session.getBroker().nextMessageId());
+        loopbackMessage.freeze();
+        session.send(destination, loopbackMessage);
+    }
+}
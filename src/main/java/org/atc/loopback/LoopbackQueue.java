@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import javax.jms.Queue;
+
+/**
+ * Queue of the loopback provider. Each message is delivered to one of the consumers of the queue.
+ */
+final class LoopbackQueue implements Queue {
+
+    private final String name;
+
+    LoopbackQueue(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getQueueName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof LoopbackQueue && name.equals(((LoopbackQueue) o).name));
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "queue://" + name;
+    }
+}
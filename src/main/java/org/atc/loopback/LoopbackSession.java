@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicSubscriber;
+
+/**
+ * Session of the loopback provider. Transacted sessions hold sent messages until commit. Messages
+ * received by transacted and client acknowledge sessions are redelivered on rollback, recover and close
+ * unless committed or acknowledged.
+ * <p>
+ * Message listeners of the consumers of a session are called one at a time.
+ */
+final class LoopbackSession implements Session {
+
+    private static Log log = LogFactory.getLog(LoopbackSession.class);
+
+    private final LoopbackConnection connection;
+    private final LoopbackBroker broker;
+    private final boolean transacted;
+    private final int acknowledgeMode;
+    private final List<Destination> pendingDestinations;
+    private final List<LoopbackMessage> pendingMessages;
+    private final List<MessageBuffer> unacknowledgedBuffers;
+    private final List<LoopbackMessage> unacknowledgedMessages;
+    private final List<LoopbackMessageConsumer> consumers;
+    private final Object dispatchLock;
+    private volatile boolean closed;
+
+    LoopbackSession(LoopbackConnection connection, boolean transacted, int acknowledgeMode) {
+        this.connection = connection;
+        this.broker = connection.getBroker();
+        this.transacted = transacted;
+        this.acknowledgeMode = transacted ? Session.SESSION_TRANSACTED : acknowledgeMode;
+        pendingDestinations = new ArrayList<>();
+        pendingMessages = new ArrayList<>();
+        unacknowledgedBuffers = new ArrayList<>();
+        unacknowledgedMessages = new ArrayList<>();
+        consumers = new CopyOnWriteArrayList<>();
+        dispatchLock = new Object();
+    }
+
+    LoopbackConnection getConnection() {
+        return connection;
+    }
+
+    LoopbackBroker getBroker() {
+        return broker;
+    }
+
+    @Override
+    public BytesMessage createBytesMessage() {
+        return new LoopbackBytesMessage();
+    }
+
+    @Override
+    public MapMessage createMapMessage() throws JMSException {
+        throw unsupported("Map messages");
+    }
+
+    @Override
+    public Message createMessage() {
+        return new LoopbackBytesMessage();
+    }
+
+    @Override
+    public ObjectMessage createObjectMessage() throws JMSException {
+        throw unsupported("Object messages");
+    }
+
+    @Override
+    public ObjectMessage createObjectMessage(Serializable object) throws JMSException {
+        throw unsupported("Object messages");
+    }
+
+    @Override
+    public StreamMessage createStreamMessage() throws JMSException {
+        throw unsupported("Stream messages");
+    }
+
+    @Override
+    public TextMessage createTextMessage() {
+        return new LoopbackTextMessage();
+    }
+
+    @Override
+    public TextMessage createTextMessage(String text) {
+        LoopbackTextMessage message = new LoopbackTextMessage();
+        message.setText(text);
+        return message;
+    }
+
+    @Override
+    public boolean getTransacted() {
+        return transacted;
+    }
+
+    @Override
+    public int getAcknowledgeMode() {
+        return acknowledgeMode;
+    }
+
+    @Override
+    public synchronized void commit() throws JMSException {
+        checkOpen();
+        if (!transacted) {
+            throw new IllegalStateException("Session is not transacted");
+        }
+        for (int i = 0; i < pendingMessages.size(); i++) {
+            broker.deliver(pendingDestinations.get(i), pendingMessages.get(i));
+        }
+        pendingDestinations.clear();
+        pendingMessages.clear();
+        unacknowledgedBuffers.clear();
+        unacknowledgedMessages.clear();
+    }
+
+    @Override
+    public synchronized void rollback() throws JMSException {
+        checkOpen();
+        if (!transacted) {
+            throw new IllegalStateException("Session is not transacted");
+        }
+        pendingDestinations.clear();
+        pendingMessages.clear();
+        redeliverUnacknowledged();
+    }
+
+    @Override
+    public void close() throws JMSException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (LoopbackMessageConsumer consumer : consumers) {
+            consumer.close();
+        }
+        synchronized (this) {
+            pendingDestinations.clear();
+            pendingMessages.clear();
+            redeliverUnacknowledged();
+        }
+        connection.sessionClosed(this);
+    }
+
+    @Override
+    public synchronized void recover() throws JMSException {
+        checkOpen();
+        if (transacted) {
+            throw new IllegalStateException("Session is transacted");
+        }
+        redeliverUnacknowledged();
+    }
+
+    @Override
+    public MessageListener getMessageListener() throws JMSException {
+        throw unsupported("Session message listeners");
+    }
+
+    @Override
+    public void setMessageListener(MessageListener listener) throws JMSException {
+        throw unsupported("Session message listeners");
+    }
+
+    @Override
+    public void run() {
+        throw new UnsupportedOperationException("Application server facilities are not supported by the " +
+                "loopback provider");
+    }
+
+    @Override
+    public MessageProducer createProducer(Destination destination) throws JMSException {
+        checkOpen();
+        return new LoopbackMessageProducer(this, destination);
+    }
+
+    @Override
+    public MessageConsumer createConsumer(Destination destination) throws JMSException {
+        return createConsumer(destination, null, false);
+    }
+
+    @Override
+    public MessageConsumer createConsumer(Destination destination, String messageSelector) throws JMSException {
+        return createConsumer(destination, messageSelector, false);
+    }
+
+    @Override
+    public MessageConsumer createConsumer(Destination destination, String messageSelector, boolean noLocal)
+            throws JMSException {
+        checkOpen();
+        checkNoSelector(messageSelector);
+        LoopbackMessageConsumer consumer;
+        if (destination instanceof Queue) {
+            consumer = new LoopbackMessageConsumer(this, destination,
+                    broker.queueBuffer(((Queue) destination).getQueueName()), false);
+        } else if (destination instanceof Topic) {
+            consumer = new LoopbackMessageConsumer(this, destination,
+                    broker.subscribe(((Topic) destination).getTopicName()), true);
+        } else {
+            throw new InvalidDestinationException("Unsupported destination " + destination);
+        }
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    @Override
+    public Queue createQueue(String queueName) {
+        return new LoopbackQueue(queueName);
+    }
+
+    @Override
+    public Topic createTopic(String topicName) {
+        return new LoopbackTopic(topicName);
+    }
+
+    @Override
+    public TopicSubscriber createDurableSubscriber(Topic topic, String name) throws JMSException {
+        return createDurableSubscriber(topic, name, null, false);
+    }
+
+    @Override
+    public TopicSubscriber createDurableSubscriber(Topic topic, String name, String messageSelector,
+                                                   boolean noLocal) throws JMSException {
+        checkOpen();
+        checkNoSelector(messageSelector);
+        LoopbackMessageConsumer consumer = new LoopbackMessageConsumer(this, topic,
+                broker.durableSubscribe(topic.getTopicName(), name), false);
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    @Override
+    public QueueBrowser createBrowser(Queue queue) throws JMSException {
+        throw unsupported("Queue browsers");
+    }
+
+    @Override
+    public QueueBrowser createBrowser(Queue queue, String messageSelector) throws JMSException {
+        throw unsupported("Queue browsers");
+    }
+
+    @Override
+    public TemporaryQueue createTemporaryQueue() throws JMSException {
+        throw unsupported("Temporary queues");
+    }
+
+    @Override
+    public TemporaryTopic createTemporaryTopic() throws JMSException {
+        throw unsupported("Temporary topics");
+    }
+
+    @Override
+    public void unsubscribe(String name) throws JMSException {
+        broker.durableUnsubscribe(name);
+    }
+
+    /**
+     * Sends a message, or holds it until commit if the session is transacted
+     */
+    synchronized void send(Destination destination, LoopbackMessage message) throws JMSException {
+        checkOpen();
+        if (transacted) {
+            pendingDestinations.add(destination);
+            pendingMessages.add(message);
+        } else {
+            broker.deliver(destination, message);
+        }
+    }
+
+    /**
+     * Tracks a message handed to a consumer of this session until it is acknowledged or committed
+     */
+    synchronized void delivered(MessageBuffer buffer, LoopbackMessage message) {
+        if (transacted || acknowledgeMode == Session.CLIENT_ACKNOWLEDGE) {
+            message.setSession(this);
+            unacknowledgedBuffers.add(buffer);
+            unacknowledgedMessages.add(message);
+        }
+    }
+
+    synchronized void acknowledge() throws JMSException {
+        checkOpen();
+        unacknowledgedBuffers.clear();
+        unacknowledgedMessages.clear();
+    }
+
+    /**
+     * Calls a message listener, one listener of the session at a time
+     */
+    void dispatch(MessageListener listener, Message message) {
+        synchronized (dispatchLock) {
+            try {
+                listener.onMessage(message);
+            } catch (RuntimeException e) {
+                log.error("Message listener failed to handle message.", e);
+            }
+        }
+    }
+
+    void consumerClosed(LoopbackMessageConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void redeliverUnacknowledged() {
+        // in reverse order so that the buffers deliver them in the original order
+        for (int i = unacknowledgedMessages.size() - 1; i >= 0; i--) {
+            unacknowledgedBuffers.get(i).redeliver(unacknowledgedMessages.get(i).copy());
+        }
+        unacknowledgedBuffers.clear();
+        unacknowledgedMessages.clear();
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    private static void checkNoSelector(String messageSelector) throws JMSException {
+        if (StringUtils.isNotEmpty(messageSelector)) {
+            throw unsupported("Message selectors");
+        }
+    }
+
+    private static JMSException unsupported(String feature) {
+        return new JMSException(feature + " are not supported by the loopback provider");
+    }
+}
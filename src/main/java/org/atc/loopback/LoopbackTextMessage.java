@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import javax.jms.TextMessage;
+
+/**
+ * Text message of the loopback provider
+ */
+final class LoopbackTextMessage extends LoopbackMessage implements TextMessage {
+
+    private String text;
+
+    @Override
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public void clearBody() {
+        text = null;
+    }
+
+    @Override
+    void freeze() {
+        // strings are immutable
+    }
+
+    @Override
+    LoopbackMessage copy() {
+        LoopbackTextMessage copy = copyHeaders(new LoopbackTextMessage());
+        copy.text = text;
+        return copy;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import javax.jms.Topic;
+
+/**
+ * Topic of the loopback provider. Each message is delivered to all the subscriptions of the topic.
+ */
+final class LoopbackTopic implements Topic {
+
+    private final String name;
+
+    LoopbackTopic(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getTopicName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof LoopbackTopic && name.equals(((LoopbackTopic) o).name));
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "topic://" + name;
+    }
+}
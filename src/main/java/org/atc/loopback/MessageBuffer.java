@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.loopback;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages waiting for consumers of a queue or a topic subscription
+ */
+final class MessageBuffer {
+
+    private final String name;
+    private final LinkedBlockingDeque<LoopbackMessage> messages;
+
+    MessageBuffer(String name) {
+        this.name = name;
+        messages = new LinkedBlockingDeque<>();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void add(LoopbackMessage message) {
+        messages.addLast(message);
+    }
+
+    /**
+     * Puts back a message that was delivered but not acknowledged, ahead of the waiting messages
+     *
+     * @param message message to redeliver
+     */
+    void redeliver(LoopbackMessage message) {
+        message.markRedelivered();
+        messages.addFirst(message);
+    }
+
+    LoopbackMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return messages.pollFirst(timeout, unit);
+    }
+
+    int size() {
+        return messages.size();
+    }
+}
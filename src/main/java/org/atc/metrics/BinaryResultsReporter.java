@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports a {@link com.codahale.metrics.MetricRegistry} to a {@link org.atc.metrics.ResultsFileWriter}, one
+ * frame per report. Metrics have the fields of the {@link com.codahale.metrics.CsvReporter} files, hence a
+ * converted results file matches what the CSV reporter used to write. Several reporters may share a writer.
+ * <p>
+ * A {@link org.atc.metrics.WindowedCounter} is reported bucket by bucket instead, each closed bucket in a
+ * frame of its own at the start of its interval.
+ */
+public final class BinaryResultsReporter extends ScheduledReporter {
+
+    private static Log log = LogFactory.getLog(BinaryResultsReporter.class);
+
+    private static final int COUNT_SCALE = 0;
+    private static final int VALUE_SCALE = 3;
+
+    private static final String[] GAUGE_FIELDS = {"value"};
+    private static final String[] COUNTER_FIELDS = {"count"};
+    private static final String[] HISTOGRAM_FIELDS =
+            {"count", "max", "mean", "min", "stddev", "p50", "p75", "p95", "p98", "p99", "p999"};
+    private static final String[] METER_FIELDS = {"count", "mean_rate", "m1_rate", "m5_rate", "m15_rate"};
+    private static final String[] TIMER_FIELDS = {"count", "max", "mean", "min", "stddev", "p50", "p75", "p95",
+            "p98", "p99", "p999", "mean_rate", "m1_rate", "m5_rate", "m15_rate"};
+
+    private final ResultsFileWriter writer;
+
+    /**
+     * Column id of the first field of each metric reported so far. Only used by the reporting thread.
+     */
+    private final Map<String, Integer> firstColumns;
+    private int[] columns;
+    private double[] values;
+    private int count;
+
+    /**
+     * @param registry registry to report
+     * @param writer results file writer, not closed by the reporter
+     * @param rateUnit unit rates are converted to
+     * @param durationUnit unit durations are converted to
+     */
+    public BinaryResultsReporter(MetricRegistry registry, ResultsFileWriter writer, TimeUnit rateUnit,
+                                 TimeUnit durationUnit) {
+        super(registry, "binary-results-reporter", MetricFilter.ALL, rateUnit, durationUnit);
+        this.writer = writer;
+        firstColumns = new HashMap<>();
+        columns = new int[256];
+        values = new double[256];
+    }
+
+    @Override
+    public synchronized void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                                    SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                                    SortedMap<String, Timer> timers) {
+        long timeMillis = System.currentTimeMillis();
+        try {
+            writeBuckets(gauges);
+
+            count = 0;
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                if (entry.getValue() instanceof WindowedCounter) {
+                    continue;
+                }
+                Object value = entry.getValue().getValue();
+                if (value instanceof Number) {
+                    int scale = (value instanceof Float || value instanceof Double) ? VALUE_SCALE : COUNT_SCALE;
+                    int column = column(entry.getKey(), GAUGE_FIELDS, scale);
+                    add(column, ((Number) value).doubleValue());
+                }
+            }
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                add(column(entry.getKey(), COUNTER_FIELDS, COUNT_SCALE), entry.getValue().getCount());
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                int column = column(entry.getKey(), HISTOGRAM_FIELDS, VALUE_SCALE);
+                add(column, entry.getValue().getCount());
+                addSnapshot(column + 1, entry.getValue().getSnapshot(), 1.0);
+            }
+            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+                int column = column(entry.getKey(), METER_FIELDS, VALUE_SCALE);
+                add(column, entry.getValue().getCount());
+                addRates(column + 1, entry.getValue().getMeanRate(), entry.getValue().getOneMinuteRate(),
+                        entry.getValue().getFiveMinuteRate(), entry.getValue().getFifteenMinuteRate());
+            }
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                int column = column(entry.getKey(), TIMER_FIELDS, VALUE_SCALE);
+                Timer timer = entry.getValue();
+                add(column, timer.getCount());
+                addSnapshot(column + 1, timer.getSnapshot(), convertDuration(1));
+                addRates(column + 11, timer.getMeanRate(), timer.getOneMinuteRate(), timer.getFiveMinuteRate(),
+                        timer.getFifteenMinuteRate());
+            }
+            writer.writeFrame(timeMillis, columns, values, count);
+        } catch (IOException e) {
+            log.error("Error while writing the results file", e);
+        }
+    }
+
+    /**
+     * Writes the buckets of the windowed counters closed since the last report, a frame per interval
+     */
+    private void writeBuckets(SortedMap<String, Gauge> gauges) throws IOException {
+        final SortedMap<Long, SortedMap<Integer, Long>> frames = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            if (!(entry.getValue() instanceof WindowedCounter)) {
+                continue;
+            }
+            final int column = column(entry.getKey(), GAUGE_FIELDS, COUNT_SCALE);
+            ((WindowedCounter) entry.getValue()).drainClosed(new WindowedCounter.Visitor() {
+                @Override
+                public void bucket(long startMillis, long value) {
+                    SortedMap<Integer, Long> frame = frames.get(startMillis);
+                    if (null == frame) {
+                        frame = new TreeMap<>();
+                        frames.put(startMillis, frame);
+                    }
+                    frame.put(column, value);
+                }
+            });
+        }
+        for (Map.Entry<Long, SortedMap<Integer, Long>> frame : frames.entrySet()) {
+            count = 0;
+            for (Map.Entry<Integer, Long> sample : frame.getValue().entrySet()) {
+                add(sample.getKey(), sample.getValue());
+            }
+            writer.writeFrame(frame.getKey(), columns, values, count);
+        }
+    }
+
+    /**
+     * @return column id of the first field of the metric, defining the metric if it was not reported before
+     */
+    private int column(String name, String[] fields, int scale) throws IOException {
+        Integer column = firstColumns.get(name);
+        if (null == column) {
+            int[] scales = new int[fields.length];
+            Arrays.fill(scales, scale);
+            scales[0] = "count".equals(fields[0]) ? COUNT_SCALE : scale;
+            column = writer.define(name, fields, scales);
+            firstColumns.put(name, column);
+        }
+        return column;
+    }
+
+    private void addSnapshot(int column, Snapshot snapshot, double durationFactor) {
+        add(column, snapshot.getMax() * durationFactor);
+        add(column + 1, snapshot.getMean() * durationFactor);
+        add(column + 2, snapshot.getMin() * durationFactor);
+        add(column + 3, snapshot.getStdDev() * durationFactor);
+        add(column + 4, snapshot.getMedian() * durationFactor);
+        add(column + 5, snapshot.get75thPercentile() * durationFactor);
+        add(column + 6, snapshot.get95thPercentile() * durationFactor);
+        add(column + 7, snapshot.get98thPercentile() * durationFactor);
+        add(column + 8, snapshot.get99thPercentile() * durationFactor);
+        add(column + 9, snapshot.get999thPercentile() * durationFactor);
+    }
+
+    private void addRates(int column, double mean, double m1, double m5, double m15) {
+        add(column, convertRate(mean));
+        add(column + 1, convertRate(m1));
+        add(column + 2, convertRate(m5));
+        add(column + 3, convertRate(m15));
+    }
+
+    private void add(int column, double value) {
+        if (count == columns.length) {
+            columns = Arrays.copyOf(columns, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        columns[count] = column;
+        values[count] = value;
+        count++;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records latency values into HdrHistograms without losing any sample. Writers are spread over a
+ * fixed set of {@link org.HdrHistogram.Recorder} stripes selected by thread id, so that consumer threads
+ * rarely record into the same recorder. Stripes are swapped and merged off the hot path by
+ * {@link #sampleInterval()}, which builds both the interval histogram and the histogram of the whole run.
+ * <p>
+ * All values are in microseconds.
+ */
+public final class LatencyRecorder {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String name;
+    private final Recorder[] stripes;
+    private final Histogram[] recycledStripes;
+    private final int stripeMask;
+    private final Histogram total;
+    private volatile Histogram lastInterval;
+
+    /**
+     * Creates a latency recorder with a stripe per available processor (rounded up to a power of two)
+     *
+     * @param name name of the recorded metric
+     */
+    public LatencyRecorder(String name) {
+        this.name = name;
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        stripes = new Recorder[stripeCount];
+        recycledStripes = new Histogram[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Recorder(SIGNIFICANT_DIGITS);
+        }
+        stripeMask = stripeCount - 1;
+        total = new Histogram(SIGNIFICANT_DIGITS);
+        total.setStartTimeStamp(System.currentTimeMillis());
+        lastInterval = new Histogram(SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Records a latency value
+     *
+     * @param latencyMicros latency in microseconds. Negative values caused by clock skew are recorded as 0
+     */
+    public void recordMicros(long latencyMicros) {
+        stripe().recordValue(Math.max(0, latencyMicros));
+    }
+
+    /**
+     * Records a latency value corrected for coordinated omission. If the value is larger than the
+     * expected interval, the samples that were omitted while the value was building up are recorded as
+     * well.
+     *
+     * @param latencyMicros latency in microseconds
+     * @param expectedIntervalMicros expected interval between two samples in microseconds
+     */
+    public void recordMicros(long latencyMicros, long expectedIntervalMicros) {
+        stripe().recordValueWithExpectedInterval(Math.max(0, latencyMicros), expectedIntervalMicros);
+    }
+
+    private Recorder stripe() {
+        return stripes[(int) Thread.currentThread().getId() & stripeMask];
+    }
+
+    /**
+     * Swaps all the stripes and merges what was recorded since the previous call. The result is added to
+     * the histogram of the whole run and kept as the last interval.
+     *
+     * @return histogram of the values recorded since the previous call
+     */
+    public synchronized Histogram sampleInterval() {
+        Histogram interval = new Histogram(SIGNIFICANT_DIGITS);
+        long startTime = Long.MAX_VALUE;
+        long endTime = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            Histogram stripeInterval = stripes[i].getIntervalHistogram(recycledStripes[i]);
+            interval.add(stripeInterval);
+            startTime = Math.min(startTime, stripeInterval.getStartTimeStamp());
+            endTime = Math.max(endTime, stripeInterval.getEndTimeStamp());
+            recycledStripes[i] = stripeInterval;
+        }
+        interval.setStartTimeStamp(startTime);
+        interval.setEndTimeStamp(endTime);
+
+        total.add(interval);
+        total.setEndTimeStamp(endTime);
+        lastInterval = interval;
+        return interval;
+    }
+
+    /**
+     * Histogram of the last sampled interval. The returned histogram is never modified afterwards and
+     * can be read without synchronisation.
+     *
+     * @return last interval histogram
+     */
+    public Histogram getLastInterval() {
+        return lastInterval;
+    }
+
+    /**
+     * Copy of the histogram of all the values sampled so far
+     *
+     * @return histogram of the whole run up to the last sampled interval
+     */
+    public synchronized Histogram copyTotal() {
+        return total.copy();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
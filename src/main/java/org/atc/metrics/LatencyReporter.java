@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples a {@link org.atc.metrics.LatencyRecorder}, writes every interval histogram to an
+ * HdrHistogram log file and reports the latency distribution of the whole run when stopped.
+ * The log file can be post processed with HdrHistogram's HistogramLogProcessor.
+ */
+public final class LatencyReporter {
+
+    private static Log log = LogFactory.getLog(LatencyReporter.class);
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LatencyRecorder recorder;
+    private final HistogramLogWriter logWriter;
+    private final ScheduledExecutorService executor;
+    private volatile IntervalListener intervalListener;
+
+    /**
+     * @param recorder latency recorder to sample
+     * @param logFile HdrHistogram log file interval histograms are written to
+     * @throws FileNotFoundException if the log file cannot be created
+     */
+    public LatencyReporter(LatencyRecorder recorder, File logFile) throws FileNotFoundException {
+        this.recorder = recorder;
+        File logDirectory = logFile.getParentFile();
+        if (null != logDirectory && !logDirectory.isDirectory() && !logDirectory.mkdirs()) {
+            throw new FileNotFoundException("Unable to create directory " + logDirectory);
+        }
+        logWriter = new HistogramLogWriter(logFile);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("LatencyReporter-" + recorder.getName())
+                .setDaemon(true).build());
+
+        long now = System.currentTimeMillis();
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(now);
+        logWriter.setBaseTime(now);
+        logWriter.outputLegend();
+    }
+
+    /**
+     * Sets a listener that is handed every interval histogram after it is written to the log
+     *
+     * @param intervalListener listener, null to remove
+     */
+    public void setIntervalListener(IntervalListener intervalListener) {
+        this.intervalListener = intervalListener;
+    }
+
+    /**
+     * Starts sampling the recorder at the given period
+     *
+     * @param period period between two samples
+     * @param unit time unit of the period
+     */
+    public void start(long period, TimeUnit unit) {
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Samples the recorder and writes the interval histogram to the log
+     */
+    public synchronized void report() {
+        Histogram interval = recorder.sampleInterval();
+        logWriter.outputIntervalHistogram(interval);
+        IntervalListener listener = intervalListener;
+        if (null != listener) {
+            listener.onInterval(interval);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(recorder.getName() + " interval " + summary(interval));
+        }
+    }
+
+    /**
+     * Stops sampling, reports the last interval and logs the latency distribution of the whole run
+     */
+    public synchronized void stop() {
+        executor.shutdown();
+        report();
+        logWriter.close();
+        log.info(recorder.getName() + " (ms) " + summary(recorder.copyTotal()));
+    }
+
+    /**
+     * Human readable summary of the tail of a latency histogram
+     *
+     * @param histogram latency histogram in microseconds
+     * @return summary with values in milliseconds
+     */
+    public static String summary(Histogram histogram) {
+        return String.format("[ count: %d, mean: %.3f, p50: %.3f, p99: %.3f, p99.9: %.3f, p99.99: %.3f, max: %.3f ]",
+                histogram.getTotalCount(),
+                histogram.getMean() / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.99) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    /**
+     * Receives the interval histograms of a {@link org.atc.metrics.LatencyReporter}
+     */
+    public interface IntervalListener {
+
+        /**
+         * Called in the reporting thread for every sampled interval
+         *
+         * @param interval latency histogram of the interval in microseconds
+         */
+        void onInterval(Histogram interval);
+    }
+}
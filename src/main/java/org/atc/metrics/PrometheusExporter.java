@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the metrics of a {@link com.codahale.metrics.MetricRegistry} and the last latency interval of a
+ * {@link org.atc.metrics.LatencyRecorder} over HTTP in the Prometheus text exposition format (version
+ * 0.0.4), at /metrics.
+ * <p>
+ * A scrape only reads what the hot path already maintains: meter and counter values, reservoir snapshots
+ * and the immutable last interval histogram. It never resets anything, hence the reset-on-read gauges are
+ * not exported. Scrapes are served one at a time by a single daemon thread.
+ */
+public final class PrometheusExporter {
+
+    private static Log log = LogFactory.getLog(PrometheusExporter.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "atc_";
+
+    /**
+     * publisher.[queue].publisher id [id].[metric] and consumer.[queue].consumer id [id].[metric]
+     */
+    private static final Pattern CLIENT_METRIC =
+            Pattern.compile("^(publisher|consumer)\\.(.*)\\.\\1 id ([^.]*)\\.(.+)$");
+    private static final Pattern INVALID_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_]+");
+
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+    private static final double[] LATENCY_QUANTILES = {0.5, 0.9, 0.99, 0.999, 0.9999, 1.0};
+    private static final double MICROS_PER_SECOND = 1000000.0;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private final MetricRegistry registry;
+    private final LatencyRecorder latency;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param registry registry to export
+     * @param latency latency recorder whose last sampled interval is exported as quantiles
+     * @param port port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public PrometheusExporter(MetricRegistry registry, LatencyRecorder latency, int port) throws IOException {
+        this.registry = registry;
+        this.latency = latency;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("PrometheusExporter-" + port)
+                .setDaemon(true).build());
+        server.setExecutor(executor);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        log.info("Prometheus metrics served on port " + server.getAddress().getPort() + " at /metrics");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            log.error("Error while exporting metrics", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes all the metrics in text exposition format. Samples of a family have to be contiguous, hence
+     * they are collected per family before the families are written out.
+     *
+     * @return exposition text
+     */
+    String scrape() {
+        Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
+            MetricName name = MetricName.parse(entry.getKey());
+            writeSample(family(families, name.family + "_total", "counter", "Messages counted by " + name.help),
+                    name.family + "_total", name.labels, null, entry.getValue().getCount());
+            writeSample(family(families, name.family + "_per_second", "gauge", "One minute rate of " + name.help),
+                    name.family + "_per_second", name.labels, null, entry.getValue().getOneMinuteRate());
+        }
+
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+            MetricName name = MetricName.parse(entry.getKey());
+            writeSample(family(families, name.family + "_total", "counter", name.help),
+                    name.family + "_total", name.labels, null, entry.getValue().getCount());
+        }
+
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            MetricName name = MetricName.parse(entry.getKey());
+            writeSummary(family(families, name.family, "summary", name.help), name.family, name.labels,
+                    entry.getValue().getSnapshot(), entry.getValue().getCount(), 1.0);
+        }
+
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+            MetricName name = MetricName.parse(entry.getKey());
+            writeSummary(family(families, name.family + "_seconds", "summary", name.help),
+                    name.family + "_seconds", name.labels, entry.getValue().getSnapshot(),
+                    entry.getValue().getCount(), NANOS_PER_SECOND);
+        }
+
+        for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+            // latency percentile gauges are exported from the histogram itself below
+            if (entry.getKey().startsWith(latency.getName() + ".")) {
+                continue;
+            }
+            Object value = entry.getValue().getValue();
+            if (value instanceof Number) {
+                MetricName name = MetricName.parse(entry.getKey());
+                writeSample(family(families, name.family, "gauge", name.help), name.family, name.labels, null,
+                        ((Number) value).doubleValue());
+            }
+        }
+
+        writeLatency(families);
+
+        StringBuilder out = new StringBuilder(8192);
+        for (StringBuilder family : families.values()) {
+            out.append(family);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Latency quantiles of the last sampled interval. The interval histogram is immutable, reading it does
+     * not synchronise with the recording consumer threads.
+     */
+    private void writeLatency(Map<String, StringBuilder> families) {
+        org.HdrHistogram.Histogram interval = latency.getLastInterval();
+        String family = PREFIX + sanitize(latency.getName()) + "_seconds";
+        StringBuilder out = family(families, family, "gauge",
+                "Publish to receive latency quantiles of the last interval");
+        for (double quantile : LATENCY_QUANTILES) {
+            writeSample(out, family, "", "quantile=\"" + quantile + "\"",
+                    interval.getValueAtPercentile(quantile * 100) / MICROS_PER_SECOND);
+        }
+        family = PREFIX + sanitize(latency.getName()) + "_interval_count";
+        writeSample(family(families, family, "gauge", "Latency samples of the last interval"), family, "", null,
+                interval.getTotalCount());
+    }
+
+    /**
+     * @return sample buffer of the family, created with its HELP and TYPE lines if absent
+     */
+    private static StringBuilder family(Map<String, StringBuilder> families, String family, String type,
+                                        String help) {
+        StringBuilder out = families.get(family);
+        if (null == out) {
+            out = new StringBuilder();
+            out.append("# HELP ").append(family).append(' ')
+                    .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+            families.put(family, out);
+        }
+        return out;
+    }
+
+    private static void writeSummary(StringBuilder out, String family, String labels, Snapshot snapshot,
+                                     long count, double divisor) {
+        for (double quantile : QUANTILES) {
+            writeSample(out, family, labels, "quantile=\"" + quantile + "\"", snapshot.getValue(quantile) / divisor);
+        }
+        writeSample(out, family + "_count", labels, null, count);
+    }
+
+    private static void writeSample(StringBuilder out, String family, String labels, String extraLabel,
+                                    double value) {
+        out.append(family);
+        if (!labels.isEmpty() || null != extraLabel) {
+            out.append('{').append(labels);
+            if (null != extraLabel) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String sanitize(String name) {
+        return INVALID_CHARACTERS.matcher(name).replaceAll("_").toLowerCase();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Maps a dotted metric name to a family name and labels. Publisher and consumer metrics become one
+     * family per metric with the destination and the client id as labels, anything else is a family of
+     * its own.
+     */
+    private static final class MetricName {
+
+        private final String family;
+        private final String labels;
+        private final String help;
+
+        private MetricName(String family, String labels, String help) {
+            this.family = family;
+            this.labels = labels;
+            this.help = help;
+        }
+
+        static MetricName parse(String name) {
+            Matcher matcher = CLIENT_METRIC.matcher(name);
+            if (matcher.matches()) {
+                String kind = matcher.group(1);
+                String metric = matcher.group(4);
+                if ("meter".equals(metric) || "rate".equals(metric)) {
+                    metric = "messages";
+                }
+                return new MetricName(PREFIX + kind + "_" + sanitize(metric),
+                        "queue=\"" + escape(matcher.group(2)) + "\"," + kind + "=\"" + escape(matcher.group(3)) + "\"",
+                        kind + " " + matcher.group(4));
+            }
+            return new MetricName(PREFIX + sanitize(name), "", name);
+        }
+    }
+}
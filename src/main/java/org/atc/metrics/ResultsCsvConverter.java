@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Converts a results file to a single CSV file with a row per frame and a column per metric field. Cells of
+ * fields not sampled in a frame are left empty.
+ */
+public final class ResultsCsvConverter {
+
+    private ResultsCsvConverter() {
+    }
+
+    /**
+     * Converts a results file
+     *
+     * @param results results file written by {@link org.atc.metrics.ResultsFileWriter}
+     * @param csv CSV file to write
+     * @param metricFilter regular expression a metric name has to contain to be converted, null for all
+     * @return number of rows written
+     * @throws IOException if the results file cannot be read or the CSV file cannot be written
+     */
+    public static int convert(File results, File csv, String metricFilter) throws IOException {
+        final Pattern filter = Pattern.compile(null == metricFilter ? "" : metricFilter);
+
+        // first pass collects the converted columns, as metrics are defined all along the file
+        final List<String> header = new ArrayList<>();
+        final Map<Integer, Integer> csvColumns = new HashMap<>();
+        ResultsFileReader.read(results, new ResultsFileReader.Visitor() {
+            @Override
+            public void metric(String name, String[] fields, int firstColumn) {
+                if (filter.matcher(name).find()) {
+                    for (int i = 0; i < fields.length; i++) {
+                        csvColumns.put(firstColumn + i, header.size());
+                        header.add(name + "." + fields[i]);
+                    }
+                }
+            }
+
+            @Override
+            public void frame(long timeMillis, int[] columns, double[] values, int count) {
+            }
+        });
+
+        try (final PrintStream out = new PrintStream(csv, StandardCharsets.UTF_8.name())) {
+            out.print("t");
+            for (String column : header) {
+                out.print(',');
+                out.print(column.contains(",") ? "\"" + column.replace("\"", "\"\"") + "\"" : column);
+            }
+            out.println();
+
+            final String[] row = new String[header.size()];
+            final int[] rows = new int[1];
+            ResultsFileReader.read(results, new ResultsFileReader.Visitor() {
+                @Override
+                public void metric(String name, String[] fields, int firstColumn) {
+                }
+
+                @Override
+                public void frame(long timeMillis, int[] columns, double[] values, int count) {
+                    Arrays.fill(row, "");
+                    boolean sampled = false;
+                    for (int i = 0; i < count; i++) {
+                        Integer csvColumn = csvColumns.get(columns[i]);
+                        if (null != csvColumn) {
+                            row[csvColumn] = format(values[i]);
+                            sampled = true;
+                        }
+                    }
+                    if (!sampled) {
+                        return;
+                    }
+                    out.print(String.format(Locale.US, "%.3f", timeMillis / 1000.0));
+                    for (String cell : row) {
+                        out.print(',');
+                        out.print(cell);
+                    }
+                    out.println();
+                    rows[0]++;
+                }
+            });
+            return rows[0];
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
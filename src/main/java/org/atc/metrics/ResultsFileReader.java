@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a results file written by {@link org.atc.metrics.ResultsFileWriter}. A record cut short at the end
+ * of the file, as left by a client that was killed while writing, ends the file.
+ */
+public final class ResultsFileReader {
+
+    /**
+     * Receives the records of a results file in the order they were written
+     */
+    public interface Visitor {
+
+        /**
+         * @param name metric name
+         * @param fields field names
+         * @param firstColumn column id of the first field, the other fields follow in order
+         */
+        void metric(String name, String[] fields, int firstColumn);
+
+        /**
+         * @param timeMillis sample time in epoch milliseconds
+         * @param columns column ids of the samples, only valid during the call
+         * @param values sample values, only valid during the call
+         * @param count number of samples
+         */
+        void frame(long timeMillis, int[] columns, double[] values, int count);
+    }
+
+    private ResultsFileReader() {
+    }
+
+    /**
+     * Reads a results file
+     *
+     * @param file results file
+     * @param visitor receives the metric definitions and the frames
+     * @return start time of the run in epoch milliseconds
+     * @throws IOException if the file cannot be read or is not a results file
+     */
+    public static long read(File file, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                1 << 16))) {
+            byte[] magic = new byte[ResultsFileWriter.MAGIC.length];
+            in.readFully(magic);
+            int version = in.readUnsignedByte();
+            if (!Arrays.equals(magic, ResultsFileWriter.MAGIC) || version != ResultsFileWriter.VERSION) {
+                throw new IOException(file + " is not a version " + ResultsFileWriter.VERSION + " results file");
+            }
+            long startTime = in.readLong();
+
+            long timeMillis = startTime;
+            int columnCount = 0;
+            long[] lastValues = new long[64];
+            double[] divisors = new double[64];
+            int[] columns = new int[64];
+            double[] values = new double[64];
+            try {
+                while (true) {
+                    int tag = in.read();
+                    if (tag == ResultsFileWriter.METRIC) {
+                        String name = readString(in);
+                        String[] fields = new String[(int) readVarLong(in)];
+                        int firstColumn = columnCount;
+                        columnCount += fields.length;
+                        if (columnCount > lastValues.length) {
+                            int capacity = Math.max(columnCount, lastValues.length * 2);
+                            lastValues = Arrays.copyOf(lastValues, capacity);
+                            divisors = Arrays.copyOf(divisors, capacity);
+                        }
+                        for (int i = 0; i < fields.length; i++) {
+                            fields[i] = readString(in);
+                            divisors[firstColumn + i] = Math.pow(10, in.readUnsignedByte());
+                        }
+                        visitor.metric(name, fields, firstColumn);
+                    } else if (tag == ResultsFileWriter.FRAME) {
+                        timeMillis += zigZag(readVarLong(in));
+                        int count = (int) readVarLong(in);
+                        if (count > columns.length) {
+                            columns = new int[count];
+                            values = new double[count];
+                        }
+                        int column = 0;
+                        for (int i = 0; i < count; i++) {
+                            column += (int) zigZag(readVarLong(in));
+                            lastValues[column] += zigZag(readVarLong(in));
+                            columns[i] = column;
+                            values[i] = lastValues[column] / divisors[column];
+                        }
+                        visitor.frame(timeMillis, columns, values, count);
+                    } else if (tag == -1) {
+                        break;
+                    } else {
+                        throw new IOException("Unknown record " + tag + " in " + file);
+                    }
+                }
+            } catch (EOFException ignore) {
+                // last record was not completely written
+            }
+            return startTime;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
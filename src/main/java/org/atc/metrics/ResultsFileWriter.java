@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Appends metric samples of a test run to a single binary results file. The file starts with the header
+ * <pre>
+ *   "ATCR" | version byte | start time in epoch milliseconds (8 bytes, big endian)
+ * </pre>
+ * followed by records, each starting with a tag byte:
+ * <pre>
+ *   'M' metric definition: name | field count | field count times (field name | scale byte)
+ *   'F' frame: time delta | sample count | sample count times (column id delta | value delta)
+ * </pre>
+ * Every field of a metric is a column. Columns are numbered in the order they are defined, starting from 0.
+ * A frame holds the columns sampled at one instant. Its time is relative to the previous frame, each column
+ * id is relative to the previous column id of the frame and each value is relative to the previous value of
+ * the same column. Values are stored as longs scaled by 10^scale. Counts are varints, deltas are zig-zag
+ * encoded varints and strings are a varint length followed by UTF-8 bytes.
+ * <p>
+ * A column that hardly changes between two samples costs two bytes a sample. The file is flushed after each
+ * frame, hence it can be read while the test is running.
+ */
+public final class ResultsFileWriter implements Closeable {
+
+    static final byte[] MAGIC = {'A', 'T', 'C', 'R'};
+    static final int VERSION = 1;
+    static final int METRIC = 'M';
+    static final int FRAME = 'F';
+
+    private final DataOutputStream out;
+    private long lastTimeMillis;
+    private int columnCount;
+    private long[] lastValues;
+    private double[] multipliers;
+
+    /**
+     * Creates the results file, replacing an existing one
+     *
+     * @param file results file
+     * @throws IOException if the file cannot be created
+     */
+    public ResultsFileWriter(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (null != directory && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Unable to create directory " + directory);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        lastValues = new long[64];
+        multipliers = new double[64];
+
+        lastTimeMillis = System.currentTimeMillis();
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(lastTimeMillis);
+        out.flush();
+    }
+
+    /**
+     * Defines a metric and a column for each of its fields
+     *
+     * @param name metric name
+     * @param fields field names
+     * @param scales number of decimal digits kept for each field
+     * @return column id of the first field, the other fields follow in order
+     * @throws IOException if writing fails
+     */
+    public synchronized int define(String name, String[] fields, int[] scales) throws IOException {
+        int firstColumn = columnCount;
+        columnCount += fields.length;
+        if (columnCount > lastValues.length) {
+            int capacity = Math.max(columnCount, lastValues.length * 2);
+            lastValues = Arrays.copyOf(lastValues, capacity);
+            multipliers = Arrays.copyOf(multipliers, capacity);
+        }
+
+        out.writeByte(METRIC);
+        writeString(name);
+        writeVarLong(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            writeString(fields[i]);
+            out.writeByte(scales[i]);
+            multipliers[firstColumn + i] = Math.pow(10, scales[i]);
+        }
+        return firstColumn;
+    }
+
+    /**
+     * Writes a frame of samples and flushes the file
+     *
+     * @param timeMillis sample time in epoch milliseconds
+     * @param columns column ids of the samples
+     * @param values sample values
+     * @param count number of samples
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeFrame(long timeMillis, int[] columns, double[] values, int count)
+            throws IOException {
+        out.writeByte(FRAME);
+        writeVarLong(zigZag(timeMillis - lastTimeMillis));
+        lastTimeMillis = timeMillis;
+        writeVarLong(count);
+        int lastColumn = 0;
+        for (int i = 0; i < count; i++) {
+            int column = columns[i];
+            long value = Math.round(values[i] * multipliers[column]);
+            writeVarLong(zigZag(column - lastColumn));
+            writeVarLong(zigZag(value - lastValues[column]));
+            lastColumn = column;
+            lastValues[column] = value;
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
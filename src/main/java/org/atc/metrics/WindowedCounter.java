@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.metrics;
+
+import com.codahale.metrics.Gauge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events into a ring of time buckets aligned to the wall clock, e.g. a bucket per second. Writers
+ * add to the bucket of the current interval in a stripe selected by thread id, so that concurrent writers
+ * rarely touch the same counter or cache line. Readers only take closed buckets, hence a reported value
+ * always covers a whole interval.
+ * <p>
+ * Closed buckets are collected with an atomic get and reset and kept with their interval, so that each is
+ * reported once with its own time however the reads are scheduled. An add that races with the collection of
+ * its bucket is counted in the next interval.
+ */
+public final class WindowedCounter implements Gauge<Long> {
+
+    /**
+     * Buckets in the ring. Closed buckets have to be collected within this many intervals to be reported.
+     */
+    private static final int BUCKETS = 16;
+
+    /**
+     * Default bucket length, giving a per second series
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    private static final int BUCKET_MASK = BUCKETS - 1;
+
+    /**
+     * Receives the closed buckets of a counter
+     */
+    public interface Visitor {
+
+        /**
+         * @param startMillis start of the bucket's interval in epoch milliseconds
+         * @param value sum of the bucket
+         */
+        void bucket(long startMillis, long value);
+    }
+
+    private final long intervalMillis;
+    private final int stripeMask;
+
+    /**
+     * Buckets of stripe s are at s * BUCKETS to s * BUCKETS + BUCKETS - 1. The same bucket of two stripes is
+     * 128 bytes apart, hence writers of the same interval do not share a cache line.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * Sums of the collected buckets, by interval. Guarded by this.
+     */
+    private final long[] collected;
+
+    /**
+     * Last collected and last visited interval. Guarded by this.
+     */
+    private long collectedInterval;
+    private long visitedInterval;
+    private boolean closed;
+
+    /**
+     * Creates a counter with a bucket per second
+     *
+     * @param writers expected number of concurrent writers, rounded up to a power of two stripes
+     */
+    public WindowedCounter(int writers) {
+        this(DEFAULT_INTERVAL_MILLIS, writers);
+    }
+
+    /**
+     * @param intervalMillis length of a bucket in milliseconds
+     * @param writers expected number of concurrent writers, rounded up to a power of two stripes
+     */
+    public WindowedCounter(long intervalMillis, int writers) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Bucket interval must be positive. Interval " + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+        int stripes = Integer.highestOneBit(Math.max(1, writers) * 2 - 1);
+        stripeMask = stripes - 1;
+        counts = new AtomicLongArray(stripes * BUCKETS);
+        collected = new long[BUCKETS];
+        collectedInterval = System.currentTimeMillis() / intervalMillis - 1;
+        visitedInterval = collectedInterval;
+    }
+
+    /**
+     * Adds to the bucket of the current interval
+     *
+     * @param delta value to add
+     */
+    public void add(long delta) {
+        long interval = System.currentTimeMillis() / intervalMillis;
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        counts.addAndGet(stripe * BUCKETS + (int) (interval & BUCKET_MASK), delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Passes each bucket closed since the previous call to the visitor, oldest first. After {@link #close()}
+     * the current bucket counts as closed.
+     *
+     * @param visitor receives the buckets
+     */
+    public synchronized void drainClosed(Visitor visitor) {
+        collect();
+        for (long interval = Math.max(visitedInterval + 1, collectedInterval - BUCKET_MASK);
+             interval <= collectedInterval; interval++) {
+            visitor.bucket(interval * intervalMillis, collected[(int) (interval & BUCKET_MASK)]);
+        }
+        visitedInterval = collectedInterval;
+    }
+
+    /**
+     * Closes the current bucket early, for the final report once no more events are added. Later adds are
+     * still counted, with the current bucket.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * @return sum of the last closed bucket
+     */
+    @Override
+    public synchronized Long getValue() {
+        collect();
+        return collected[(int) (collectedInterval & BUCKET_MASK)];
+    }
+
+    /**
+     * Collects the buckets closed since the last collection. Adds made to the last collected bucket after its
+     * collection are counted in the first newly closed one.
+     */
+    private void collect() {
+        long lastInterval = System.currentTimeMillis() / intervalMillis - (closed ? 0 : 1);
+        if (lastInterval <= collectedInterval) {
+            if (closed) {
+                collected[(int) (collectedInterval & BUCKET_MASK)] += take(collectedInterval);
+            }
+            return;
+        }
+        // after a round of the ring the bucket of the last collected interval holds a newer one
+        long late = lastInterval - collectedInterval < BUCKETS ? take(collectedInterval) : 0;
+        for (long interval = Math.max(collectedInterval + 1, lastInterval - BUCKET_MASK); interval <= lastInterval;
+             interval++) {
+            collected[(int) (interval & BUCKET_MASK)] = take(interval) + late;
+            late = 0;
+        }
+        collectedInterval = lastInterval;
+    }
+
+    private long take(long interval) {
+        int bucket = (int) (interval & BUCKET_MASK);
+        long sum = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            sum += counts.getAndSet(stripe * BUCKETS + bucket, 0);
+        }
+        return sum;
+    }
+}
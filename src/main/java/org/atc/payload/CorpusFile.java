@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A corpus file of newline separated records, memory mapped once and shared by all publishers. Records
+ * are located by a start offset and a length within the mapping, hence sampling a record does not copy
+ * it. Empty lines are skipped. Files larger than 2 GB are not supported.
+ */
+final class CorpusFile {
+
+    private static Log log = LogFactory.getLog(CorpusFile.class);
+
+    private static final Map<String, CorpusFile> CORPORA = new HashMap<>();
+
+    private final MappedByteBuffer buffer;
+    private final int[] recordOffsets;
+    private final int[] recordLengths;
+
+    private CorpusFile(MappedByteBuffer buffer, int[] recordOffsets, int[] recordLengths) {
+        this.buffer = buffer;
+        this.recordOffsets = recordOffsets;
+        this.recordLengths = recordLengths;
+    }
+
+    /**
+     * Maps and indexes the corpus file, or returns the corpus already mapped for the file
+     *
+     * @param path path to the corpus file
+     * @return corpus
+     * @throws IOException if the file cannot be read or mapped
+     */
+    static synchronized CorpusFile map(String path) throws IOException {
+        String canonicalPath = new File(path).getCanonicalPath();
+        CorpusFile corpus = CORPORA.get(canonicalPath);
+        if (null == corpus) {
+            corpus = load(canonicalPath);
+            CORPORA.put(canonicalPath, corpus);
+        }
+        return corpus;
+    }
+
+    MappedByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    int getRecordCount() {
+        return recordOffsets.length;
+    }
+
+    int getRecordOffset(int record) {
+        return recordOffsets[record];
+    }
+
+    int getRecordLength(int record) {
+        return recordLengths[record];
+    }
+
+    private static CorpusFile load(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Corpus file " + path + " is larger than 2 GB");
+            }
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int[] offsets = new int[1024];
+        int[] lengths = new int[1024];
+        int count = 0;
+        int start = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i == limit || buffer.get(i) == '\n') {
+                if (i > start) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        lengths = Arrays.copyOf(lengths, count * 2);
+                    }
+                    offsets[count] = start;
+                    lengths[count] = i - start;
+                    count++;
+                }
+                start = i + 1;
+            }
+        }
+        if (count == 0) {
+            throw new IOException("Corpus file " + path + " has no records");
+        }
+
+        log.info("Corpus " + path + " mapped. Size: " + limit + " bytes, records: " + count);
+        return new CorpusFile(buffer, Arrays.copyOf(offsets, count), Arrays.copyOf(lengths, count));
+    }
+}
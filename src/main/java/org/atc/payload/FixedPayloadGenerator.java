@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import org.atc.ATCMessage;
+
+/**
+ * Sends the same payload with every message
+ */
+final class FixedPayloadGenerator extends PayloadGenerator {
+
+    private final byte[] payload;
+
+    FixedPayloadGenerator(byte[] payload) {
+        this.payload = payload;
+    }
+
+    @Override
+    public void fill(ATCMessage message) {
+        message.setContent(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Payload sizes chosen from a set of sizes with relative weights, for instance 95 parts of 200 byte
+ * events and 5 parts of 1 MB documents
+ */
+final class HistogramPayloadGenerator extends SizedPayloadGenerator {
+
+    private final int[] sizes;
+    private final long[] cumulativeWeights;
+    private final long totalWeight;
+
+    HistogramPayloadGenerator(int[] sizes, int[] weights, Random random) {
+        super(validate(sizes, weights), random);
+        this.sizes = sizes;
+        cumulativeWeights = new long[weights.length];
+        long total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        totalWeight = total;
+    }
+
+    @Override
+    int nextSize() {
+        long point = (long) (random.nextDouble() * totalWeight);
+        int index = Arrays.binarySearch(cumulativeWeights, point);
+        index = index < 0 ? -index - 1 : index;
+        // first bucket whose cumulative weight is above the point, skipping buckets without weight
+        while (cumulativeWeights[index] <= point) {
+            index++;
+        }
+        return sizes[index];
+    }
+
+    /**
+     * @return largest size
+     */
+    private static int validate(int[] sizes, int[] weights) {
+        if (sizes.length != weights.length) {
+            throw new IllegalArgumentException("Payload histogram should have a weight for each size");
+        }
+        int maxSize = 0;
+        long totalWeight = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] < 0 || weights[i] < 0) {
+                throw new IllegalArgumentException("Payload histogram sizes and weights should not be negative");
+            }
+            maxSize = Math.max(maxSize, sizes[i]);
+            totalWeight += weights[i];
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Payload histogram should have a positive weight");
+        }
+        return maxSize;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import java.util.Random;
+
+/**
+ * Normally distributed payload sizes clamped to a minimum and a maximum size
+ */
+final class NormalPayloadGenerator extends SizedPayloadGenerator {
+
+    private final double mean;
+    private final double stdDev;
+    private final int minSize;
+    private final int maxSize;
+
+    NormalPayloadGenerator(double mean, double stdDev, int minSize, int maxSize, Random random) {
+        super(maxSize, random);
+        this.mean = mean;
+        this.stdDev = stdDev;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    int nextSize() {
+        long size = Math.round(mean + stdDev * random.nextGaussian());
+        return (int) Math.max(minSize, Math.min(maxSize, size));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import org.apache.commons.lang3.StringUtils;
+import org.atc.ATCMessage;
+import org.atc.config.PayloadConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fills the content of published messages according to the configured payload size distribution.
+ * Generated payloads are ranges of a single preallocated array, and corpus records are slices of the
+ * memory mapped corpus, hence no payload is allocated per message.
+ * <p>
+ * A generator is used by a single publisher thread.
+ */
+public abstract class PayloadGenerator {
+
+    /**
+     * Creates the payload generator of a publisher
+     *
+     * @param config payload configuration. null to send the message content as is
+     * @param messageContent content sent when no payload distribution is configured
+     * @return payload generator
+     * @throws IOException if the corpus file cannot be mapped
+     */
+    public static PayloadGenerator create(PayloadConfig config, String messageContent) throws IOException {
+        if (null == config) {
+            return new FixedPayloadGenerator(messageContent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Random random = config.getSeed() == 0 ? new Random() : new Random(config.getSeed());
+        String distribution = StringUtils.isBlank(config.getDistribution()) ?
+                "fixed" : config.getDistribution().trim().toLowerCase(Locale.ENGLISH);
+        switch (distribution) {
+            case "fixed":
+                checkSize(config.getSize(), "size");
+                return new FixedPayloadGenerator(SizedPayloadGenerator.filled(config.getSize()));
+            case "uniform":
+                checkSize(config.getMaxSize(), "maxSize");
+                if (config.getMinSize() < 0 || config.getMinSize() > config.getMaxSize()) {
+                    throw new IllegalArgumentException("minSize should be between 0 and maxSize");
+                }
+                return new UniformPayloadGenerator(config.getMinSize(), config.getMaxSize(), random);
+            case "normal":
+                if (config.getMean() <= 0 || config.getStdDev() < 0) {
+                    throw new IllegalArgumentException("A positive mean and stdDev should be set for the " +
+                            "normal payload distribution");
+                }
+                int maxSize = config.getMaxSize() > 0 ?
+                        config.getMaxSize() : (int) Math.ceil(config.getMean() + 6 * config.getStdDev());
+                return new NormalPayloadGenerator(config.getMean(), config.getStdDev(), config.getMinSize(),
+                        maxSize, random);
+            case "histogram":
+                return new HistogramPayloadGenerator(toArray(config.getSizes(), "sizes"),
+                        toArray(config.getWeights(), "weights"), random);
+            case "corpus":
+                if (StringUtils.isBlank(config.getCorpusFile())) {
+                    throw new IllegalArgumentException("corpusFile should be set for the corpus payload distribution");
+                }
+                return new CorpusPayloadGenerator(CorpusFile.map(config.getCorpusFile()), random);
+            default:
+                throw new IllegalArgumentException("Unknown payload distribution " + config.getDistribution());
+        }
+    }
+
+    /**
+     * Sets the content of the next message
+     *
+     * @param message message to fill
+     */
+    public abstract void fill(ATCMessage message);
+
+    private static void checkSize(int size, String name) {
+        if (size <= 0) {
+            throw new IllegalArgumentException(name + " should be a positive payload size");
+        }
+    }
+
+    private static int[] toArray(List<Integer> values, String name) {
+        if (null == values || values.isEmpty()) {
+            throw new IllegalArgumentException(name + " should be set for the histogram payload distribution");
+        }
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
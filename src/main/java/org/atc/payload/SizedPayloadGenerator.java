@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import org.atc.ATCMessage;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base of the generators varying the payload size. Every payload is a prefix of a single array of the
+ * largest size filled with printable characters. Payloads are never modified, hence generators of the same
+ * largest size share the array.
+ */
+abstract class SizedPayloadGenerator extends PayloadGenerator {
+
+    private static final byte[] CHARACTERS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".getBytes();
+
+    /**
+     * Filled arrays by size
+     */
+    private static final ConcurrentMap<Integer, byte[]> FILLED = new ConcurrentHashMap<>();
+
+    private final byte[] data;
+    protected final Random random;
+
+    SizedPayloadGenerator(int maxSize, Random random) {
+        this.random = random;
+        this.data = filled(maxSize);
+    }
+
+    @Override
+    public final void fill(ATCMessage message) {
+        message.setContent(data, 0, nextSize());
+    }
+
+    /**
+     * @return size of the next payload, at most the maximum size given to the constructor
+     */
+    abstract int nextSize();
+
+    /**
+     * Returns the shared array of the given size filled with random printable characters
+     *
+     * @param size array size
+     * @return filled array, not to be modified
+     */
+    static byte[] filled(int size) {
+        byte[] data = FILLED.get(size);
+        if (null == data) {
+            Random random = new Random();
+            data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = CHARACTERS[random.nextInt(CHARACTERS.length)];
+            }
+            byte[] existing = FILLED.putIfAbsent(size, data);
+            if (null != existing) {
+                data = existing;
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.atc.payload;
+
+import java.util.Random;
+
+/**
+ * Payload sizes uniformly distributed between a minimum and a maximum size, both inclusive
+ */
+final class UniformPayloadGenerator extends SizedPayloadGenerator {
+
+    private final int minSize;
+    private final int range;
+
+    UniformPayloadGenerator(int minSize, int maxSize, Random random) {
+        super(maxSize, random);
+        this.minSize = minSize;
+        this.range = maxSize - minSize + 1;
+    }
+
+    @Override
+    int nextSize() {
+        return minSize + random.nextInt(range);
+    }
+}
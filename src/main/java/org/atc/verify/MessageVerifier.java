@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.verify;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Verifies the messages received from a destination using the publisher id and sequence carried in the
+ * message header. Each publisher's sequences are tracked separately and, once the test is over, missing
+ * ranges, duplicates and messages that arrived out of order are reported.
+ * <p>
+ * Topic subscribers get a verifier each since all of them receive every message. Consumers of a queue
+ * share one since the messages are spread among them. Competing consumers record concurrently, hence
+ * ordering is only checked for verifiers with a single consumer.
+ */
+public final class MessageVerifier {
+
+    private static Log log = LogFactory.getLog(MessageVerifier.class);
+
+    private static final int MAX_REPORTED_RANGES = 20;
+
+    private static final Map<String, MessageVerifier> VERIFIERS = new LinkedHashMap<>();
+
+    private final String name;
+    private final ConcurrentMap<Integer, SequenceTracker> trackers;
+    private final Map<Integer, String> publisherNames;
+    private final Map<Integer, Long> expectedCounts;
+    private int consumers;
+
+    private MessageVerifier(String name) {
+        this.name = name;
+        trackers = new ConcurrentHashMap<>();
+        publisherNames = new ConcurrentHashMap<>();
+        expectedCounts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the verifier with the given name, creating it if absent
+     *
+     * @param name verifier name, consumers using the same name share the verifier
+     * @return verifier
+     */
+    public static synchronized MessageVerifier getInstance(String name) {
+        MessageVerifier verifier = VERIFIERS.get(name);
+        if (null == verifier) {
+            verifier = new MessageVerifier(name);
+            VERIFIERS.put(name, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Logs the report of every verifier
+     */
+    public static synchronized void reportAll() {
+        for (MessageVerifier verifier : VERIFIERS.values()) {
+            verifier.report();
+        }
+    }
+
+    /**
+     * Sets the number of messages a publisher actually sent in every verifier it was registered with
+     *
+     * @param publisherId numeric publisher id written to the message header
+     * @param sentCount number of messages the publisher sent
+     */
+    public static synchronized void expectSent(int publisherId, long sentCount) {
+        for (MessageVerifier verifier : VERIFIERS.values()) {
+            if (verifier.expectedCounts.containsKey(publisherId)) {
+                verifier.expectedCounts.put(publisherId, sentCount);
+            }
+        }
+    }
+
+    /**
+     * Registers a consumer recording to this verifier
+     */
+    public synchronized void addConsumer() {
+        consumers++;
+    }
+
+    private synchronized boolean isOrderChecked() {
+        return consumers <= 1;
+    }
+
+    /**
+     * Registers a publisher sending to the verified destination, so that messages lost at the end of its
+     * run are reported as well
+     *
+     * @param publisherId numeric publisher id written to the message header
+     * @param publisherName publisher id of the configuration
+     * @param messageCount number of messages the publisher sends, 0 if unknown
+     */
+    public void expect(int publisherId, String publisherName, long messageCount) {
+        publisherNames.put(publisherId, publisherName);
+        expectedCounts.put(publisherId, messageCount);
+    }
+
+    /**
+     * Records a received message. Messages without a sequence, i.e. not sent by this client, are ignored.
+     *
+     * @param publisherId numeric publisher id of the message
+     * @param sequence sequence of the message within its publisher
+     */
+    public void record(int publisherId, long sequence) {
+        if (sequence <= 0) {
+            return;
+        }
+        SequenceTracker tracker = trackers.get(publisherId);
+        if (null == tracker) {
+            tracker = new SequenceTracker();
+            SequenceTracker existing = trackers.putIfAbsent(publisherId, tracker);
+            if (null != existing) {
+                tracker = existing;
+            }
+        }
+        tracker.record(sequence);
+    }
+
+    /**
+     * @return true if no message was missing, duplicated or out of order
+     */
+    public boolean isClean() {
+        for (Map.Entry<Integer, SequenceTracker> entry : trackers.entrySet()) {
+            SequenceTracker tracker = entry.getValue();
+            if (tracker.missingCount(expectedCount(entry.getKey())) > 0 || tracker.getDuplicates() > 0 ||
+                    (isOrderChecked() && tracker.getOutOfOrder() > 0)) {
+                return false;
+            }
+        }
+        for (Integer publisherId : expectedCounts.keySet()) {
+            if (!trackers.containsKey(publisherId) && expectedCount(publisherId) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Logs the missing ranges, duplicates and out of order counts of each publisher
+     */
+    public void report() {
+        StringBuilder report = new StringBuilder("Message verification of " + name);
+        if (!isClean()) {
+            report.append(". Errors found.");
+        } else if (isOrderChecked()) {
+            report.append(". No message loss, duplication or reordering.");
+        } else {
+            report.append(". No message loss or duplication.");
+        }
+        if (!isOrderChecked()) {
+            report.append(" Order not checked, messages are spread among ").append(consumers).append(" consumers.");
+        }
+
+        List<Integer> publisherIds = new ArrayList<>(trackers.keySet());
+        for (Integer publisherId : expectedCounts.keySet()) {
+            if (!trackers.containsKey(publisherId)) {
+                publisherIds.add(publisherId);
+            }
+        }
+        for (Integer publisherId : publisherIds) {
+            SequenceTracker tracker = trackers.get(publisherId);
+            if (null == tracker) {
+                tracker = new SequenceTracker();
+            }
+            long expectedCount = expectedCount(publisherId);
+            long missing = tracker.missingCount(expectedCount);
+
+            String publisherName = publisherNames.get(publisherId);
+            report.append("\n\tpublisher ").append(null == publisherName ? publisherId : publisherName)
+                    .append(": received ").append(tracker.getReceived())
+                    .append(expectedCount > 0 ? ", expected " + expectedCount : "")
+                    .append(", missing ").append(missing)
+                    .append(", duplicates ").append(tracker.getDuplicates());
+            if (isOrderChecked()) {
+                report.append(", out of order ").append(tracker.getOutOfOrder());
+            }
+            if (missing > 0) {
+                report.append("\n\t\tmissing sequences:");
+                List<long[]> ranges = tracker.missingRanges(expectedCount, MAX_REPORTED_RANGES);
+                for (long[] range : ranges) {
+                    report.append(' ').append(range[0]);
+                    if (range[1] != range[0]) {
+                        report.append('-').append(range[1]);
+                    }
+                }
+                if (ranges.size() == MAX_REPORTED_RANGES) {
+                    report.append(" ...");
+                }
+            }
+        }
+
+        if (isClean()) {
+            log.info(report);
+        } else {
+            log.error(report);
+        }
+    }
+
+    private long expectedCount(int publisherId) {
+        Long count = expectedCounts.get(publisherId);
+        return null == count ? 0 : count;
+    }
+}
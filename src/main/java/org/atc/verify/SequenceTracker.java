@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Asitha Nanayakkara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.atc.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks which sequences of a single publisher arrived. Publishers number their messages from 1, hence
+ * in order delivery only advances the contiguous prefix. Sequences arriving ahead of a gap are kept as
+ * ranges of consecutive sequences, so memory grows with the number of gaps and not with the number of
+ * messages.
+ */
+final class SequenceTracker {
+
+    /**
+     * All sequences from 1 up to this one arrived
+     */
+    private long contiguous;
+
+    /**
+     * Received sequences above contiguous + 1 as start to end (inclusive) ranges. Ranges never touch.
+     */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    private long highest;
+    private long received;
+    private long duplicates;
+    private long outOfOrder;
+
+    /**
+     * Records an arrived sequence
+     *
+     * @param sequence message sequence, starting at 1
+     */
+    synchronized void record(long sequence) {
+        received++;
+        if (sequence == contiguous + 1 && ranges.isEmpty()) {
+            // in order delivery
+            contiguous = sequence;
+            highest = sequence;
+            return;
+        }
+
+        if (sequence <= contiguous) {
+            duplicates++;
+            return;
+        }
+        Map.Entry<Long, Long> floor = ranges.floorEntry(sequence);
+        if (null != floor && floor.getValue() >= sequence) {
+            duplicates++;
+            return;
+        }
+
+        if (sequence < highest) {
+            outOfOrder++;
+        } else {
+            highest = sequence;
+        }
+
+        Long nextEnd = ranges.remove(sequence + 1);
+        long end = null == nextEnd ? sequence : nextEnd;
+        if (sequence == contiguous + 1) {
+            contiguous = end;
+        } else if (null != floor && floor.getValue() == sequence - 1) {
+            ranges.put(floor.getKey(), end);
+        } else {
+            ranges.put(sequence, end);
+        }
+    }
+
+    /**
+     * Missing sequences up to the expected last sequence, or up to the highest arrived one if the expected
+     * count is unknown
+     *
+     * @param expectedCount number of messages sent by the publisher, 0 if unknown
+     * @param maxRanges maximum number of ranges to return
+     * @return missing ranges as start and end (inclusive) pairs
+     */
+    synchronized List<long[]> missingRanges(long expectedCount, int maxRanges) {
+        List<long[]> missing = new ArrayList<>();
+        long next = contiguous + 1;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (missing.size() == maxRanges) {
+                return missing;
+            }
+            missing.add(new long[]{next, range.getKey() - 1});
+            next = range.getValue() + 1;
+        }
+        if (next <= expectedCount && missing.size() < maxRanges) {
+            missing.add(new long[]{next, expectedCount});
+        }
+        return missing;
+    }
+
+    /**
+     * @param expectedCount number of messages sent by the publisher, 0 if unknown
+     * @return number of sequences that never arrived
+     */
+    synchronized long missingCount(long expectedCount) {
+        long last = Math.max(highest, expectedCount);
+        long arrived = contiguous;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            arrived += range.getValue() - range.getKey() + 1;
+        }
+        return last - arrived;
+    }
+
+    synchronized long getReceived() {
+        return received;
+    }
+
+    synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    synchronized long getOutOfOrder() {
+        return outOfOrder;
+    }
+}